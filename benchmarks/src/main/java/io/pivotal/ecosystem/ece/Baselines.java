@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2017-Present Pivotal Software, Inc. All rights reserved.
+ * <p>
+ * This program and the accompanying materials are made available under
+ * the terms of the under the Apache License, Version 2.0 (the "License”);
+ * you may not use this file except in compliance with the License.
+ * <p>
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * <p>
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.pivotal.ecosystem.ece;
+
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.jayway.jsonpath.DocumentContext;
+import com.jayway.jsonpath.JsonPath;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The broker's earlier implementations of the paths being benchmarked, kept here so that each benchmark reports the
+ * old and the new approach side by side: gson tree building for request bodies, and json-path for reading responses
+ * and the cluster listing.
+ */
+abstract class Baselines {
+
+    static String createClusterBody(ServiceInstance instance) {
+        Map<String, String> params = instance.getClusterParams();
+        JsonObject cluster = new JsonObject();
+        JsonObject plan = new JsonObject();
+        JsonObject elasticSearch = new JsonObject();
+        JsonArray clusterTopology = new JsonArray();
+        JsonObject topology = new JsonObject();
+
+        cluster.addProperty(ClusterConfig.eceApiKeys.cluster_name.name(), params.get(ClusterConfig.eceApiKeys.cluster_name.name()));
+        elasticSearch.addProperty(ClusterConfig.eceApiKeys.version.name(), params.get(ClusterConfig.eceApiKeys.elasticsearch_version.name()));
+        plan.add(ClusterConfig.eceApiKeys.elasticsearch.name(), elasticSearch);
+        plan.addProperty(ClusterConfig.eceApiKeys.zone_count.name(), Integer.valueOf(params.get(ClusterConfig.eceApiKeys.zone_count.name())));
+
+        topology.addProperty(ClusterConfig.eceApiKeys.topology_type.name(), params.get(ClusterConfig.eceApiKeys.topology_type.name()));
+        topology.addProperty(ClusterConfig.eceApiKeys.memory_per_node.name(), Integer.valueOf(params.get(ClusterConfig.eceApiKeys.memory_per_node.name())));
+        topology.addProperty(ClusterConfig.eceApiKeys.node_count_per_zone.name(), Integer.valueOf(params.get(ClusterConfig.eceApiKeys.node_count_per_zone.name())));
+        clusterTopology.add(topology);
+        plan.add(ClusterConfig.eceApiKeys.cluster_topology.name(), clusterTopology);
+        cluster.add(ClusterConfig.eceApiKeys.plan.name(), plan);
+
+        return new GsonBuilder().create().toJson(cluster);
+    }
+
+    static String createKibanaBody(ServiceInstance instance) {
+        Map<String, String> params = instance.getKibanaParams();
+        JsonObject cluster = new JsonObject();
+        JsonObject plan = new JsonObject();
+        JsonObject kibana = new JsonObject();
+        JsonArray clusterTopology = new JsonArray();
+        JsonObject topology = new JsonObject();
+
+        cluster.addProperty(KibanaConfig.kibanaApiKeys.cluster_name.name(), params.get(KibanaConfig.kibanaApiKeys.cluster_name.name()));
+        cluster.addProperty(KibanaConfig.kibanaApiKeys.elasticsearch_cluster_id.name(), instance.getClusterParams().get(ClusterConfig.eceApiKeys.elasticsearch_cluster_id.name()));
+        plan.addProperty(KibanaConfig.kibanaApiKeys.zone_count.name(), Integer.valueOf(params.get(KibanaConfig.kibanaApiKeys.zone_count.name())));
+
+        topology.addProperty(KibanaConfig.kibanaApiKeys.memory_per_node.name(), Integer.valueOf(params.get(KibanaConfig.kibanaApiKeys.memory_per_node.name())));
+        topology.addProperty(KibanaConfig.kibanaApiKeys.node_count_per_zone.name(), Integer.valueOf(params.get(KibanaConfig.kibanaApiKeys.node_count_per_zone.name())));
+        clusterTopology.add(topology);
+        plan.add(KibanaConfig.kibanaApiKeys.cluster_topology.name(), clusterTopology);
+        kibana.addProperty(KibanaConfig.kibanaApiKeys.version.name(), KibanaConfig.DEFAULT_KIBANA_VERSION);
+        plan.add(KibanaConfig.KIBANA, kibana);
+
+        cluster.add(KibanaConfig.kibanaApiKeys.plan.name(), plan);
+
+        return new GsonBuilder().create().toJson(cluster);
+    }
+
+    static Map<String, String> processCreateClusterResponse(String createClusterResponse, EceConfig eceConfig) {
+        Map<String, String> credentials = new HashMap<>();
+        DocumentContext dc = JsonPath.parse(createClusterResponse);
+        String clusterId = dc.read("$." + ClusterConfig.eceApiKeys.elasticsearch_cluster_id.name());
+
+        credentials.put(ClusterConfig.credentialKeys.clusterId.name(), clusterId);
+        credentials.put(ClusterConfig.credentialKeys.username.name(), dc.read("$." + ClusterConfig.eceApiKeys.credentials.name() + "." + ClusterConfig.eceApiKeys.username.name()));
+        credentials.put(ClusterConfig.credentialKeys.password.name(), dc.read("$." + ClusterConfig.eceApiKeys.credentials.name() + "." + ClusterConfig.eceApiKeys.password.name()));
+        credentials.put(ClusterConfig.credentialKeys.host.name(), eceConfig.getElasticsearchDomain());
+        credentials.put(ClusterConfig.credentialKeys.port.name(), eceConfig.getElasticsearchPort());
+        credentials.put(ClusterConfig.credentialKeys.uri.name(), "ece://" + clusterId + "." + eceConfig.getElasticsearchDomain() + ":" + eceConfig.getElasticsearchPort());
+        credentials.put(ClusterConfig.credentialKeys.eceEndpoint.name(), "https://" + clusterId + "." + eceConfig.getElasticsearchDomain() + ":" + eceConfig.getElasticsearchPort());
+        return credentials;
+    }
+
+    /**
+     * The old status extraction: one json-path pass per field of interest over the whole listing.
+     */
+    static Map<String, String> clusterStatuses(String listing) {
+        DocumentContext dc = JsonPath.parse(listing);
+        List<String> ids = dc.read("$.elasticsearch_clusters[*].cluster_id");
+        List<String> statuses = dc.read("$.elasticsearch_clusters[*].status");
+
+        Map<String, String> m = new HashMap<>();
+        for (int i = 0; i < ids.size(); i++) {
+            m.put(ids.get(i), statuses.get(i));
+        }
+        return m;
+    }
+}
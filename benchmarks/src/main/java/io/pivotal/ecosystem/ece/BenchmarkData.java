@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2017-Present Pivotal Software, Inc. All rights reserved.
+ * <p>
+ * This program and the accompanying materials are made available under
+ * the terms of the under the Apache License, Version 2.0 (the "License”);
+ * you may not use this file except in compliance with the License.
+ * <p>
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * <p>
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.pivotal.ecosystem.ece;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.springframework.cloud.servicebroker.model.CreateServiceInstanceBindingRequest;
+import org.springframework.cloud.servicebroker.model.CreateServiceInstanceRequest;
+import org.springframework.cloud.servicebroker.model.GetLastServiceOperationResponse;
+import org.springframework.cloud.servicebroker.model.OperationState;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Realistic inputs for the benchmarks, built from the same payloads the unit tests use.
+ */
+abstract class BenchmarkData {
+
+    static final EceConfig ECE_CONFIG = new EceConfig("domain", "9243");
+
+    static CreateServiceInstanceRequest defaultsRequest(String id) {
+        CreateServiceInstanceRequest req = new CreateServiceInstanceRequest("ece", "oneNodeCluster", "anOrgGuid", "aSpaceGuid", null);
+        req.withServiceInstanceId(id);
+        return req;
+    }
+
+    static CreateServiceInstanceRequest customRequest(String id) {
+        CreateServiceInstanceRequest req = new CreateServiceInstanceRequest("ece", "oneNodeCluster", "anOrgGuid", "aSpaceGuid", customParameters());
+        req.withServiceInstanceId(id);
+        return req;
+    }
+
+    static Map<String, Object> customParameters() {
+        Map<String, Object> es = new HashMap<>();
+        es.put(ClusterConfig.eceApiKeys.elasticsearch_version.name(), "5.4.1");
+        es.put(ClusterConfig.eceApiKeys.cluster_name.name(), "my-cluster");
+        es.put(ClusterConfig.eceApiKeys.memory_per_node.name(), "2048");
+        es.put(ClusterConfig.eceApiKeys.zone_count.name(), "2");
+
+        Map<String, Object> kibana = new HashMap<>();
+        kibana.put(KibanaConfig.kibanaApiKeys.memory_per_node.name(), "1024");
+
+        Map<String, Object> params = new HashMap<>();
+        params.put(ClusterConfig.ELASTIC_SEARCH, es);
+        params.put(KibanaConfig.KIBANA, kibana);
+        return params;
+    }
+
+    static CreateClusterResponse createClusterResponse() throws IOException {
+        return EceJson.MAPPER.readValue(resource("createClusterResponse.json"), CreateClusterResponse.class);
+    }
+
+    /**
+     * @return a fully provisioned instance: created, credentials filled in, kibana requested, last operation set.
+     */
+    static ServiceInstance provisionedInstance() throws IOException {
+        ServiceInstance instance = new ServiceInstance(customRequest("d3228e4268d449e1be1a918e0eac49e3"));
+        instance.processCreateClusterResponse(createClusterResponse(), ECE_CONFIG);
+        instance.setKibanaRequested(true);
+        instance.setLastOperation(new GetLastServiceOperationResponse()
+                .withOperationState(OperationState.IN_PROGRESS)
+                .withDescription("creating...."));
+        return instance;
+    }
+
+    static ServiceBinding binding() throws IOException {
+        CreateServiceInstanceBindingRequest req = new CreateServiceInstanceBindingRequest("ece", "oneNodeCluster", "anAppGuid",
+                Collections.singletonMap("app_guid", "anAppGuid"), null);
+        req.withBindingId("aBindingId");
+        ServiceBinding binding = new ServiceBinding(req);
+        binding.getCredentials().put(ClusterConfig.credentialKeys.username.name(), "cf-aBindingUser");
+        binding.getCredentials().put(ClusterConfig.credentialKeys.password.name(), "aBindingPassword");
+        return binding;
+    }
+
+    /**
+     * @return a cluster listing with the given number of clusters, each a copy of the cluster in the test listing with
+     * its own id and name.
+     */
+    static byte[] clusterListing(int clusters) throws IOException {
+        JsonNode sample = EceJson.MAPPER.readTree(resource("clustersInfo.json"));
+        JsonNode template = sample.get("elasticsearch_clusters").get(0);
+
+        ObjectNode listing = EceJson.MAPPER.createObjectNode();
+        listing.put("return_count", clusters);
+        ArrayNode array = listing.putArray("elasticsearch_clusters");
+        for (int i = 0; i < clusters; i++) {
+            ObjectNode cluster = template.deepCopy();
+            cluster.put("cluster_id", String.format("%032x", i));
+            cluster.put("cluster_name", "cluster-" + i);
+            cluster.put("status", i % 10 == 0 ? "reconfiguring" : "started");
+            array.add(cluster);
+        }
+        return EceJson.MAPPER.writeValueAsBytes(listing);
+    }
+
+    private static InputStream resource(String name) {
+        return BenchmarkData.class.getClassLoader().getResourceAsStream(name);
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2017-Present Pivotal Software, Inc. All rights reserved.
+ * <p>
+ * This program and the accompanying materials are made available under
+ * the terms of the under the Apache License, Version 2.0 (the "License”);
+ * you may not use this file except in compliance with the License.
+ * <p>
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * <p>
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.pivotal.ecosystem.ece;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Status extraction from the ece cluster listing, streaming parser against the old json-path reads, at listing sizes
+ * up to a large ece install.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xmx2g"})
+public class ClusterListingBenchmark {
+
+    @Param({"1000", "10000", "50000"})
+    public int clusters;
+
+    private byte[] listing;
+    private String listingString;
+
+    @Setup
+    public void setUp() throws IOException {
+        listing = BenchmarkData.clusterListing(clusters);
+        listingString = new String(listing, StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public Map<String, ClusterStatus> streamingParser() throws IOException {
+        return ClusterListingParser.parse(new ByteArrayInputStream(listing));
+    }
+
+    @Benchmark
+    public Map<String, String> jsonPath() {
+        return Baselines.clusterStatuses(listingString);
+    }
+}
@@ -0,0 +1,331 @@
+/*
+ * Copyright (C) 2017-Present Pivotal Software, Inc. All rights reserved.
+ * <p>
+ * This program and the accompanying materials are made available under
+ * the terms of the under the Apache License, Version 2.0 (the "License”);
+ * you may not use this file except in compliance with the License.
+ * <p>
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * <p>
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.pivotal.ecosystem.ece;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process stand-in for the parts of the ece v1 api that EceRepo uses: cluster listing and lookup, cluster create,
+ * rename, shutdown and delete, and kibana create. Clusters move through their states on a configurable timeline, and every
+ * call can be given an injected latency (log-normal, from a median and a p99) and error rate. Calls are counted per
+ * endpoint.
+ */
+class EceSimulator {
+
+    static final String STARTED = "started";
+    static final String STOPPED = "stopped";
+    static final String INITIALIZING = "initializing";
+    static final String STOPPING = "stopping";
+
+    private final int port;
+    private final Timeline timeline;
+    private final Faults faults;
+
+    private final Map<String, Cluster> clusters = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> calls = new ConcurrentHashMap<>();
+    private final AtomicLong errors = new AtomicLong();
+
+    private HttpServer server;
+    private ExecutorService executor;
+
+    EceSimulator(int port, Timeline timeline, Faults faults) {
+        super();
+        this.port = port;
+        this.timeline = timeline;
+        this.faults = faults;
+    }
+
+    void start(int threads) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(port), 1024);
+        executor = Executors.newFixedThreadPool(threads);
+        server.setExecutor(executor);
+        server.createContext("/api/v1/clusters/", this::handle);
+        server.start();
+    }
+
+    void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * @return calls received per endpoint, sorted by endpoint
+     */
+    Map<String, Long> getCalls() {
+        Map<String, Long> m = new TreeMap<>();
+        calls.forEach((k, v) -> m.put(k, v.get()));
+        return m;
+    }
+
+    long getTotalCalls() {
+        return calls.values().stream().mapToLong(AtomicLong::get).sum();
+    }
+
+    long getErrors() {
+        return errors.get();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String method = exchange.getRequestMethod();
+            String[] path = exchange.getRequestURI().getPath().substring("/api/v1/clusters/".length()).split("/");
+            String endpoint = endpoint(method, path);
+            calls.computeIfAbsent(endpoint, k -> new AtomicLong()).incrementAndGet();
+
+            faults.delay();
+            if (faults.fail()) {
+                errors.incrementAndGet();
+                respond(exchange, 503, error("simulated failure"));
+                return;
+            }
+
+            switch (endpoint) {
+                case "GET clusters":
+                    respond(exchange, 200, listing());
+                    break;
+                case "GET cluster":
+                    Cluster c = clusters.get(path[1]);
+                    respond(exchange, c == null ? 404 : 200, c == null ? error("cluster not found") : c.toJson(false));
+                    break;
+                case "POST clusters":
+                    respond(exchange, 201, createCluster(EceJson.MAPPER.readTree(exchange.getRequestBody())));
+                    break;
+                case "POST shutdown":
+                    respond(exchange, shutdown(path[1]) ? 202 : 404, EceJson.MAPPER.createObjectNode());
+                    break;
+                case "PUT metadata":
+                    respond(exchange, rename(path[1], EceJson.MAPPER.readTree(exchange.getRequestBody())) ? 200 : 404, EceJson.MAPPER.createObjectNode());
+                    break;
+                case "PUT user":
+                case "DELETE user":
+                    Cluster u = clusters.get(path[1]);
+                    respond(exchange, u == null ? 404 : 200, u == null ? error("cluster not found") : EceJson.MAPPER.createObjectNode());
+                    break;
+                case "DELETE cluster":
+                    respond(exchange, clusters.remove(path[1]) != null ? 200 : 404, EceJson.MAPPER.createObjectNode());
+                    break;
+                case "POST kibana":
+                    JsonNode kibana = createKibana(EceJson.MAPPER.readTree(exchange.getRequestBody()));
+                    respond(exchange, kibana == null ? 404 : 201, kibana == null ? error("cluster not found") : kibana);
+                    break;
+                default:
+                    respond(exchange, 404, error("unsupported: " + endpoint));
+            }
+        } catch (Throwable t) {
+            respond(exchange, 500, error(t.toString()));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private String endpoint(String method, String[] path) {
+        if ("kibana".equals(path[0])) {
+            return method + " kibana";
+        }
+        if (path.length == 1) {
+            return method + " clusters";
+        }
+        if (path.length == 3 && "_shutdown".equals(path[2])) {
+            return method + " shutdown";
+        }
+        if (path.length > 3 && "proxy".equals(path[2])) {
+            return method + " user";
+        }
+        if (path.length == 4 && "metadata".equals(path[2])) {
+            return method + " metadata";
+        }
+        return method + " cluster";
+    }
+
+    private JsonNode listing() {
+        ObjectNode listing = EceJson.MAPPER.createObjectNode();
+        listing.put("return_count", clusters.size());
+        ArrayNode array = listing.putArray("elasticsearch_clusters");
+        for (Cluster c : clusters.values()) {
+            array.add(c.toJson(true));
+        }
+        return listing;
+    }
+
+    private JsonNode createCluster(JsonNode body) {
+        Cluster c = new Cluster(UUID.randomUUID().toString().replace("-", ""), body.path("cluster_name").asText());
+        clusters.put(c.id, c);
+
+        ObjectNode resp = EceJson.MAPPER.createObjectNode();
+        resp.put("elasticsearch_cluster_id", c.id);
+        ObjectNode credentials = resp.putObject("credentials");
+        credentials.put("username", "elastic");
+        credentials.put("password", UUID.randomUUID().toString());
+        return resp;
+    }
+
+    private boolean shutdown(String id) {
+        Cluster c = clusters.get(id);
+        if (c == null) {
+            return false;
+        }
+        c.shutdownAt = System.currentTimeMillis();
+        return true;
+    }
+
+    private boolean rename(String id, JsonNode body) {
+        Cluster c = clusters.get(id);
+        if (c == null) {
+            return false;
+        }
+        c.name = body.path("cluster_name").asText();
+        return true;
+    }
+
+    private JsonNode createKibana(JsonNode body) {
+        Cluster c = clusters.get(body.path("elasticsearch_cluster_id").asText());
+        if (c == null) {
+            return null;
+        }
+        c.kibanaId = UUID.randomUUID().toString().replace("-", "");
+        c.kibanaAt = System.currentTimeMillis();
+
+        ObjectNode resp = EceJson.MAPPER.createObjectNode();
+        resp.put("kibana_cluster_id", c.kibanaId);
+        resp.put("elasticsearch_cluster_id", c.id);
+        return resp;
+    }
+
+    private static JsonNode error(String message) {
+        ObjectNode node = EceJson.MAPPER.createObjectNode();
+        node.putArray("errors").addObject().put("message", message);
+        return node;
+    }
+
+    private static void respond(HttpExchange exchange, int status, JsonNode body) throws IOException {
+        byte[] b = EceJson.MAPPER.writeValueAsBytes(body);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, b.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(b);
+        }
+    }
+
+    private class Cluster {
+        private final String id;
+        private volatile String name;
+        private final long createdAt = System.currentTimeMillis();
+        private volatile long shutdownAt;
+        private volatile String kibanaId;
+        private volatile long kibanaAt;
+
+        private Cluster(String id, String name) {
+            this.id = id;
+            this.name = name;
+        }
+
+        private String status(long now) {
+            if (shutdownAt > 0) {
+                return now - shutdownAt >= timeline.stopDelay ? STOPPED : STOPPING;
+            }
+            return now - createdAt >= timeline.startDelay ? STARTED : INITIALIZING;
+        }
+
+        private JsonNode toJson(boolean listing) {
+            long now = System.currentTimeMillis();
+            ObjectNode node = EceJson.MAPPER.createObjectNode();
+            node.put("cluster_id", id);
+            node.put("cluster_name", name);
+            node.put("status", status(now));
+            node.put("healthy", true);
+            ArrayNode kibanas = node.putArray("associated_kibana_clusters");
+            if (kibanaId != null) {
+                //kibana boots alongside its cluster, but can't be enabled before the cluster is up
+                boolean enabled = now - kibanaAt >= timeline.kibanaDelay && now - createdAt >= timeline.startDelay;
+                kibanas.addObject().put("kibana_id", kibanaId).put("enabled", enabled);
+            }
+            if (!listing) {
+                node.putObject("plan_info").put("healthy", true);
+            }
+            return node;
+        }
+    }
+
+    /**
+     * How long, in millis, a cluster takes to start after create, a kibana cluster to be enabled after create, and a
+     * cluster to stop after shutdown.
+     */
+    static class Timeline {
+        private final long startDelay;
+        private final long kibanaDelay;
+        private final long stopDelay;
+
+        Timeline(long startDelay, long kibanaDelay, long stopDelay) {
+            this.startDelay = startDelay;
+            this.kibanaDelay = kibanaDelay;
+            this.stopDelay = stopDelay;
+        }
+    }
+
+    /**
+     * Injected latency and errors. Latency is log-normal with the given median and p99 millis, a median of 0 means no
+     * added latency. errorRate is the fraction of calls answered with a 503.
+     */
+    static class Faults {
+        private static final double Z_99 = 2.326;
+
+        private final double mu;
+        private final double sigma;
+        private final boolean latency;
+        private final double errorRate;
+
+        Faults(long medianMillis, long p99Millis, double errorRate) {
+            this.latency = medianMillis > 0;
+            this.mu = latency ? Math.log(medianMillis) : 0;
+            this.sigma = latency ? Math.log(Math.max(p99Millis, medianMillis) / (double) medianMillis) / Z_99 : 0;
+            this.errorRate = errorRate;
+        }
+
+        private void delay() throws InterruptedException {
+            if (!latency) {
+                return;
+            }
+            Random r = ThreadLocalRandom.current();
+            Thread.sleep((long) Math.exp(mu + sigma * r.nextGaussian()));
+        }
+
+        private boolean fail() {
+            return errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate;
+        }
+    }
+}
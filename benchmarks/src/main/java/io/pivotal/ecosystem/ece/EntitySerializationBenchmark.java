@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2017-Present Pivotal Software, Inc. All rights reserved.
+ * <p>
+ * This program and the accompanying materials are made available under
+ * the terms of the under the Apache License, Version 2.0 (the "License”);
+ * you may not use this file except in compliance with the License.
+ * <p>
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * <p>
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.pivotal.ecosystem.ece;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.data.redis.core.convert.MappingRedisConverter;
+import org.springframework.data.redis.core.convert.RedisData;
+import org.springframework.data.redis.core.mapping.RedisMappingContext;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Redis entity serialization: the compact single-value codec against the spring data hash mapping the repositories use
+ * by default.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EntitySerializationBenchmark {
+
+    private ServiceInstance instance;
+    private ServiceBinding binding;
+    private byte[] encodedInstance;
+    private byte[] encodedBinding;
+
+    private MappingRedisConverter converter;
+    private RedisData hashedInstance;
+
+    @Setup
+    public void setUp() throws IOException {
+        instance = BenchmarkData.provisionedInstance();
+        binding = BenchmarkData.binding();
+        encodedInstance = EntityCodec.encode(instance);
+        encodedBinding = EntityCodec.encode(binding);
+
+        converter = new MappingRedisConverter(new RedisMappingContext(), null, null);
+        converter.afterPropertiesSet();
+        hashedInstance = new RedisData();
+        converter.write(instance, hashedInstance);
+        instance.markClean();
+    }
+
+    @Benchmark
+    public byte[] encodeInstance() {
+        return EntityCodec.encode(instance);
+    }
+
+    @Benchmark
+    public ServiceInstance decodeInstance() {
+        return EntityCodec.decodeServiceInstance(encodedInstance);
+    }
+
+    @Benchmark
+    public byte[] encodeBinding() {
+        return EntityCodec.encode(binding);
+    }
+
+    @Benchmark
+    public ServiceBinding decodeBinding() {
+        return EntityCodec.decodeServiceBinding(encodedBinding);
+    }
+
+    @Benchmark
+    public RedisData hashInstance() {
+        RedisData data = new RedisData();
+        converter.write(instance, data);
+        return data;
+    }
+
+    @Benchmark
+    public ServiceInstance unhashInstance() {
+        return converter.read(ServiceInstance.class, hashedInstance);
+    }
+
+    /**
+     * the dirty check made on every save
+     */
+    @Benchmark
+    public Object changedFields() {
+        return instance.getChangedFields();
+    }
+}
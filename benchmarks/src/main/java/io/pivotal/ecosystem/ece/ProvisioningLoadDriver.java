@@ -0,0 +1,276 @@
+/*
+ * Copyright (C) 2017-Present Pivotal Software, Inc. All rights reserved.
+ * <p>
+ * This program and the accompanying materials are made available under
+ * the terms of the under the Apache License, Version 2.0 (the "License”);
+ * you may not use this file except in compliance with the License.
+ * <p>
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * <p>
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.pivotal.ecosystem.ece;
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * End to end load test for the broker. Starts an EceSimulator and then plays the cloud controller against a running
+ * broker: each worker creates an instance with accepts_incomplete, polls last_operation until it is terminal and,
+ * optionally, deletes it the same way. At the end it reports throughput, create/poll/delete latencies, time to
+ * provisioned, and ece calls per provisioned instance.
+ * <p>
+ * The broker must be started separately and pointed at the simulator, for example:
+ * <pre>
+ * ECE_SCHEME=http ECE_HOST=localhost ECE_PORT=9243 ECE_ADMIN_UID=uid ECE_ADMIN_PW=pw \
+ *     ELASTICSEARCH_DOMAIN=domain ELASTICSEARCH_PORT=9243 java -jar target/sb-*.jar
+ * java -cp benchmarks/target/benchmarks.jar io.pivotal.ecosystem.ece.ProvisioningLoadDriver \
+ *     broker=http://localhost:8080 user=user password=pass instances=500 concurrency=50 delete
+ * </pre>
+ */
+public class ProvisioningLoadDriver {
+
+    private final Map<String, String> args;
+    private final String broker;
+    private final String auth;
+    private final long pollInterval;
+    private final long timeout;
+    private final String plan;
+
+    private final Map<String, ConcurrentLinkedQueue<Long>> latencies = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> failures = new ConcurrentHashMap<>();
+    private final AtomicLong provisioned = new AtomicLong();
+
+    private ProvisioningLoadDriver(Map<String, String> args) {
+        super();
+        this.args = args;
+        this.broker = arg("broker", "http://localhost:8080");
+        this.pollInterval = Long.parseLong(arg("poll", "1000"));
+        this.timeout = Long.parseLong(arg("timeout", "600000"));
+        this.plan = arg("plan", "oneNodeCluster");
+
+        String user = args.get("user");
+        this.auth = user == null ? null : "Basic " + Base64.getEncoder().encodeToString(
+                (user + ":" + arg("password", "")).getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static void main(String[] argv) throws Exception {
+        Map<String, String> args = new HashMap<>();
+        for (String a : argv) {
+            String[] kv = a.replaceFirst("^--", "").split("=", 2);
+            args.put(kv[0], kv.length > 1 ? kv[1] : "true");
+        }
+        new ProvisioningLoadDriver(args).run();
+    }
+
+    private String arg(String name, String def) {
+        return args.getOrDefault(name, def);
+    }
+
+    private long longArg(String name, String def) {
+        return Long.parseLong(arg(name, def));
+    }
+
+    private void run() throws Exception {
+        EceSimulator simulator = new EceSimulator(
+                Integer.parseInt(arg("sim-port", "9243")),
+                new EceSimulator.Timeline(longArg("start-delay", "5000"), longArg("kibana-delay", "3000"), longArg("stop-delay", "2000")),
+                new EceSimulator.Faults(longArg("latency-median", "20"), longArg("latency-p99", "200"), Double.parseDouble(arg("error-rate", "0"))));
+        simulator.start(Integer.parseInt(arg("sim-threads", "64")));
+        System.out.println("ece simulator listening on port " + simulator.getPort() + ", broker: " + broker + ", plan: " + plan);
+
+        int instances = Integer.parseInt(arg("instances", "100"));
+        int concurrency = Integer.parseInt(arg("concurrency", "20"));
+        boolean delete = Boolean.parseBoolean(arg("delete", "false"));
+
+        ExecutorService workers = Executors.newFixedThreadPool(concurrency);
+        long start = System.nanoTime();
+        for (int i = 0; i < instances; i++) {
+            workers.execute(() -> lifecycle(UUID.randomUUID().toString(), delete));
+        }
+        workers.shutdown();
+        workers.awaitTermination(1, TimeUnit.DAYS);
+        long elapsed = System.nanoTime() - start;
+
+        report(instances, elapsed, simulator);
+        simulator.stop();
+    }
+
+    private void lifecycle(String id, boolean delete) {
+        try {
+            long start = System.nanoTime();
+            if (!call("create", "PUT", instanceUrl(id), createBody()) || !await(id, "create")) {
+                return;
+            }
+            provisioned.incrementAndGet();
+            record("time_to_provisioned", start);
+
+            if (delete) {
+                start = System.nanoTime();
+                if (call("delete", "DELETE", instanceUrl(id) + "&service_id=ece&plan_id=" + plan, null) && await(id, "delete")) {
+                    record("time_to_deprovisioned", start);
+                }
+            }
+        } catch (Throwable t) {
+            fail("error");
+        }
+    }
+
+    private String instanceUrl(String id) {
+        return broker + "/v2/service_instances/" + id + "?accepts_incomplete=true";
+    }
+
+    private String createBody() {
+        return "{\"service_id\":\"ece\",\"plan_id\":\"" + plan + "\",\"organization_guid\":\"load-org\",\"space_guid\":\"load-space\"}";
+    }
+
+    /**
+     * polls last_operation until the operation succeeds or fails, or the timeout passes
+     */
+    private boolean await(String id, String operation) throws IOException, InterruptedException {
+        long deadline = System.currentTimeMillis() + timeout;
+        String url = broker + "/v2/service_instances/" + id + "/last_operation?service_id=ece&plan_id=" + plan;
+        while (System.currentTimeMillis() < deadline) {
+            Thread.sleep(pollInterval);
+            long start = System.nanoTime();
+            Response r = send("GET", url, null);
+            record("last_operation", start);
+
+            //the instance is gone once a delete completes, the broker answers that with a 410 or 422
+            if ((r.status == 410 || r.status == 422) && "delete".equals(operation)) {
+                return true;
+            }
+            if (r.status != 200) {
+                fail("last_operation " + r.status);
+                continue;
+            }
+
+            String state = EceJson.MAPPER.readTree(r.body).path("state").asText();
+            if ("succeeded".equals(state)) {
+                return true;
+            }
+            if ("failed".equals(state)) {
+                fail(operation + " failed");
+                return false;
+            }
+        }
+        fail(operation + " timed out");
+        return false;
+    }
+
+    private boolean call(String name, String method, String url, String body) throws IOException {
+        long start = System.nanoTime();
+        Response r = send(method, url, body);
+        record(name, start);
+        if (r.status >= 300) {
+            fail(name + " " + r.status);
+            return false;
+        }
+        return true;
+    }
+
+    private Response send(String method, String url, String body) throws IOException {
+        HttpURLConnection c = (HttpURLConnection) new URL(url).openConnection();
+        c.setRequestMethod(method);
+        c.setRequestProperty("X-Broker-API-Version", "2.12");
+        c.setRequestProperty("Accept", "application/json");
+        if (auth != null) {
+            c.setRequestProperty("Authorization", auth);
+        }
+        if (body != null) {
+            c.setDoOutput(true);
+            c.setRequestProperty("Content-Type", "application/json");
+            try (OutputStream out = c.getOutputStream()) {
+                out.write(body.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+
+        int status = c.getResponseCode();
+        InputStream in = status >= 400 ? c.getErrorStream() : c.getInputStream();
+        return new Response(status, in == null ? new byte[0] : readAll(in));
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        try (InputStream i = in) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            int n;
+            while ((n = i.read(buf)) != -1) {
+                out.write(buf, 0, n);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    private void record(String name, long startNanos) {
+        latencies.computeIfAbsent(name, k -> new ConcurrentLinkedQueue<>()).add(System.nanoTime() - startNanos);
+    }
+
+    private void fail(String reason) {
+        failures.computeIfAbsent(reason, k -> new AtomicLong()).incrementAndGet();
+    }
+
+    private void report(int instances, long elapsedNanos, EceSimulator simulator) {
+        double seconds = elapsedNanos / 1e9;
+        long done = provisioned.get();
+        System.out.println();
+        System.out.printf("instances: %d, provisioned: %d, elapsed: %.1fs, throughput: %.2f provisioned/s%n",
+                instances, done, seconds, done / seconds);
+
+        for (Map.Entry<String, ConcurrentLinkedQueue<Long>> e : latencies.entrySet()) {
+            List<Long> l = new ArrayList<>(e.getValue());
+            Collections.sort(l);
+            System.out.printf("%-22s count: %7d  p50: %8.1fms  p99: %8.1fms  max: %8.1fms%n", e.getKey(), l.size(),
+                    percentile(l, 0.5), percentile(l, 0.99), percentile(l, 1.0));
+        }
+
+        System.out.println("ece calls: " + simulator.getTotalCalls() + ", injected errors: " + simulator.getErrors()
+                + ", per provisioned instance: " + String.format("%.2f", simulator.getTotalCalls() / (double) Math.max(done, 1)));
+        for (Map.Entry<String, Long> e : simulator.getCalls().entrySet()) {
+            System.out.printf("  %-16s %7d  (%.2f per instance)%n", e.getKey(), e.getValue(), e.getValue() / (double) Math.max(done, 1));
+        }
+        failures.forEach((k, v) -> System.out.println("failures, " + k + ": " + v.get()));
+    }
+
+    private static double percentile(List<Long> sorted, double p) {
+        if (sorted.isEmpty()) {
+            return 0;
+        }
+        int i = (int) Math.ceil(p * sorted.size()) - 1;
+        return sorted.get(Math.max(i, 0)) / 1e6;
+    }
+
+    private static class Response {
+        private final int status;
+        private final byte[] body;
+
+        private Response(int status, byte[] body) {
+            this.status = status;
+            this.body = body;
+        }
+    }
+}
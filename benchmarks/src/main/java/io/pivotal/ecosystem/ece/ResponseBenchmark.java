@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2017-Present Pivotal Software, Inc. All rights reserved.
+ * <p>
+ * This program and the accompanying materials are made available under
+ * the terms of the under the Apache License, Version 2.0 (the "License”);
+ * you may not use this file except in compliance with the License.
+ * <p>
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * <p>
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.pivotal.ecosystem.ece;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.cloud.servicebroker.model.Catalog;
+import org.springframework.cloud.servicebroker.model.CreateServiceInstanceAppBindingResponse;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Catalog and bind response bodies: serializing the response objects on every request, as the controllers do, against
+ * writing out bytes prepared once. Bytes on the wire for both encodings are printed at setup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResponseBenchmark {
+
+    private ObjectMapper mapper;
+    private Catalog catalog;
+    private CreateServiceInstanceAppBindingResponse bindingResponse;
+
+    private PreparedResponse preparedCatalog;
+    private PreparedResponse preparedBinding;
+
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream(4096);
+
+    @Setup
+    public void setUp() throws IOException {
+        //configured as the mvc message converters configure theirs
+        mapper = Jackson2ObjectMapperBuilder.json().build();
+        catalog = new CatalogService("").getCatalog();
+        bindingResponse = new CreateServiceInstanceAppBindingResponse().withCredentials(BenchmarkData.provisionedInstance().credentialsFor(BenchmarkData.binding()));
+
+        preparedCatalog = new PreparedResponse(200, mapper.writeValueAsBytes(catalog), 512);
+        preparedBinding = new PreparedResponse(200, mapper.writeValueAsBytes(bindingResponse), 512);
+
+        System.out.println("catalog bytes, identity: " + preparedCatalog.size(PreparedResponse.IDENTITY) + " gzip: " + preparedCatalog.size(PreparedResponse.GZIP));
+        System.out.println("binding bytes, identity: " + preparedBinding.size(PreparedResponse.IDENTITY) + " gzip: " + preparedBinding.size(PreparedResponse.GZIP));
+    }
+
+    @Benchmark
+    public byte[] serializeCatalog() throws IOException {
+        return mapper.writeValueAsBytes(catalog);
+    }
+
+    @Benchmark
+    public int preparedCatalog() {
+        out.reset();
+        out.write(preparedCatalog.getBody(), 0, preparedCatalog.getBody().length);
+        return out.size();
+    }
+
+    @Benchmark
+    public byte[] serializeBinding() throws IOException {
+        return mapper.writeValueAsBytes(bindingResponse);
+    }
+
+    @Benchmark
+    public int preparedBinding() {
+        out.reset();
+        out.write(preparedBinding.getBody(), 0, preparedBinding.getBody().length);
+        return out.size();
+    }
+}
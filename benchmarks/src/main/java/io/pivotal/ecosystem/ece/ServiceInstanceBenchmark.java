@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2017-Present Pivotal Software, Inc. All rights reserved.
+ * <p>
+ * This program and the accompanying materials are made available under
+ * the terms of the under the Apache License, Version 2.0 (the "License”);
+ * you may not use this file except in compliance with the License.
+ * <p>
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * <p>
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.pivotal.ecosystem.ece;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.cloud.servicebroker.model.CreateServiceInstanceRequest;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Instance construction and parameter handling, request body rendering and create response processing. Each new path
+ * is paired with its baseline.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ServiceInstanceBenchmark {
+
+    private CreateServiceInstanceRequest defaultsRequest;
+    private CreateServiceInstanceRequest customRequest;
+    private Map<String, Object> customParameters;
+    private ServiceInstance instance;
+    private CreateClusterResponse createClusterResponse;
+    private String createClusterResponseJson;
+
+    @Setup
+    public void setUp() throws IOException {
+        defaultsRequest = BenchmarkData.defaultsRequest("anInstanceId");
+        customRequest = BenchmarkData.customRequest("anInstanceId");
+        customParameters = BenchmarkData.customParameters();
+        instance = BenchmarkData.provisionedInstance();
+        createClusterResponse = BenchmarkData.createClusterResponse();
+        createClusterResponseJson = EceJson.MAPPER.writeValueAsString(createClusterResponse);
+    }
+
+    @Benchmark
+    public ServiceInstance constructDefaults() {
+        return new ServiceInstance(defaultsRequest);
+    }
+
+    @Benchmark
+    public ServiceInstance constructCustom() {
+        return new ServiceInstance(customRequest);
+    }
+
+    @Benchmark
+    public Map<String, String> paramsToClusterConfigParams() {
+        return EnumUtil.paramsToClusterConfigParams(customParameters);
+    }
+
+    @Benchmark
+    public String createClusterBody() {
+        return instance.getCreateClusterBody();
+    }
+
+    @Benchmark
+    public String createClusterBodyGson() {
+        return Baselines.createClusterBody(instance);
+    }
+
+    @Benchmark
+    public String createKibanaBody() {
+        return instance.getCreateKibanaBody();
+    }
+
+    @Benchmark
+    public String createKibanaBodyGson() {
+        return Baselines.createKibanaBody(instance);
+    }
+
+    /**
+     * decode included, as the broker receives the response as bytes
+     */
+    @Benchmark
+    public ServiceInstance processCreateClusterResponse() throws IOException {
+        ServiceInstance si = new ServiceInstance();
+        si.processCreateClusterResponse(EceJson.MAPPER.readValue(createClusterResponseJson, CreateClusterResponse.class), BenchmarkData.ECE_CONFIG);
+        return si;
+    }
+
+    @Benchmark
+    public Map<String, String> processCreateClusterResponseJsonPath() {
+        return Baselines.processCreateClusterResponse(createClusterResponseJson, BenchmarkData.ECE_CONFIG);
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2017-Present Pivotal Software, Inc. All rights reserved.
+ * <p>
+ * This program and the accompanying materials are made available under
+ * the terms of the under the Apache License, Version 2.0 (the "License”);
+ * you may not use this file except in compliance with the License.
+ * <p>
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * <p>
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.pivotal.ecosystem.ece;
+
+/**
+ * Concurrency limit that adapts to observed latency, AIMD style. The limit grows by one for every limit's worth of
+ * calls that come back within tolerance times the baseline (the lowest recent latency), and is cut by backoff when
+ * a call is slower than that or fails. Callers over the limit wait up to maxWait millis for a slot, then give up.
+ */
+class AdaptiveLimit {
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double tolerance;
+    private final double backoff;
+
+    private double limit;
+    private int inFlight;
+    private long baseline = Long.MAX_VALUE;
+
+    AdaptiveLimit(int initialLimit, int minLimit, int maxLimit, double tolerance, double backoff) {
+        super();
+        this.limit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.tolerance = tolerance;
+        this.backoff = backoff;
+    }
+
+    /**
+     * @return true if a slot was taken, in which case release must be called
+     */
+    synchronized boolean acquire(long maxWait) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + maxWait;
+        while (inFlight >= (int) limit) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return false;
+            }
+            wait(remaining);
+        }
+        inFlight++;
+        return true;
+    }
+
+    /**
+     * @param rtt     call latency in nanos
+     * @param dropped true if the call failed in a way that says ece is overloaded
+     */
+    synchronized void release(long rtt, boolean dropped) {
+        inFlight--;
+
+        if (rtt < baseline) {
+            baseline = rtt;
+        } else {
+            //let the baseline drift up slowly, so a lasting change in ece latency is not read as overload forever
+            baseline += (rtt - baseline) / 100;
+        }
+
+        if (dropped || rtt > baseline * tolerance) {
+            limit = Math.max(minLimit, limit * backoff);
+        } else {
+            limit = Math.min(maxLimit, limit + 1 / limit);
+        }
+        notifyAll();
+    }
+
+    synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    synchronized int getInFlight() {
+        return inFlight;
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2017-Present Pivotal Software, Inc. All rights reserved.
+ * <p>
+ * This program and the accompanying materials are made available under
+ * the terms of the under the Apache License, Version 2.0 (the "License”);
+ * you may not use this file except in compliance with the License.
+ * <p>
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * <p>
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.ecosystem.ece;
+
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Non-blocking variant of EceClient: each call runs on the bounded ece executor and completes the returned future. The
+ * instance's plan goes along with the call, for tagging its metrics.
+ */
+@Service
+class AsyncEceClient {
+
+    private EceClient eceClient;
+    private ThreadPoolTaskExecutor executor;
+
+    public AsyncEceClient(EceClient eceClient, @Qualifier(EceAsyncConfig.ECE_EXECUTOR) ThreadPoolTaskExecutor executor) {
+        super();
+        this.eceClient = eceClient;
+        this.executor = executor;
+    }
+
+    CompletableFuture<Boolean> clusterExists(ServiceInstance instance) {
+        return CompletableFuture.supplyAsync(() -> EceMetrics.withPlan(instance.getPlan_id(), () -> eceClient.clusterExists(instance)), executor);
+    }
+
+    CompletableFuture<ServiceInstance> createCluster(ServiceInstance instance) {
+        return CompletableFuture.supplyAsync(() -> EceMetrics.withPlan(instance.getPlan_id(), () -> {
+            eceClient.createCluster(instance);
+            return instance;
+        }), executor);
+    }
+
+    CompletableFuture<ServiceInstance> createKibana(ServiceInstance instance) {
+        return CompletableFuture.supplyAsync(() -> EceMetrics.withPlan(instance.getPlan_id(), () -> {
+            eceClient.createKibana(instance);
+            return instance;
+        }), executor);
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2017-Present Pivotal Software, Inc. All rights reserved.
+ * <p>
+ * This program and the accompanying materials are made available under
+ * the terms of the under the Apache License, Version 2.0 (the "License”);
+ * you may not use this file except in compliance with the License.
+ * <p>
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * <p>
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.pivotal.ecosystem.ece;
+
+import lombok.Data;
+
+import java.security.SecureRandom;
+import java.util.Base64;
+
+/**
+ * An elasticsearch user minted in an instance's cluster ahead of a bind, waiting in the credential pool.
+ */
+@Data
+class BindingCredential {
+
+    static final String USERNAME_PREFIX = "cf-";
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private String clusterId;
+    private String username;
+    private String password;
+    private long createdAt;
+
+    static BindingCredential generate(String clusterId) {
+        BindingCredential c = new BindingCredential();
+        c.setClusterId(clusterId);
+        c.setUsername(USERNAME_PREFIX + random(12).toLowerCase());
+        c.setPassword(random(24));
+        c.setCreatedAt(System.currentTimeMillis());
+        return c;
+    }
+
+    private static String random(int bytes) {
+        byte[] b = new byte[bytes];
+        RANDOM.nextBytes(b);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(b);
+    }
+}
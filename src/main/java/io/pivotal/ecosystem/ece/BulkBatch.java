@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2017-Present Pivotal Software, Inc. All rights reserved.
+ * <p>
+ * This program and the accompanying materials are made available under
+ * the terms of the under the Apache License, Version 2.0 (the "License”);
+ * you may not use this file except in compliance with the License.
+ * <p>
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * <p>
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.pivotal.ecosystem.ece;
+
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import lombok.Data;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.redis.core.RedisHash;
+import org.springframework.data.redis.core.index.Indexed;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A batch of creates or deletes submitted through the bulk api, or the teardown of every instance in a space or org.
+ * Member state lives on the service instances themselves, the batch only records which instances belong to it and any
+ * request that was refused outright. Batches expire after a week.
+ */
+@Data
+@RedisHash(value = "batches", timeToLive = 604800)
+public class BulkBatch implements Serializable {
+
+    public static final long serialVersionUID = 1L;
+
+    enum Operation {
+        create, delete, teardown
+    }
+
+    @JsonSerialize
+    @Id
+    private String id;
+
+    @JsonSerialize
+    private Operation operation;
+
+    @JsonSerialize
+    private long created;
+
+    //a teardown still being watched through to its cluster deletes
+    @JsonSerialize
+    @Indexed
+    private boolean active;
+
+    @JsonSerialize
+    private final List<String> instanceIds = new ArrayList<>();
+
+    //instance id to the reason it was refused
+    @JsonSerialize
+    private final Map<String, String> errors = new HashMap<>();
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2017-Present Pivotal Software, Inc. All rights reserved.
+ * <p>
+ * This program and the accompanying materials are made available under
+ * the terms of the under the Apache License, Version 2.0 (the "License”);
+ * you may not use this file except in compliance with the License.
+ * <p>
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * <p>
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.pivotal.ecosystem.ece;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Admin api for provisioning and tearing down many instances at once, or everything in a space or org. A batch is
+ * submitted in one call and its members' status is read back a page at a time. Pages are streamed, members are looked up and written in chunks
+ * rather than building the whole page in memory. Teardowns delete everything in scope, so they are refused unless
+ * ece.teardown.enabled is set.
+ */
+@RestController
+@RequestMapping("/admin/bulk")
+class BulkController {
+
+    static final int MAX_PAGE_SIZE = 1000;
+    private static final int CHUNK = 50;
+
+    private BulkProvisioner bulkProvisioner;
+    private boolean teardownEnabled;
+
+    public BulkController(BulkProvisioner bulkProvisioner, @Value("${ece.teardown.enabled:false}") boolean teardownEnabled) {
+        super();
+        this.bulkProvisioner = bulkProvisioner;
+        this.teardownEnabled = teardownEnabled;
+    }
+
+    @RequestMapping(method = RequestMethod.POST, consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<Map<String, Object>> submit(@RequestBody BulkRequest request) {
+        return accepted(bulkProvisioner.submit(request));
+    }
+
+    @RequestMapping(value = "/teardown", method = RequestMethod.POST, consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<Map<String, Object>> teardown(@RequestBody TeardownRequest request) {
+        if (!teardownEnabled) {
+            return new ResponseEntity<>(Collections.singletonMap("description", "teardowns are disabled, see ece.teardown.enabled."), HttpStatus.FORBIDDEN);
+        }
+        return accepted(bulkProvisioner.teardown(request));
+    }
+
+    private ResponseEntity<Map<String, Object>> accepted(BulkBatch batch) {
+        Map<String, Object> body = new HashMap<>();
+        body.put("batch_id", batch.getId());
+        body.put("operation", batch.getOperation());
+        body.put("total", batch.getInstanceIds().size());
+        return new ResponseEntity<>(body, HttpStatus.ACCEPTED);
+    }
+
+    @RequestMapping(value = "/{batchId}", method = RequestMethod.GET, produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> status(@PathVariable String batchId,
+                                                        @RequestParam(defaultValue = "0") int page,
+                                                        @RequestParam(defaultValue = "100") int size) {
+        if (page < 0 || size < 1 || size > MAX_PAGE_SIZE) {
+            throw new IllegalArgumentException("page must be >= 0 and size between 1 and " + MAX_PAGE_SIZE);
+        }
+
+        BulkBatch batch = bulkProvisioner.getBatch(batchId);
+        if (batch == null) {
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        }
+
+        List<String> ids = batch.getInstanceIds();
+        int from = Math.min(page * size, ids.size());
+        List<String> pageIds = ids.subList(from, Math.min(from + size, ids.size()));
+
+        StreamingResponseBody body = out -> {
+            try (JsonGenerator g = EceJson.MAPPER.getFactory().createGenerator(out)) {
+                g.writeStartObject();
+                g.writeStringField("batch_id", batch.getId());
+                g.writeStringField("operation", batch.getOperation().name());
+                g.writeNumberField("created", batch.getCreated());
+                if (BulkBatch.Operation.teardown.equals(batch.getOperation())) {
+                    g.writeBooleanField("active", batch.isActive());
+                }
+                g.writeNumberField("total", ids.size());
+                g.writeNumberField("page", page);
+                g.writeNumberField("size", size);
+                g.writeArrayFieldStart("members");
+                for (int i = 0; i < pageIds.size(); i += CHUNK) {
+                    writeMembers(g, batch, pageIds.subList(i, Math.min(i + CHUNK, pageIds.size())));
+                    g.flush();
+                }
+                g.writeEndArray();
+                g.writeEndObject();
+            }
+        };
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
+    }
+
+    private void writeMembers(JsonGenerator g, BulkBatch batch, List<String> ids) throws IOException {
+        Map<String, ServiceInstance> instances = bulkProvisioner.findMembers(ids);
+        for (String id : ids) {
+            g.writeStartObject();
+            g.writeStringField("service_instance_id", id);
+
+            String error = batch.getErrors().get(id);
+            ServiceInstance instance = instances.get(id);
+            if (error != null) {
+                g.writeStringField("state", "failed");
+                g.writeStringField("description", error);
+            } else if (!isStarted(batch, instance)) {
+                g.writeStringField("state", "pending");
+            } else {
+                g.writeStringField("state", instance.getLastOperation().getState().getValue());
+                g.writeStringField("description", instance.getLastOperation().getDescription());
+            }
+            g.writeEndObject();
+        }
+    }
+
+    //a delete member still carries the outcome of its create until the broker has taken the delete on
+    private boolean isStarted(BulkBatch batch, ServiceInstance instance) {
+        if (instance == null || instance.getLastOperation() == null) {
+            return false;
+        }
+        return BulkBatch.Operation.create.equals(batch.getOperation()) || instance.getLastOperation().isDeleteOperation();
+    }
+
+    @ExceptionHandler(IllegalArgumentException.class)
+    public ResponseEntity<Map<String, String>> badRequest(IllegalArgumentException e) {
+        return new ResponseEntity<>(Collections.singletonMap("description", e.getMessage()), HttpStatus.BAD_REQUEST);
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2017-Present Pivotal Software, Inc. All rights reserved.
+ * <p>
+ * This program and the accompanying materials are made available under
+ * the terms of the under the Apache License, Version 2.0 (the "License”);
+ * you may not use this file except in compliance with the License.
+ * <p>
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * <p>
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.pivotal.ecosystem.ece;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.servicebroker.model.CreateServiceInstanceRequest;
+import org.springframework.cloud.servicebroker.model.DeleteServiceInstanceRequest;
+import org.springframework.cloud.servicebroker.model.GetLastServiceOperationResponse;
+import org.springframework.cloud.servicebroker.model.OperationState;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Runs batches of creates or deletes through EceBroker on the bulk executor, so a batch gets the same checks,
+ * reservations and parameter handling as the equivalent OSB requests, with bounded parallelism. A teardown is a delete
+ * batch made up of every live instance in a space or org, and is then followed through by the TeardownWatcher.
+ */
+@Slf4j
+@Service
+class BulkProvisioner {
+
+    private EceBroker eceBroker;
+    private BulkBatchRepository bulkBatchRepository;
+    private ServiceInstanceRepository serviceInstanceRepository;
+    private TaskExecutor bulkExecutor;
+    private int maxBatchSize;
+
+    public BulkProvisioner(EceBroker eceBroker, BulkBatchRepository bulkBatchRepository, ServiceInstanceRepository serviceInstanceRepository,
+                           @Qualifier(EceAsyncConfig.BULK_EXECUTOR) TaskExecutor bulkExecutor,
+                           @Value("${ece.bulk.maxBatchSize:1000}") int maxBatchSize) {
+        super();
+        this.eceBroker = eceBroker;
+        this.bulkBatchRepository = bulkBatchRepository;
+        this.serviceInstanceRepository = serviceInstanceRepository;
+        this.bulkExecutor = bulkExecutor;
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * @return the new batch, its members are run in the background.
+     * @throws IllegalArgumentException if the request is not a valid batch
+     */
+    BulkBatch submit(BulkRequest request) {
+        validate(request);
+
+        BulkBatch batch = new BulkBatch();
+        batch.setId(UUID.randomUUID().toString());
+        batch.setOperation(request.getOperation());
+        batch.setCreated(System.currentTimeMillis());
+        for (BulkRequest.Member m : request.getInstances()) {
+            batch.getInstanceIds().add(m.getService_instance_id());
+        }
+        bulkBatchRepository.save(batch);
+
+        log.info("submitting bulk " + batch.getOperation() + " batch: " + batch.getId() + " members: " + batch.getInstanceIds().size());
+        execute(batch, request.getInstances());
+        return batch;
+    }
+
+    private void execute(BulkBatch batch, List<BulkRequest.Member> members) {
+        for (BulkRequest.Member m : members) {
+            try {
+                bulkExecutor.execute(() -> run(batch, m));
+            } catch (Throwable t) {
+                recordError(batch, m.getService_instance_id(), "rejected, broker busy.");
+            }
+        }
+    }
+
+    /**
+     * Starts shutting down every live instance in the request's scope, parallelism at a time. Finding the members
+     * scans all instances, which is fine for an admin job but not for a request path.
+     *
+     * @return the new batch, active until the TeardownWatcher has seen every member through.
+     * @throws IllegalArgumentException if neither an org nor a space is given
+     */
+    BulkBatch teardown(TeardownRequest request) {
+        if (request.getOrganization_guid() == null && request.getSpace_guid() == null) {
+            throw new IllegalArgumentException("organization_guid or space_guid is required.");
+        }
+
+        List<BulkRequest.Member> members = new ArrayList<>();
+        for (ServiceInstance instance : serviceInstanceRepository.findAll()) {
+            if (instance != null && request.isInScope(instance) && !isDeleted(instance)) {
+                BulkRequest.Member m = new BulkRequest.Member();
+                m.setService_instance_id(instance.getService_instance_id());
+                m.setService_id(instance.getService_id());
+                m.setPlan_id(instance.getPlan_id());
+                members.add(m);
+            }
+        }
+
+        BulkBatch batch = new BulkBatch();
+        batch.setId(UUID.randomUUID().toString());
+        batch.setOperation(BulkBatch.Operation.teardown);
+        batch.setCreated(System.currentTimeMillis());
+        batch.setActive(!members.isEmpty());
+        for (BulkRequest.Member m : members) {
+            batch.getInstanceIds().add(m.getService_instance_id());
+        }
+        bulkBatchRepository.save(batch);
+
+        log.info("submitting teardown: " + batch.getId() + " org: " + request.getOrganization_guid() + " space: "
+                + request.getSpace_guid() + " members: " + members.size());
+        execute(batch, members);
+        return batch;
+    }
+
+    private static boolean isDeleted(ServiceInstance instance) {
+        GetLastServiceOperationResponse lo = instance.getLastOperation();
+        return lo != null && lo.isDeleteOperation() && OperationState.SUCCEEDED.equals(lo.getState());
+    }
+
+    BulkBatch getBatch(String batchId) {
+        return bulkBatchRepository.findOne(batchId);
+    }
+
+    /**
+     * @return the stored instances among the given ids, by id. Members not created yet are absent.
+     */
+    Map<String, ServiceInstance> findMembers(List<String> instanceIds) {
+        Map<String, ServiceInstance> m = new HashMap<>();
+        for (ServiceInstance instance : serviceInstanceRepository.findAll(instanceIds)) {
+            if (instance != null) {
+                m.put(instance.getService_instance_id(), instance);
+            }
+        }
+        return m;
+    }
+
+    private void validate(BulkRequest request) {
+        if (request.getOperation() == null) {
+            throw new IllegalArgumentException("operation is required.");
+        }
+
+        if (BulkBatch.Operation.teardown.equals(request.getOperation())) {
+            throw new IllegalArgumentException("teardowns are submitted to /admin/bulk/teardown.");
+        }
+
+        if (request.getInstances() == null || request.getInstances().isEmpty()) {
+            throw new IllegalArgumentException("at least one instance is required.");
+        }
+
+        if (request.getInstances().size() > maxBatchSize) {
+            throw new IllegalArgumentException("batch size exceeds the limit of: " + maxBatchSize);
+        }
+
+        Set<String> ids = new HashSet<>();
+        for (BulkRequest.Member m : request.getInstances()) {
+            if (m.getService_instance_id() == null || m.getService_id() == null || m.getPlan_id() == null) {
+                throw new IllegalArgumentException("service_instance_id, service_id and plan_id are required.");
+            }
+
+            if (!ids.add(m.getService_instance_id())) {
+                throw new IllegalArgumentException("duplicate service_instance_id: " + m.getService_instance_id());
+            }
+        }
+    }
+
+    private void run(BulkBatch batch, BulkRequest.Member m) {
+        try {
+            if (BulkBatch.Operation.create.equals(batch.getOperation())) {
+                CreateServiceInstanceRequest req = new CreateServiceInstanceRequest(m.getService_id(), m.getPlan_id(),
+                        m.getOrganization_guid(), m.getSpace_guid(), m.getParameters());
+                req.withServiceInstanceId(m.getService_instance_id());
+                req.withAsyncAccepted(true);
+                eceBroker.createServiceInstance(req);
+            } else {
+                eceBroker.deleteServiceInstance(new DeleteServiceInstanceRequest(m.getService_instance_id(), m.getService_id(),
+                        m.getPlan_id(), null, true));
+            }
+        } catch (Throwable t) {
+            log.error("bulk " + batch.getOperation() + " failed for service instance: " + m.getService_instance_id(), t);
+            recordError(batch, m.getService_instance_id(), t.getMessage() != null ? t.getMessage() : t.getClass().getSimpleName());
+        }
+    }
+
+    private void recordError(BulkBatch batch, String instanceId, String error) {
+        synchronized (batch) {
+            batch.getErrors().put(instanceId, error);
+            bulkBatchRepository.save(batch);
+        }
+    }
+}
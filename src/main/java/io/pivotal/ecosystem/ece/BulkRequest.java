@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2017-Present Pivotal Software, Inc. All rights reserved.
+ * <p>
+ * This program and the accompanying materials are made available under
+ * the terms of the under the Apache License, Version 2.0 (the "License”);
+ * you may not use this file except in compliance with the License.
+ * <p>
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * <p>
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.pivotal.ecosystem.ece;
+
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Body of a bulk api call. Members carry the same fields as an OSB provision request, and parameters are handled by
+ * ServiceInstance exactly as they are for a single create. Deletes only need service_instance_id, service_id and
+ * plan_id.
+ */
+@Data
+public class BulkRequest {
+
+    @JsonSerialize
+    private BulkBatch.Operation operation;
+
+    @JsonSerialize
+    private List<Member> instances = new ArrayList<>();
+
+    @Data
+    public static class Member {
+
+        @JsonSerialize
+        private String service_instance_id;
+
+        @JsonSerialize
+        private String service_id;
+
+        @JsonSerialize
+        private String plan_id;
+
+        @JsonSerialize
+        private String organization_guid;
+
+        @JsonSerialize
+        private String space_guid;
+
+        @JsonSerialize
+        private Map<String, Object> parameters;
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2017-Present Pivotal Software, Inc. All rights reserved.
+ * <p>
+ * This program and the accompanying materials are made available under
+ * the terms of the under the Apache License, Version 2.0 (the "License”);
+ * you may not use this file except in compliance with the License.
+ * <p>
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * <p>
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.pivotal.ecosystem.ece;
+
+import org.springframework.data.repository.CrudRepository;
+
+/**
+ * Read-through near cache in front of another repository. findOne and exists are answered from the cache where
+ * possible, every write goes to the delegate first and is then applied locally and published to the other brokers.
+ * findAll and count are maintenance operations and always go to the delegate.
+ */
+abstract class CachingRepository<T> implements CrudRepository<T, String> {
+
+    private final CrudRepository<T, String> delegate;
+    private final NearCache<T> cache;
+    private final NearCacheInvalidator invalidator;
+
+    CachingRepository(CrudRepository<T, String> delegate, NearCache<T> cache, NearCacheInvalidator invalidator) {
+        super();
+        this.delegate = delegate;
+        this.cache = cache;
+        this.invalidator = invalidator;
+        invalidator.register(cache);
+    }
+
+    abstract String getId(T entity);
+
+    NearCache<T> getCache() {
+        return cache;
+    }
+
+    void written(T entity) {
+        cache.put(getId(entity), entity);
+        invalidator.publish(cache.getName(), getId(entity));
+    }
+
+    void deleted(String id) {
+        cache.invalidate(id);
+        invalidator.publish(cache.getName(), id);
+    }
+
+    @Override
+    public <S extends T> S save(S entity) {
+        S s = delegate.save(entity);
+        written(s);
+        return s;
+    }
+
+    @Override
+    public <S extends T> Iterable<S> save(Iterable<S> entities) {
+        for (S entity : entities) {
+            save(entity);
+        }
+        return entities;
+    }
+
+    @Override
+    public T findOne(String id) {
+        return cache.get(id, delegate::findOne);
+    }
+
+    @Override
+    public boolean exists(String id) {
+        return findOne(id) != null;
+    }
+
+    @Override
+    public Iterable<T> findAll() {
+        return delegate.findAll();
+    }
+
+    @Override
+    public Iterable<T> findAll(Iterable<String> ids) {
+        return delegate.findAll(ids);
+    }
+
+    @Override
+    public long count() {
+        return delegate.count();
+    }
+
+    @Override
+    public void delete(String id) {
+        delegate.delete(id);
+        deleted(id);
+    }
+
+    @Override
+    public void delete(T entity) {
+        delegate.delete(entity);
+        deleted(getId(entity));
+    }
+
+    @Override
+    public void delete(Iterable<? extends T> entities) {
+        for (T entity : entities) {
+            delete(entity);
+        }
+    }
+
+    @Override
+    public void deleteAll() {
+        delegate.deleteAll();
+        cache.clear();
+        invalidator.publish(cache.getName(), NearCacheInvalidator.ALL);
+    }
+}
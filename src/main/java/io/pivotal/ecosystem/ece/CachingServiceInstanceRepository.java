@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2017-Present Pivotal Software, Inc. All rights reserved.
+ * <p>
+ * This program and the accompanying materials are made available under
+ * the terms of the under the Apache License, Version 2.0 (the "License”);
+ * you may not use this file except in compliance with the License.
+ * <p>
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * <p>
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.pivotal.ecosystem.ece;
+
+import java.util.Map;
+
+class CachingServiceInstanceRepository extends CachingRepository<ServiceInstance> implements ServiceInstanceRepository {
+
+    static final String CACHE_NAME = "instances";
+
+    private final ServiceInstanceRepository delegate;
+
+    CachingServiceInstanceRepository(ServiceInstanceRepository delegate, int maxSize, long ttl, NearCacheInvalidator invalidator) {
+        super(delegate, new NearCache<>(CACHE_NAME, maxSize, ttl, EntityCodec::encode, EntityCodec::decodeServiceInstance), invalidator);
+        this.delegate = delegate;
+    }
+
+    @Override
+    String getId(ServiceInstance instance) {
+        return instance.getService_instance_id();
+    }
+
+    @Override
+    public ServiceInstance latest(String id) {
+        return delegate.findOne(id);
+    }
+
+    @Override
+    public void update(ServiceInstance instance, Map<String, Object> fields) {
+        delegate.update(instance, fields);
+        written(instance);
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2017-Present Pivotal Software, Inc. All rights reserved.
+ * <p>
+ * This program and the accompanying materials are made available under
+ * the terms of the under the Apache License, Version 2.0 (the "License”);
+ * you may not use this file except in compliance with the License.
+ * <p>
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * <p>
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.pivotal.ecosystem.ece;
+
+import lombok.Getter;
+import lombok.ToString;
+import org.springframework.cloud.servicebroker.model.Plan;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * What the broker needs to know about a catalog plan, resolved once when the catalog is loaded. Plan metadata may
+ * carry "kibana": true and a "defaults" object in the same shape as create parameters, e.g.
+ * {"elasticsearch": {"memory_per_node": 2048}, "kibana": {"zone_count": 1}}. Anything a plan leaves out falls back to
+ * the ClusterConfig and KibanaConfig defaults.
+ */
+@Getter
+@ToString
+class CatalogPlan {
+
+    static final String KIBANA_METADATA = "kibana";
+    static final String DEFAULTS_METADATA = "defaults";
+
+    private static final Map<String, String> CLUSTER_DEFAULTS = new HashMap<>();
+    private static final Map<String, String> KIBANA_DEFAULTS = new HashMap<>();
+
+    static {
+        CLUSTER_DEFAULTS.put(ClusterConfig.eceApiKeys.zone_count.name(), ClusterConfig.DEFAULT_ZONE_COUNT);
+        CLUSTER_DEFAULTS.put(ClusterConfig.eceApiKeys.elasticsearch_version.name(), ClusterConfig.DEFAULT_ELASTICSEARCH_VERSION);
+        CLUSTER_DEFAULTS.put(ClusterConfig.eceApiKeys.memory_per_node.name(), ClusterConfig.DEFAULT_MEMORY_PER_NODE);
+        CLUSTER_DEFAULTS.put(ClusterConfig.eceApiKeys.node_count_per_zone.name(), ClusterConfig.DEFAULT_NODE_COUNT_PER_ZONE);
+        CLUSTER_DEFAULTS.put(ClusterConfig.eceApiKeys.topology_type.name(), ClusterConfig.DEFAULT_TOPOLOGY_TYPE);
+
+        KIBANA_DEFAULTS.put(KibanaConfig.kibanaApiKeys.zone_count.name(), KibanaConfig.DEFAULT_ZONE_COUNT);
+        KIBANA_DEFAULTS.put(KibanaConfig.kibanaApiKeys.version.name(), KibanaConfig.DEFAULT_KIBANA_VERSION);
+        KIBANA_DEFAULTS.put(KibanaConfig.kibanaApiKeys.memory_per_node.name(), KibanaConfig.DEFAULT_MEMORY_PER_NODE);
+        KIBANA_DEFAULTS.put(KibanaConfig.kibanaApiKeys.node_count_per_zone.name(), KibanaConfig.DEFAULT_NODE_COUNT_PER_ZONE);
+        KIBANA_DEFAULTS.put(KibanaConfig.kibanaApiKeys.cluster_topology.name(), KibanaConfig.DEFAULT_TOPOLOGY_TYPE);
+    }
+
+    private final String id;
+    private final String serviceId;
+    private final boolean kibana;
+    private final Map<String, String> clusterDefaults;
+    private final Map<String, String> kibanaDefaults;
+
+    private CatalogPlan(String id, String serviceId, boolean kibana, Map<String, Object> defaults) {
+        super();
+        this.id = id;
+        this.serviceId = serviceId;
+        this.kibana = kibana;
+
+        this.clusterDefaults = merge(CLUSTER_DEFAULTS, defaults == null ? null : EnumUtil.paramsToClusterConfigParams(defaults));
+        this.kibanaDefaults = merge(KIBANA_DEFAULTS, defaults == null ? null : EnumUtil.paramsToKibanaParams(defaults));
+    }
+
+    private static Map<String, String> merge(Map<String, String> builtIn, Map<String, String> overrides) {
+        if (overrides == null || overrides.isEmpty()) {
+            return Collections.unmodifiableMap(builtIn);
+        }
+        Map<String, String> m = new HashMap<>(builtIn);
+        m.putAll(overrides);
+        return Collections.unmodifiableMap(m);
+    }
+
+    @SuppressWarnings("unchecked")
+    static CatalogPlan of(String serviceId, Plan plan) {
+        Map<String, Object> metadata = plan.getMetadata() != null ? plan.getMetadata() : Collections.emptyMap();
+
+        Object kibana = metadata.get(KIBANA_METADATA);
+        boolean kibanaWanted = kibana != null ? Boolean.parseBoolean(kibana.toString()) : isKibanaPlanId(plan.getId());
+
+        Object defaults = metadata.get(DEFAULTS_METADATA);
+        if (defaults != null && !(defaults instanceof Map)) {
+            throw new IllegalArgumentException("plan: " + plan.getId() + " metadata defaults must be an object.");
+        }
+        return new CatalogPlan(plan.getId(), serviceId, kibanaWanted, (Map<String, Object>) defaults);
+    }
+
+    /**
+     * @return built in defaults for a plan that is not in the catalog, with kibana inferred from the plan id as the
+     * broker always has.
+     */
+    static CatalogPlan defaults(String planId) {
+        return new CatalogPlan(planId, null, isKibanaPlanId(planId), null);
+    }
+
+    private static boolean isKibanaPlanId(String planId) {
+        return planId != null && planId.toLowerCase().contains(KibanaConfig.KIBANA);
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2017-Present Pivotal Software, Inc. All rights reserved.
+ * <p>
+ * This program and the accompanying materials are made available under
+ * the terms of the under the Apache License, Version 2.0 (the "License”);
+ * you may not use this file except in compliance with the License.
+ * <p>
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * <p>
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.pivotal.ecosystem.ece;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.cloud.servicebroker.model.Catalog;
+import org.springframework.cloud.servicebroker.model.Plan;
+import org.springframework.cloud.servicebroker.model.ServiceDefinition;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Immutable, parsed catalog with its services indexed by id and its plans indexed by plan id. A reload builds a new
+ * registry and swaps it in whole, so a reader sees either the old catalog or the new one, never a mix.
+ */
+class CatalogRegistry {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final Catalog catalog;
+    private final Map<String, ServiceDefinition> services;
+    private final Map<String, CatalogPlan> plans;
+
+    private CatalogRegistry(Catalog catalog) {
+        super();
+        this.catalog = catalog;
+
+        Map<String, ServiceDefinition> services = new HashMap<>();
+        Map<String, CatalogPlan> plans = new HashMap<>();
+        for (ServiceDefinition sd : catalog.getServiceDefinitions()) {
+            if (services.put(sd.getId(), sd) != null) {
+                throw new IllegalArgumentException("duplicate service id in catalog: " + sd.getId());
+            }
+            for (Plan plan : sd.getPlans()) {
+                if (plans.put(plan.getId(), CatalogPlan.of(sd.getId(), plan)) != null) {
+                    throw new IllegalArgumentException("duplicate plan id in catalog: " + plan.getId());
+                }
+            }
+        }
+        this.services = Collections.unmodifiableMap(services);
+        this.plans = Collections.unmodifiableMap(plans);
+    }
+
+    static CatalogRegistry parse(InputStream in) throws IOException {
+        return new CatalogRegistry(MAPPER.readValue(in, Catalog.class));
+    }
+
+    Catalog getCatalog() {
+        return catalog;
+    }
+
+    ServiceDefinition getServiceDefinition(String id) {
+        return id == null ? null : services.get(id);
+    }
+
+    CatalogPlan getPlan(String planId) {
+        return planId == null ? null : plans.get(planId);
+    }
+
+    Map<String, CatalogPlan> getPlans() {
+        return plans;
+    }
+}
@@ -17,58 +17,105 @@
 
 package io.pivotal.ecosystem.ece;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.cloud.servicebroker.exception.ServiceBrokerException;
 import org.springframework.cloud.servicebroker.model.Catalog;
 import org.springframework.cloud.servicebroker.model.ServiceDefinition;
 import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
-import java.net.URI;
-import java.nio.file.Files;
-import java.nio.file.Paths;
+import java.io.InputStream;
 
+/**
+ * Serves the catalog from a registry parsed once at startup, from catalog.json on the classpath or, if
+ * ece.catalog.file is set, from that file instead. The source is checked for changes every reload interval and a
+ * changed catalog is swapped in atomically. A catalog that fails to parse is logged and the current one kept.
+ */
 @Service
 @Slf4j
 public class CatalogService implements org.springframework.cloud.servicebroker.service.CatalogService {
 
-    private Catalog catalog;
+    static final String CATALOG = "catalog.json";
 
-    @Override
-    public Catalog getCatalog() {
-        if (catalog != null) {
-            return catalog;
-        }
+    private final Resource source;
+
+    private volatile CatalogRegistry registry;
+    private volatile long lastModified;
 
+    public CatalogService(@Value("${ece.catalog.file:}") String file) {
+        super();
+        this.source = file == null || file.isEmpty() ? new ClassPathResource(CATALOG) : new FileSystemResource(file);
         try {
-            return loadCatalog();
+            load();
         } catch (Exception e) {
-            log.error("Error retrieving catalog.", e);
-            throw new ServiceBrokerException("Unable to retrieve catalog.", e);
+            log.error("Error loading catalog from: " + source, e);
+            throw new ServiceBrokerException("Unable to load catalog.", e);
         }
     }
 
+    @Override
+    public Catalog getCatalog() {
+        return registry.getCatalog();
+    }
+
     @Override
     public ServiceDefinition getServiceDefinition(String id) {
-        if (id == null) {
-            return null;
+        return registry.getServiceDefinition(id);
+    }
+
+    /**
+     * @return the plan as resolved from the catalog, or the built in defaults if the catalog does not have it.
+     */
+    CatalogPlan getPlan(String planId) {
+        CatalogPlan plan = registry.getPlan(planId);
+        if (plan == null) {
+            log.warn("plan: " + planId + " is not in the catalog, using default plan settings.");
+            return CatalogPlan.defaults(planId);
         }
+        return plan;
+    }
 
-        for (ServiceDefinition sd : getCatalog().getServiceDefinitions()) {
-            if (sd.getId().equals(id)) {
-                return sd;
-            }
+    CatalogRegistry getRegistry() {
+        return registry;
+    }
+
+    @Scheduled(fixedDelayString = "${ece.catalog.reloadInterval:30000}")
+    void reloadIfChanged() {
+        long modified = lastModified();
+        if (modified == lastModified) {
+            return;
+        }
+
+        try {
+            load();
+            log.info("reloaded catalog from: " + source + ", plans: " + registry.getPlans().keySet());
+        } catch (Exception e) {
+            //a broken file is reported once, and picked up again when it next changes
+            lastModified = modified;
+            log.error("Error reloading catalog from: " + source + ", keeping the current catalog.", e);
         }
-        return null;
     }
 
-    private Catalog loadCatalog() throws IOException {
-        ObjectMapper mapper = new ObjectMapper();
-        URI u = new ClassPathResource("catalog.json").getURI();
-        String s = new String(Files.readAllBytes(Paths.get(u)));
-        catalog = mapper.readValue(s, Catalog.class);
-        return catalog;
+    //read as a stream, so this works from inside a packaged jar as well as from an exploded classpath
+    private void load() throws IOException {
+        long modified = lastModified();
+        try (InputStream in = source.getInputStream()) {
+            registry = CatalogRegistry.parse(in);
+        }
+        lastModified = modified;
+    }
+
+    private long lastModified() {
+        try {
+            return source.lastModified();
+        } catch (IOException e) {
+            //not every classpath location can tell us, those are only read at startup
+            return lastModified;
+        }
     }
-}
\ No newline at end of file
+}
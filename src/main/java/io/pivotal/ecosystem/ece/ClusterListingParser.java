@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2017-Present Pivotal Software, Inc. All rights reserved.
+ * <p>
+ * This program and the accompanying materials are made available under
+ * the terms of the under the Apache License, Version 2.0 (the "License”);
+ * you may not use this file except in compliance with the License.
+ * <p>
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * <p>
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.ecosystem.ece;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Extracts cluster id, name, status and kibana state from the ece cluster listing by walking the response token by
+ * token. Everything else in the listing (plan info, topology, shard info...) is skipped without being materialized, so
+ * memory use does not grow with the size of each cluster document.
+ */
+abstract class ClusterListingParser {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    /**
+     * @throws IOException if the body is not a listing. An error document must not pass for a listing with no clusters.
+     */
+    static Map<String, ClusterStatus> parse(InputStream in) throws IOException {
+        Map<String, ClusterStatus> m = new HashMap<>();
+        boolean listing = false;
+        try (JsonParser p = JSON_FACTORY.createParser(in)) {
+            expect(p.nextToken(), JsonToken.START_OBJECT);
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String field = p.getCurrentName();
+                p.nextToken();
+                if ("elasticsearch_clusters".equals(field) && p.getCurrentToken() == JsonToken.START_ARRAY) {
+                    listing = true;
+                    while (p.nextToken() == JsonToken.START_OBJECT) {
+                        ClusterStatus cs = parseCluster(p);
+                        m.put(cs.getClusterId(), cs);
+                    }
+                } else {
+                    p.skipChildren();
+                }
+            }
+        }
+        if (!listing) {
+            throw new IOException("unexpected cluster listing, no elasticsearch_clusters array.");
+        }
+        return m;
+    }
+
+    private static ClusterStatus parseCluster(JsonParser p) throws IOException {
+        String clusterId = null;
+        String clusterName = null;
+        String status = null;
+        boolean kibanaEnabled = true;
+
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String field = p.getCurrentName();
+            JsonToken t = p.nextToken();
+            switch (field) {
+                case "cluster_id":
+                    clusterId = p.getValueAsString();
+                    break;
+                case "cluster_name":
+                    clusterName = p.getValueAsString();
+                    break;
+                case "status":
+                    status = p.getValueAsString();
+                    break;
+                case "associated_kibana_clusters":
+                    if (t == JsonToken.START_ARRAY) {
+                        kibanaEnabled = parseKibanasEnabled(p);
+                    } else {
+                        p.skipChildren();
+                    }
+                    break;
+                default:
+                    p.skipChildren();
+            }
+        }
+        return new ClusterStatus(clusterId, clusterName, status, kibanaEnabled);
+    }
+
+    //true if every associated kibana is enabled
+    private static boolean parseKibanasEnabled(JsonParser p) throws IOException {
+        boolean enabled = true;
+        while (p.nextToken() == JsonToken.START_OBJECT) {
+            boolean thisEnabled = false;
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String field = p.getCurrentName();
+                JsonToken t = p.nextToken();
+                if ("enabled".equals(field)) {
+                    thisEnabled = t == JsonToken.VALUE_TRUE;
+                } else {
+                    p.skipChildren();
+                }
+            }
+            enabled &= thisEnabled;
+        }
+        return enabled;
+    }
+
+    private static void expect(JsonToken actual, JsonToken expected) throws IOException {
+        if (actual != expected) {
+            throw new IOException("unexpected cluster listing, expected: " + expected + " found: " + actual);
+        }
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2017-Present Pivotal Software, Inc. All rights reserved.
+ * <p>
+ * This program and the accompanying materials are made available under
+ * the terms of the under the Apache License, Version 2.0 (the "License”);
+ * you may not use this file except in compliance with the License.
+ * <p>
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * <p>
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.ecosystem.ece;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.redis.core.RedisHash;
+
+import java.io.Serializable;
+
+/**
+ * Entry in the cluster name index: one record per ece cluster name known to be taken, with when it was saved
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@RedisHash("clusterNames")
+public class ClusterName implements Serializable {
+
+    public static final long serialVersionUID = 1L;
+
+    @Id
+    private String name;
+
+    //millis, 0 for entries saved before this was recorded
+    private long createdAt;
+
+    public ClusterName(String name) {
+        this(name, System.currentTimeMillis());
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2017-Present Pivotal Software, Inc. All rights reserved.
+ * <p>
+ * This program and the accompanying materials are made available under
+ * the terms of the under the Apache License, Version 2.0 (the "License”);
+ * you may not use this file except in compliance with the License.
+ * <p>
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * <p>
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.ecosystem.ece;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Index of ece cluster names, used for uniqueness checks on create. Names live in redis so all brokers see each
+ * other's creates, with an in-process mirror in front. Our own create and delete paths keep both up to date, and the
+ * index is periodically reconciled against ece. The full cluster listing is only fetched when the index is cold or
+ * stale and the status snapshot can't be used instead. A reconcile only removes names saved well before the listing it
+ * works from, so a name another broker has just taken is never dropped for being missing from an older listing.
+ */
+@Slf4j
+@Service
+class ClusterNameIndex {
+
+    private EceReader eceReader;
+    private ClusterStatusEngine clusterStatusEngine;
+    private ClusterNameRepository clusterNameRepository;
+    private long staleness;
+    private long grace;
+
+    private final Set<String> mirror = ConcurrentHashMap.newKeySet();
+    private volatile long lastReconciled = 0;
+
+    public ClusterNameIndex(EceReader eceReader, ClusterStatusEngine clusterStatusEngine, ClusterNameRepository clusterNameRepository,
+                            @Value("${ece.names.staleness:600000}") long staleness, @Value("${ece.names.grace:60000}") long grace) {
+        super();
+        this.eceReader = eceReader;
+        this.clusterStatusEngine = clusterStatusEngine;
+        this.clusterNameRepository = clusterNameRepository;
+        this.staleness = staleness;
+        this.grace = grace;
+    }
+
+    boolean contains(String name) {
+        //a failed reconcile leaves the mirror as it was, the redis check below still sees other brokers' names
+        if (isStale()) {
+            reconcile();
+        }
+
+        if (mirror.contains(name)) {
+            return true;
+        }
+
+        //another broker may have taken the name since we last reconciled
+        if (clusterNameRepository.exists(name)) {
+            mirror.add(name);
+            return true;
+        }
+        return false;
+    }
+
+    void add(String name) {
+        mirror.add(name);
+        clusterNameRepository.save(new ClusterName(name));
+    }
+
+    void remove(String name) {
+        mirror.remove(name);
+        clusterNameRepository.delete(name);
+    }
+
+    boolean isStale() {
+        return System.currentTimeMillis() - lastReconciled > staleness;
+    }
+
+    @Scheduled(fixedDelayString = "${ece.names.interval:300000}")
+    void reconcile() {
+        try {
+            reconcileNames();
+        } catch (Throwable t) {
+            log.error("error reconciling cluster name index.", t);
+        }
+    }
+
+    private void reconcileNames() {
+        Map<String, ClusterStatus> clusters;
+        long listedAt;
+        //prefer the status snapshot if it is newer than our last reconcile, only go to ece for the full listing if not
+        if (!clusterStatusEngine.isStale() && clusterStatusEngine.getSnapshotTime() > lastReconciled) {
+            clusters = clusterStatusEngine.getClusters();
+            listedAt = clusterStatusEngine.getSnapshotTime();
+        } else {
+            listedAt = System.currentTimeMillis();
+            clusters = eceReader.getClusterStatuses();
+        }
+
+        Set<String> names = new HashSet<>();
+        for (ClusterStatus cs : clusters.values()) {
+            names.add(cs.getClusterName());
+        }
+
+        //the listing may be older than a name saved since, and brokers' clocks differ
+        long removeBefore = listedAt - grace;
+        Set<String> keep = new HashSet<>(names);
+        Set<String> unsaved = new HashSet<>(names);
+        for (ClusterName cn : clusterNameRepository.findAll()) {
+            if (unsaved.remove(cn.getName())) {
+                continue;
+            }
+            if (cn.getCreatedAt() < removeBefore) {
+                clusterNameRepository.delete(cn.getName());
+            } else {
+                keep.add(cn.getName());
+            }
+        }
+        for (String name : unsaved) {
+            clusterNameRepository.save(new ClusterName(name));
+        }
+
+        mirror.retainAll(keep);
+        mirror.addAll(keep);
+
+        lastReconciled = System.currentTimeMillis();
+        log.info("reconciled cluster name index, names: " + mirror.size());
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2017-Present Pivotal Software, Inc. All rights reserved.
+ * <p>
+ * This program and the accompanying materials are made available under
+ * the terms of the under the Apache License, Version 2.0 (the "License”);
+ * you may not use this file except in compliance with the License.
+ * <p>
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * <p>
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.ecosystem.ece;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * Value holder for the state of one ece cluster, as seen in the last cluster listing
+ */
+@Data
+@AllArgsConstructor
+class ClusterStatus {
+    private String clusterId;
+    private String clusterName;
+    private String status;
+
+    //true if every kibana cluster associated with this cluster is enabled
+    private boolean kibanaEnabled;
+
+    static ClusterStatus of(ClusterInfo info) {
+        boolean kibanaEnabled = info.getAssociated_kibana_clusters().stream().allMatch(ClusterInfo.KibanaAssociation::isEnabled);
+        return new ClusterStatus(info.getCluster_id(), info.getCluster_name(), info.getStatus(), kibanaEnabled);
+    }
+
+    boolean isInState(ClusterConfig.clusterState state) {
+        return state.name().equalsIgnoreCase(status);
+    }
+}
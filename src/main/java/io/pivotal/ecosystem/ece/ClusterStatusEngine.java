@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2017-Present Pivotal Software, Inc. All rights reserved.
+ * <p>
+ * This program and the accompanying materials are made available under
+ * the terms of the under the Apache License, Version 2.0 (the "License”);
+ * you may not use this file except in compliance with the License.
+ * <p>
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * <p>
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.ecosystem.ece;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Polls the ece cluster listing once per interval and keeps an in-memory snapshot of cluster state, keyed by
+ * elasticsearch_cluster_id. Status checks made while driving getLastOperation are answered from this snapshot, so ece
+ * load depends on the refresh interval rather than on how many instances are being polled.
+ */
+@Slf4j
+@Service
+class ClusterStatusEngine {
+
+    private EceReader eceReader;
+    private long staleness;
+
+    private volatile Snapshot snapshot = new Snapshot(Collections.emptyMap(), 0);
+
+    public ClusterStatusEngine(EceReader eceReader, @Value("${ece.status.staleness:60000}") long staleness) {
+        super();
+        this.eceReader = eceReader;
+        this.staleness = staleness;
+    }
+
+    @Scheduled(fixedDelayString = "${ece.status.interval:10000}")
+    void refresh() {
+        try {
+            Map<String, ClusterStatus> m = eceReader.getClusterStatuses();
+            snapshot = new Snapshot(Collections.unmodifiableMap(m), System.currentTimeMillis());
+            log.debug("refreshed cluster status snapshot, clusters: " + m.size());
+        } catch (Throwable t) {
+            log.error("error refreshing cluster status snapshot.", t);
+        }
+    }
+
+    /**
+     * @return the last known status of the cluster, or null if the cluster is not in the snapshot or the snapshot is
+     * older than the configured staleness bound.
+     */
+    ClusterStatus getStatus(String clusterId) {
+        Snapshot s = snapshot;
+        if (clusterId == null || isStale(s)) {
+            return null;
+        }
+        return s.clusters.get(clusterId);
+    }
+
+    Map<String, ClusterStatus> getClusters() {
+        return snapshot.clusters;
+    }
+
+    boolean isStale() {
+        return isStale(snapshot);
+    }
+
+    long getSnapshotTime() {
+        return snapshot.time;
+    }
+
+    private boolean isStale(Snapshot s) {
+        return System.currentTimeMillis() - s.time > staleness;
+    }
+
+    private static class Snapshot {
+        private final Map<String, ClusterStatus> clusters;
+        private final long time;
+
+        private Snapshot(Map<String, ClusterStatus> clusters, long time) {
+            this.clusters = clusters;
+            this.time = time;
+        }
+    }
+}
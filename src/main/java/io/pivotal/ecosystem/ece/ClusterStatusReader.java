@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2017-Present Pivotal Software, Inc. All rights reserved.
+ * <p>
+ * This program and the accompanying materials are made available under
+ * the terms of the under the Apache License, Version 2.0 (the "License”);
+ * you may not use this file except in compliance with the License.
+ * <p>
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * <p>
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.pivotal.ecosystem.ece;
+
+import feign.FeignException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Direct, single cluster status reads, for when the cluster listing snapshot is too old to trust. Each read has a
+ * deadline, and if the first request has not answered by the p95 of recent reads a second, hedged, request is sent
+ * and whichever answers first wins. Concurrent reads of one cluster share a single read, hedge included. A read that
+ * misses its deadline throws EceUnavailableException, so callers report what they already know instead of treating the
+ * instance as failed.
+ */
+@Slf4j
+@Service
+class ClusterStatusReader {
+
+    private static final int WINDOW = 256;
+    private static final int MIN_SAMPLES = 20;
+
+    private EceRepo eceRepo;
+    private ThreadPoolTaskExecutor executor;
+    private long deadline;
+    private long minHedgeDelay;
+
+    //recent read latencies in millis, a ring buffer
+    private final long[] latencies = new long[WINDOW];
+    private int samples;
+
+    private final SingleFlight<String, ClusterStatus> statusReads = new SingleFlight<>();
+
+    private final AtomicLong reads = new AtomicLong();
+    private final AtomicLong hedged = new AtomicLong();
+    private final AtomicLong deadlinesMissed = new AtomicLong();
+
+    public ClusterStatusReader(EceRepo eceRepo, @Qualifier(EceAsyncConfig.ECE_EXECUTOR) ThreadPoolTaskExecutor executor,
+                               @Value("${ece.status.deadline:5000}") long deadline,
+                               @Value("${ece.status.minHedgeDelay:50}") long minHedgeDelay) {
+        super();
+        this.eceRepo = eceRepo;
+        this.executor = executor;
+        this.deadline = deadline;
+        this.minHedgeDelay = minHedgeDelay;
+    }
+
+    /**
+     * @return the cluster's current status, or null if ece does not know the cluster
+     * @throws EceUnavailableException if no answer came back within the deadline
+     */
+    ClusterStatus read(String clusterId) {
+        reads.incrementAndGet();
+        return statusReads.execute(clusterId, () -> hedgedRead(clusterId));
+    }
+
+    private ClusterStatus hedgedRead(String clusterId) {
+        long start = System.currentTimeMillis();
+        CompletableFuture<ClusterStatus> result = new CompletableFuture<>();
+        AtomicInteger outstanding = new AtomicInteger();
+
+        send(clusterId, result, outstanding);
+        try {
+            long hedgeDelay = Math.min(hedgeDelay(), deadline);
+            try {
+                return result.get(hedgeDelay, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                log.info("status read for cluster: " + clusterId + " slower than " + hedgeDelay + "ms, hedging.");
+                hedged.incrementAndGet();
+                send(clusterId, result, outstanding);
+            }
+            return result.get(Math.max(deadline - (System.currentTimeMillis() - start), 0), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            deadlinesMissed.incrementAndGet();
+            throw new EceUnavailableException("status read for cluster: " + clusterId + " missed its deadline of " + deadline + "ms");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new EceUnavailableException("interrupted reading status for cluster: " + clusterId);
+        }
+    }
+
+    //the first answer completes the result, an error only does once no other request is still out
+    private void send(String clusterId, CompletableFuture<ClusterStatus> result, AtomicInteger outstanding) {
+        outstanding.incrementAndGet();
+        try {
+            executor.execute(() -> {
+                long start = System.currentTimeMillis();
+                try {
+                    ClusterStatus status = fetch(clusterId);
+                    record(System.currentTimeMillis() - start);
+                    result.complete(status);
+                } catch (Throwable t) {
+                    if (outstanding.decrementAndGet() == 0) {
+                        result.completeExceptionally(t);
+                    }
+                }
+            });
+        } catch (TaskRejectedException e) {
+            if (outstanding.decrementAndGet() == 0) {
+                result.completeExceptionally(new EceUnavailableException("ece executor is full, not reading status for cluster: " + clusterId));
+            }
+        }
+    }
+
+    private ClusterStatus fetch(String clusterId) {
+        try {
+            ClusterInfo info = eceRepo.getClusterInfo(clusterId);
+            return info == null ? null : ClusterStatus.of(info);
+        } catch (FeignException e) {
+            if (e.status() == 404) {
+                return null;
+            }
+            throw e;
+        }
+    }
+
+    private synchronized void record(long millis) {
+        latencies[samples % WINDOW] = millis;
+        samples++;
+    }
+
+    /**
+     * @return the p95 of recent reads, or the deadline until there are enough samples to go on
+     */
+    synchronized long hedgeDelay() {
+        int n = Math.min(samples, WINDOW);
+        if (n < MIN_SAMPLES) {
+            return deadline;
+        }
+        long[] sorted = Arrays.copyOf(latencies, n);
+        Arrays.sort(sorted);
+        return Math.max(minHedgeDelay, sorted[(int) Math.ceil(n * 0.95) - 1]);
+    }
+
+    long getReads() {
+        return reads.get();
+    }
+
+    //reads that shared another read of the same cluster already in flight
+    long getReadsSaved() {
+        return statusReads.getCoalesced();
+    }
+
+    long getHedged() {
+        return hedged.get();
+    }
+
+    long getDeadlinesMissed() {
+        return deadlinesMissed.get();
+    }
+}
@@ -0,0 +1,240 @@
+/*
+ * Copyright (C) 2017-Present Pivotal Software, Inc. All rights reserved.
+ * <p>
+ * This program and the accompanying materials are made available under
+ * the terms of the under the Apache License, Version 2.0 (the "License”);
+ * you may not use this file except in compliance with the License.
+ * <p>
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * <p>
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.ecosystem.ece;
+
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.repository.CrudRepository;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Stores each entity as one encoded value under a single key: a save is one SET, a find one GET, a delete one DEL.
+ * findAll, count and deleteAll scan the key prefix, they are meant for maintenance jobs and not for request paths.
+ * <p>
+ * Records a broker saved in the hash layout before the upgrade are read through the legacy repository on a miss and
+ * moved over then, rather than staying invisible until the next migration pass. Deletes clear both layouts.
+ */
+abstract class CompactRepository<T> implements CrudRepository<T, String> {
+
+    private final RedisTemplate<String, byte[]> redisTemplate;
+    private final String prefix;
+    private final CrudRepository<T, String> legacy;
+
+    CompactRepository(RedisTemplate<String, byte[]> redisTemplate, String prefix, CrudRepository<T, String> legacy) {
+        super();
+        this.redisTemplate = redisTemplate;
+        this.prefix = prefix;
+        this.legacy = legacy;
+    }
+
+    abstract String getId(T entity);
+
+    abstract byte[] encode(T entity);
+
+    abstract T decode(byte[] b);
+
+    @Override
+    public <S extends T> S save(S entity) {
+        redisTemplate.opsForValue().set(key(getId(entity)), encode(entity));
+        return entity;
+    }
+
+    @Override
+    public <S extends T> Iterable<S> save(Iterable<S> entities) {
+        for (S entity : entities) {
+            save(entity);
+        }
+        return entities;
+    }
+
+    @Override
+    public T findOne(String id) {
+        byte[] b = redisTemplate.opsForValue().get(key(id));
+        if (b == null && migrate(id)) {
+            b = redisTemplate.opsForValue().get(key(id));
+        }
+        return b == null ? null : decode(b);
+    }
+
+    @Override
+    public boolean exists(String id) {
+        return redisTemplate.hasKey(key(id)) || (legacy != null && legacy.exists(id));
+    }
+
+    @Override
+    public Iterable<T> findAll() {
+        List<String> ids = ids();
+        List<T> l = findAll(ids);
+        if (legacy == null) {
+            return l;
+        }
+
+        //hash records not moved yet, left for the migrator rather than moved one by one here
+        Set<String> seen = new HashSet<>(ids);
+        for (T entity : legacy.findAll()) {
+            if (entity != null && seen.add(getId(entity))) {
+                l.add(entity);
+            }
+        }
+        return l;
+    }
+
+    @Override
+    public List<T> findAll(Iterable<String> ids) {
+        List<String> wanted = new ArrayList<>();
+        List<String> keys = new ArrayList<>();
+        for (String id : ids) {
+            wanted.add(id);
+            keys.add(key(id));
+        }
+
+        List<T> found = new ArrayList<>();
+        if (keys.isEmpty()) {
+            return found;
+        }
+        List<byte[]> values = redisTemplate.opsForValue().multiGet(keys);
+        for (int i = 0; i < values.size(); i++) {
+            byte[] b = values.get(i);
+            if (b == null) {
+                T entity = findOne(wanted.get(i));
+                if (entity != null) {
+                    found.add(entity);
+                }
+            } else {
+                found.add(decode(b));
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public long count() {
+        if (legacy == null) {
+            return ids().size();
+        }
+
+        long count = 0;
+        for (T ignored : findAll()) {
+            count++;
+        }
+        return count;
+    }
+
+    @Override
+    public void delete(String id) {
+        redisTemplate.delete(key(id));
+        if (legacy != null) {
+            legacy.delete(id);
+        }
+    }
+
+    @Override
+    public void delete(T entity) {
+        delete(getId(entity));
+    }
+
+    @Override
+    public void delete(Iterable<? extends T> entities) {
+        List<String> keys = new ArrayList<>();
+        List<String> ids = new ArrayList<>();
+        for (T entity : entities) {
+            ids.add(getId(entity));
+        }
+        delete(ids);
+    }
+
+    //one multi-key DEL for the lot
+    void delete(Collection<String> ids) {
+        List<String> keys = new ArrayList<>();
+        for (String id : ids) {
+            keys.add(key(id));
+        }
+        if (!keys.isEmpty()) {
+            redisTemplate.delete(keys);
+        }
+        if (legacy != null) {
+            for (String id : ids) {
+                legacy.delete(id);
+            }
+        }
+    }
+
+    @Override
+    public void deleteAll() {
+        List<String> keys = new ArrayList<>();
+        for (String id : ids()) {
+            keys.add(key(id));
+        }
+        redisTemplate.delete(keys);
+        if (legacy != null) {
+            legacy.deleteAll();
+        }
+    }
+
+    /**
+     * Moves a record over from the hash layout. A compact copy that is already there is kept, it is never overwritten
+     * with an older hash. The hash is removed only if it is unchanged since it was read, so an old broker's save that
+     * lands meanwhile is copied over again and its hash left for the next pass instead of being lost.
+     *
+     * @return true if a compact copy was written
+     */
+    boolean migrate(String id) {
+        if (legacy == null) {
+            return false;
+        }
+        T entity = legacy.findOne(id);
+        if (entity == null) {
+            return false;
+        }
+
+        boolean copied = Boolean.TRUE.equals(redisTemplate.opsForValue().setIfAbsent(key(id), encode(entity)));
+        T current = legacy.findOne(id);
+        if (entity.equals(current)) {
+            legacy.delete(id);
+        } else if (copied && current != null) {
+            save(current);
+        }
+        return copied;
+    }
+
+    String key(String id) {
+        return prefix + id;
+    }
+
+    List<String> ids() {
+        return redisTemplate.execute(connection -> {
+            List<String> ids = new ArrayList<>();
+            try (Cursor<byte[]> c = connection.scan(ScanOptions.scanOptions().match(prefix + "*").count(1000).build())) {
+                while (c.hasNext()) {
+                    ids.add(new String(c.next(), StandardCharsets.UTF_8).substring(prefix.length()));
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException("error scanning keys: " + prefix, e);
+            }
+            return ids;
+        }, true);
+    }
+}
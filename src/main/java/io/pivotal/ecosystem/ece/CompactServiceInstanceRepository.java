@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2017-Present Pivotal Software, Inc. All rights reserved.
+ * <p>
+ * This program and the accompanying materials are made available under
+ * the terms of the under the Apache License, Version 2.0 (the "License”);
+ * you may not use this file except in compliance with the License.
+ * <p>
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * <p>
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.ecosystem.ece;
+
+import org.springframework.data.redis.core.RedisTemplate;
+
+import java.util.Map;
+
+class CompactServiceInstanceRepository extends CompactRepository<ServiceInstance> implements ServiceInstanceRepository {
+
+    static final String PREFIX = "instance:";
+
+    CompactServiceInstanceRepository(RedisTemplate<String, byte[]> redisTemplate, ServiceInstanceRepository legacy) {
+        super(redisTemplate, PREFIX, legacy);
+    }
+
+    @Override
+    String getId(ServiceInstance instance) {
+        return instance.getService_instance_id();
+    }
+
+    @Override
+    byte[] encode(ServiceInstance instance) {
+        return EntityCodec.encode(instance);
+    }
+
+    @Override
+    ServiceInstance decode(byte[] b) {
+        return EntityCodec.decodeServiceInstance(b);
+    }
+
+    //a compact record is a single value, so a partial update is a full write of that value
+    @Override
+    public void update(ServiceInstance instance, Map<String, Object> fields) {
+        save(instance);
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2017-Present Pivotal Software, Inc. All rights reserved.
+ * <p>
+ * This program and the accompanying materials are made available under
+ * the terms of the under the Apache License, Version 2.0 (the "License”);
+ * you may not use this file except in compliance with the License.
+ * <p>
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * <p>
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.ecosystem.ece;
+
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+
+/**
+ * With ece.storage=compact, instances and bindings are stored as one encoded value per key instead of as redis hashes
+ * plus index sets. Records still in the hash layout are moved over when first read and in the background.
+ */
+@Configuration
+@ConditionalOnProperty(name = "ece.storage", havingValue = "compact")
+class CompactStorageConfig {
+
+    @Bean
+    public RedisTemplate<String, byte[]> compactRedisTemplate(RedisConnectionFactory redisConnectionFactory) {
+        RedisTemplate<String, byte[]> template = new RedisTemplate<>();
+        template.setConnectionFactory(redisConnectionFactory);
+        template.setEnableDefaultSerializer(false);
+        template.setKeySerializer(new StringRedisSerializer());
+        template.setValueSerializer(new RedisSerializer<byte[]>() {
+            @Override
+            public byte[] serialize(byte[] bytes) {
+                return bytes;
+            }
+
+            @Override
+            public byte[] deserialize(byte[] bytes) {
+                return bytes;
+            }
+        });
+        return template;
+    }
+
+    @Bean
+    @Primary
+    public ServiceInstanceRepository compactServiceInstanceRepository(RedisTemplate<String, byte[]> compactRedisTemplate,
+                                                                       @Qualifier("serviceInstanceRepository") ServiceInstanceRepository hashInstances) {
+        return new CompactServiceInstanceRepository(compactRedisTemplate, hashInstances);
+    }
+
+    @Bean
+    @Primary
+    public ServiceBindingRepository compactServiceBindingRepository(RedisTemplate<String, byte[]> compactRedisTemplate,
+                                                                     @Qualifier("serviceBindingRepository") ServiceBindingRepository hashBindings) {
+        return new CompactServiceBindingRepository(compactRedisTemplate, hashBindings);
+    }
+
+    @Bean
+    public CompactStorageMigrator compactStorageMigrator(@Qualifier("serviceInstanceRepository") ServiceInstanceRepository hashInstances,
+                                                         @Qualifier("serviceBindingRepository") ServiceBindingRepository hashBindings,
+                                                         RedisTemplate<String, byte[]> compactRedisTemplate,
+                                                         OperationLeases operationLeases) {
+        //its own unwrapped repositories, the primary beans are behind the metrics and cache proxies
+        return new CompactStorageMigrator(hashInstances, hashBindings,
+                new CompactServiceInstanceRepository(compactRedisTemplate, hashInstances),
+                new CompactServiceBindingRepository(compactRedisTemplate, hashBindings), operationLeases);
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2017-Present Pivotal Software, Inc. All rights reserved.
+ * <p>
+ * This program and the accompanying materials are made available under
+ * the terms of the under the Apache License, Version 2.0 (the "License”);
+ * you may not use this file except in compliance with the License.
+ * <p>
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * <p>
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.ecosystem.ece;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.scheduling.annotation.Scheduled;
+
+/**
+ * Moves instances and bindings from the redis hash layout to the compact layout. Runs periodically rather than once, so
+ * records written by brokers still on the hash layout during a rolling upgrade are picked up too. Each record is moved
+ * the way a read-through miss moves it: a compact copy that is already there is kept, and a hash that changes while it
+ * is copied stays for the next pass. Only one broker migrates at a time, under the migration lock, which is renewed as
+ * the pass goes since a large pass outlasts its ttl.
+ */
+@Slf4j
+class CompactStorageMigrator {
+
+    static final String MIGRATION_LOCK = "storage:migration";
+
+    //records moved between renewals of the migration lock
+    static final int RENEW_EVERY = 100;
+
+    private ServiceInstanceRepository hashInstances;
+    private ServiceBindingRepository hashBindings;
+    private CompactRepository<ServiceInstance> compactInstances;
+    private CompactRepository<ServiceBinding> compactBindings;
+    private OperationLeases operationLeases;
+
+    CompactStorageMigrator(ServiceInstanceRepository hashInstances, ServiceBindingRepository hashBindings,
+                           CompactRepository<ServiceInstance> compactInstances, CompactRepository<ServiceBinding> compactBindings,
+                           OperationLeases operationLeases) {
+        super();
+        this.hashInstances = hashInstances;
+        this.hashBindings = hashBindings;
+        this.compactInstances = compactInstances;
+        this.compactBindings = compactBindings;
+        this.operationLeases = operationLeases;
+    }
+
+    @Scheduled(initialDelayString = "${ece.storage.migrationDelay:30000}", fixedDelayString = "${ece.storage.migrationInterval:3600000}")
+    void migrate() {
+        if (!operationLeases.tryLock(MIGRATION_LOCK)) {
+            return;
+        }
+
+        try {
+            int instances = migrate(hashInstances, compactInstances);
+            int bindings = instances < 0 ? -1 : migrate(hashBindings, compactBindings);
+            if (instances < 0 || bindings < 0) {
+                log.warn("lost the migration lock, leaving the rest to the next pass.");
+            } else if (instances + bindings > 0) {
+                log.info("migrated to compact storage, instances: " + instances + " bindings: " + bindings);
+            }
+        } catch (Throwable t) {
+            log.error("error migrating to compact storage.", t);
+        } finally {
+            operationLeases.unlock(MIGRATION_LOCK);
+        }
+    }
+
+    //the number of records moved, or -1 if the lock was lost on the way
+    private <T> int migrate(CrudRepository<T, String> from, CompactRepository<T> to) {
+        int count = 0;
+        int seen = 0;
+        for (T entity : from.findAll()) {
+            if (entity == null) {
+                continue;
+            }
+            if (++seen % RENEW_EVERY == 0 && !operationLeases.tryLock(MIGRATION_LOCK)) {
+                return -1;
+            }
+
+            if (to.migrate(to.getId(entity))) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
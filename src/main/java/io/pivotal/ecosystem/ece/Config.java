@@ -19,8 +19,8 @@ package io.pivotal.ecosystem.ece;
 
 import feign.Feign;
 import feign.auth.BasicAuthRequestInterceptor;
-import feign.gson.GsonDecoder;
-import feign.gson.GsonEncoder;
+import feign.jackson.JacksonDecoder;
+import feign.jackson.JacksonEncoder;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.cloud.config.java.AbstractCloudConfig;
@@ -57,11 +57,25 @@ public class Config extends AbstractCloudConfig {
 
     @Bean
     public EceRepo eceRepo() {
-        return Feign
+        return eceGuard().wrap(EceRepo.class, Feign
                 .builder().requestInterceptor(basicAuthRequestInterceptor())
-                .encoder(new GsonEncoder())
-                .decoder(new GsonDecoder())
-                .target(EceRepo.class, "https://" + eceHost + ":" + ecePort + "/api/v1/");
+                .client(eceHttpTransport().getClient())
+                .options(eceHttpTransport().getOptions())
+                .encoder(new JacksonEncoder(EceJson.MAPPER))
+                .decoder(new JacksonDecoder(EceJson.MAPPER))
+                .target(EceRepo.class, eceScheme + "://" + eceHost + ":" + ecePort + "/api/v1/"));
+    }
+
+    @Bean
+    EceGuard eceGuard() {
+        return new EceGuard(new CircuitBreaker("ece", breakerFailures, breakerOpenTime),
+                new AdaptiveLimit(initialLimit, minLimit, maxLimit, limitTolerance, limitBackoff), limitMaxWait);
+    }
+
+    @Bean
+    EceHttpTransport eceHttpTransport() {
+        return new EceHttpTransport(new EceHttpConfig(httpClient, maxConnections, maxConnectionsPerRoute, connectTimeout,
+                readTimeout, idleTimeout, http2));
     }
 
     @Bean
@@ -69,6 +83,10 @@ public class Config extends AbstractCloudConfig {
         return new EceConfig(elasticsearchDomain, elasticsearchPort);
     }
 
+    //http is only for pointing the broker at a local ece simulator
+    @Value("${ECE_SCHEME:https}")
+    private String eceScheme;
+
     @Value("${ECE_HOST}")
     private String eceHost;
 
@@ -86,4 +104,49 @@ public class Config extends AbstractCloudConfig {
 
     @Value("${ELASTICSEARCH_PORT}")
     private String elasticsearchPort;
-}
\ No newline at end of file
+
+    @Value("${ece.http.client:" + EceHttpTransport.APACHE + "}")
+    private String httpClient;
+
+    @Value("${ece.http.maxConnections:50}")
+    private int maxConnections;
+
+    @Value("${ece.http.maxConnectionsPerRoute:50}")
+    private int maxConnectionsPerRoute;
+
+    @Value("${ece.http.connectTimeout:5000}")
+    private int connectTimeout;
+
+    @Value("${ece.http.readTimeout:30000}")
+    private int readTimeout;
+
+    @Value("${ece.http.idleTimeout:60000}")
+    private long idleTimeout;
+
+    @Value("${ece.http.http2:false}")
+    private boolean http2;
+
+    @Value("${ece.breaker.failures:5}")
+    private int breakerFailures;
+
+    @Value("${ece.breaker.openTime:30000}")
+    private long breakerOpenTime;
+
+    @Value("${ece.limit.initial:20}")
+    private int initialLimit;
+
+    @Value("${ece.limit.min:2}")
+    private int minLimit;
+
+    @Value("${ece.limit.max:50}")
+    private int maxLimit;
+
+    @Value("${ece.limit.tolerance:3.0}")
+    private double limitTolerance;
+
+    @Value("${ece.limit.backoff:0.9}")
+    private double limitBackoff;
+
+    @Value("${ece.limit.maxWait:200}")
+    private long limitMaxWait;
+}
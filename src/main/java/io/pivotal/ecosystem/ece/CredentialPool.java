@@ -0,0 +1,230 @@
+/*
+ * Copyright (C) 2017-Present Pivotal Software, Inc. All rights reserved.
+ * <p>
+ * This program and the accompanying materials are made available under
+ * the terms of the under the Apache License, Version 2.0 (the "License”);
+ * you may not use this file except in compliance with the License.
+ * <p>
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * <p>
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.pivotal.ecosystem.ece;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.servicebroker.model.GetLastServiceOperationResponse;
+import org.springframework.cloud.servicebroker.model.OperationState;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Elasticsearch users minted ahead of binds, so a bind is a redis pop rather than a call through ece to the cluster.
+ * Once an instance is created it gets a pool of ece.bindings.poolSize unused users, kept in redis and topped up by a
+ * refiller that runs on one broker at a time, under a lock it renews before each mint. A bind that finds the pool
+ * empty mints its user inline.
+ */
+@Slf4j
+@Service
+class CredentialPool {
+
+    static final String REFILL_LOCK = "credentials:refill";
+
+    private CredentialStore credentialStore;
+    private EceClient eceClient;
+    private ServiceInstanceRepository serviceInstanceRepository;
+    private OperationLeases operationLeases;
+    private EceMetrics eceMetrics;
+    private int poolSize;
+    private int maxMints;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong minted = new AtomicLong();
+
+    public CredentialPool(CredentialStore credentialStore, EceClient eceClient, ServiceInstanceRepository serviceInstanceRepository,
+                          OperationLeases operationLeases, EceMetrics eceMetrics, @Value("${ece.bindings.poolSize:2}") int poolSize,
+                          @Value("${ece.bindings.maxMints:20}") int maxMints) {
+        super();
+        this.credentialStore = credentialStore;
+        this.eceClient = eceClient;
+        this.serviceInstanceRepository = serviceInstanceRepository;
+        this.operationLeases = operationLeases;
+        this.eceMetrics = eceMetrics;
+        this.poolSize = poolSize;
+        this.maxMints = maxMints;
+    }
+
+    /**
+     * @return a user in the instance's cluster that no other binding has, from the pool if it has one.
+     */
+    BindingCredential take(ServiceInstance instance) {
+        long start = eceMetrics.start();
+        Throwable failure = null;
+        boolean hit = false;
+        try {
+            BindingCredential c = poolSize > 0 ? credentialStore.take(instance.getService_instance_id()) : null;
+            if (c != null && c.getClusterId().equals(instance.getClusterId())) {
+                hit = true;
+                return c;
+            }
+            //one minted for another cluster is no use to this instance's binds, and must not stay live in that cluster
+            if (c != null) {
+                discard(c);
+            }
+
+            log.info("credential pool for service instance: " + instance.getService_instance_id() + " is empty.");
+            return mint(instance);
+        } catch (Throwable t) {
+            failure = t;
+            throw t;
+        } finally {
+            if (hit) {
+                hits.incrementAndGet();
+            } else {
+                misses.incrementAndGet();
+            }
+            eceMetrics.record(EceMetrics.CREDENTIAL_TAKES, start, failure, "result", hit ? "hit" : "miss");
+        }
+    }
+
+    /**
+     * Removes a user that was taken but could not be handed out.
+     */
+    void discard(ServiceInstance instance, String username) {
+        try {
+            eceClient.deleteUser(instance, username);
+        } catch (Throwable t) {
+            log.error("could not delete user: " + username + ", it is left in cluster: " + instance.getClusterId(), t);
+        }
+    }
+
+    private void discard(BindingCredential c) {
+        ServiceInstance owner = new ServiceInstance();
+        owner.getClusterParams().put(ClusterConfig.eceApiKeys.elasticsearch_cluster_id.name(), c.getClusterId());
+        discard(owner, c.getUsername());
+    }
+
+    /**
+     * Starts a pool for an instance whose create has succeeded, and drops the pool of one that has been deleted.
+     */
+    void track(ServiceInstance instance) {
+        GetLastServiceOperationResponse lo = instance.getLastOperation();
+        if (poolSize <= 0 || lo == null || !OperationState.SUCCEEDED.equals(lo.getState())) {
+            return;
+        }
+
+        try {
+            if (lo.isDeleteOperation()) {
+                credentialStore.release(instance.getService_instance_id());
+            } else {
+                credentialStore.register(instance.getService_instance_id());
+            }
+        } catch (Throwable t) {
+            //the refiller drops pools of deleted instances, and binds mint inline when there is no pool
+            log.error("error updating credential pool for service instance: " + instance.getService_instance_id(), t);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${ece.bindings.interval:30000}")
+    void refill() {
+        if (poolSize <= 0) {
+            return;
+        }
+
+        try {
+            if (!operationLeases.tryLock(REFILL_LOCK)) {
+                return;
+            }
+        } catch (Throwable t) {
+            log.error("error acquiring credential pool lock.", t);
+            return;
+        }
+
+        try {
+            int budget = maxMints;
+            for (String id : credentialStore.getInstances()) {
+                if (budget <= 0 || !renewLock()) {
+                    break;
+                }
+                budget -= refill(id, budget);
+            }
+        } catch (Throwable t) {
+            log.error("error refilling credential pools.", t);
+        } finally {
+            operationLeases.unlock(REFILL_LOCK);
+        }
+    }
+
+    /**
+     * @return the number of users minted
+     */
+    int refill(String instanceId, int budget) {
+        ServiceInstance instance = serviceInstanceRepository.findOne(instanceId);
+        if (instance == null || isGone(instance)) {
+            log.info("dropping credential pool of service instance: " + instanceId);
+            credentialStore.release(instanceId);
+            return 0;
+        }
+
+        int wanted = (int) Math.min(poolSize - credentialStore.size(instanceId), budget);
+        int n = 0;
+        try {
+            for (; n < wanted; n++) {
+                if (!renewLock()) {
+                    break;
+                }
+                BindingCredential c = mint(instance);
+                if (!credentialStore.add(instanceId, c)) {
+                    //released since we looked it up
+                    log.info("credential pool of service instance: " + instanceId + " was released, not refilling it.");
+                    discard(c);
+                    break;
+                }
+            }
+        } catch (Throwable t) {
+            log.error("error refilling credential pool for service instance: " + instanceId, t);
+        }
+        return n;
+    }
+
+    //mints wait on ece and a run of them outlasts the lock's ttl: renew it, or leave the rest to its new holder
+    private boolean renewLock() {
+        if (operationLeases.tryLock(REFILL_LOCK)) {
+            return true;
+        }
+        log.warn("lost the credential pool lock, stopping the refill.");
+        return false;
+    }
+
+    private static boolean isGone(ServiceInstance instance) {
+        GetLastServiceOperationResponse lo = instance.getLastOperation();
+        return lo == null || lo.isDeleteOperation() || instance.getClusterId() == null;
+    }
+
+    private BindingCredential mint(ServiceInstance instance) {
+        BindingCredential c = BindingCredential.generate(instance.getClusterId());
+        eceClient.createUser(instance, c.getUsername(), c.getPassword());
+        minted.incrementAndGet();
+        return c;
+    }
+
+    long getHits() {
+        return hits.get();
+    }
+
+    long getMisses() {
+        return misses.get();
+    }
+
+    long getMinted() {
+        return minted.get();
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2017-Present Pivotal Software, Inc. All rights reserved.
+ * <p>
+ * This program and the accompanying materials are made available under
+ * the terms of the under the Apache License, Version 2.0 (the "License”);
+ * you may not use this file except in compliance with the License.
+ * <p>
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * <p>
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.pivotal.ecosystem.ece;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Set;
+
+/**
+ * Redis side of the credential pool, shared by all brokers. Each instance with a pool has a list of minted, unused
+ * credentials, and its id in the set of instances the refiller looks after. Takes pop the head of the list, so a
+ * credential goes to exactly one binding however many brokers are binding.
+ */
+@Slf4j
+@Service
+class CredentialStore {
+
+    static final String INSTANCES_KEY = "ece:credentials:instances";
+    static final String POOL_PREFIX = "ece:credentials:";
+
+    //pushes onto the pool only while the instance is still registered, so a release can't be undone by a late add
+    private static final RedisScript<Long> ADD = new DefaultRedisScript<>(
+            "if redis.call('sismember', KEYS[1], ARGV[1]) == 1 then return redis.call('rpush', KEYS[2], ARGV[2]) end return 0", Long.class);
+
+    private StringRedisTemplate redisTemplate;
+
+    public CredentialStore(StringRedisTemplate redisTemplate) {
+        super();
+        this.redisTemplate = redisTemplate;
+    }
+
+    /**
+     * @return the oldest unused credential for the instance, now removed from the pool, or null if there are none.
+     */
+    BindingCredential take(String instanceId) {
+        return decode(redisTemplate.opsForList().leftPop(POOL_PREFIX + instanceId));
+    }
+
+    /**
+     * @return false if the instance's pool has been released, in which case the credential was not added.
+     */
+    boolean add(String instanceId, BindingCredential credential) {
+        Long result = redisTemplate.execute(ADD, Arrays.asList(INSTANCES_KEY, POOL_PREFIX + instanceId), instanceId, encode(credential));
+        return result != null && result > 0;
+    }
+
+    long size(String instanceId) {
+        Long size = redisTemplate.opsForList().size(POOL_PREFIX + instanceId);
+        return size == null ? 0 : size;
+    }
+
+    void register(String instanceId) {
+        redisTemplate.opsForSet().add(INSTANCES_KEY, instanceId);
+    }
+
+    Set<String> getInstances() {
+        return redisTemplate.opsForSet().members(INSTANCES_KEY);
+    }
+
+    /**
+     * Forgets the instance and its unused credentials. The users themselves go with the cluster.
+     */
+    void release(String instanceId) {
+        redisTemplate.opsForSet().remove(INSTANCES_KEY, instanceId);
+        redisTemplate.delete(Arrays.asList(POOL_PREFIX + instanceId));
+    }
+
+    private static String encode(BindingCredential credential) {
+        try {
+            return EceJson.MAPPER.writeValueAsString(credential);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("unable to encode credential: " + credential.getUsername(), e);
+        }
+    }
+
+    private static BindingCredential decode(String s) {
+        if (s == null) {
+            return null;
+        }
+        try {
+            return EceJson.MAPPER.readValue(s, BindingCredential.class);
+        } catch (IOException e) {
+            //not logged whole, it holds a password
+            log.error("unreadable credential pool entry.", e);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2017-Present Pivotal Software, Inc. All rights reserved.
+ * <p>
+ * This program and the accompanying materials are made available under
+ * the terms of the under the Apache License, Version 2.0 (the "License”);
+ * you may not use this file except in compliance with the License.
+ * <p>
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * <p>
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.ecosystem.ece;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.concurrent.ThreadPoolExecutor;
+
+@Configuration
+class EceAsyncConfig {
+
+    static final String ECE_EXECUTOR = "eceExecutor";
+    static final String BULK_EXECUTOR = "bulkExecutor";
+
+    /**
+     * Bounded pool that ece calls are run on, so request threads are not held for the full ece latency. When both the
+     * pool and its queue are full, new work is rejected rather than queued without limit.
+     */
+    @Bean(name = ECE_EXECUTOR)
+    public ThreadPoolTaskExecutor eceExecutor(@Value("${ece.async.poolSize:20}") int poolSize,
+                                              @Value("${ece.async.queueCapacity:500}") int queueCapacity) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(poolSize);
+        executor.setMaxPoolSize(poolSize);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("ece-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        return executor;
+    }
+
+    /**
+     * Runs the members of bulk batches through the broker, parallelism at a time. Kept apart from the ece pool because
+     * each member blocks on work that the broker itself hands to that pool.
+     */
+    @Bean(name = BULK_EXECUTOR)
+    public ThreadPoolTaskExecutor bulkExecutor(@Value("${ece.bulk.parallelism:10}") int parallelism,
+                                               @Value("${ece.bulk.queueCapacity:10000}") int queueCapacity) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(parallelism);
+        executor.setMaxPoolSize(parallelism);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("bulk-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        return executor;
+    }
+}
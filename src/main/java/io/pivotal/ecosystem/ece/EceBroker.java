@@ -19,53 +19,161 @@ package io.pivotal.ecosystem.ece;
 
 import feign.FeignException;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.cloud.servicebroker.exception.*;
 import org.springframework.cloud.servicebroker.model.*;
 import org.springframework.cloud.servicebroker.service.ServiceInstanceBindingService;
 import org.springframework.cloud.servicebroker.service.ServiceInstanceService;
 import org.springframework.stereotype.Service;
 
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
 @Service
 @Slf4j
 public class EceBroker implements ServiceInstanceService, ServiceInstanceBindingService {
 
     private EceClient eceClient;
+    private CatalogService catalogService;
+    private AsyncEceClient asyncEceClient;
     private ServiceInstanceRepository serviceInstanceRepository;
     private ServiceBindingRepository serviceBindingRepository;
-
-    public EceBroker(EceClient eceClient, ServiceInstanceRepository serviceInstanceRepository, ServiceBindingRepository serviceBindingRepository) {
+    private OperationLeases operationLeases;
+    private Reservations reservations;
+    private EceMetrics eceMetrics;
+    private WarmPool warmPool;
+    private CredentialPool credentialPool;
+    private boolean kibanaPipelined;
+
+    private final AtomicLong skippedWrites = new AtomicLong();
+    private final AtomicLong repeatedCreates = new AtomicLong();
+
+    //instances being advanced on this broker. the lease keeps other brokers out, this keeps our own threads apart
+    private final Set<String> advancing = ConcurrentHashMap.newKeySet();
+
+    public EceBroker(EceClient eceClient, CatalogService catalogService, AsyncEceClient asyncEceClient, ServiceInstanceRepository serviceInstanceRepository, ServiceBindingRepository serviceBindingRepository,
+                     OperationLeases operationLeases, Reservations reservations, EceMetrics eceMetrics, WarmPool warmPool, CredentialPool credentialPool,
+                     @Value("${ece.kibana.pipelined:true}") boolean kibanaPipelined) {
         super();
         this.eceClient = eceClient;
+        this.catalogService = catalogService;
+        this.asyncEceClient = asyncEceClient;
         this.serviceInstanceRepository = serviceInstanceRepository;
         this.serviceBindingRepository = serviceBindingRepository;
+        this.operationLeases = operationLeases;
+        this.reservations = reservations;
+        this.eceMetrics = eceMetrics;
+        this.warmPool = warmPool;
+        this.credentialPool = credentialPool;
+        this.kibanaPipelined = kibanaPipelined;
     }
 
     @Override
     public CreateServiceInstanceResponse createServiceInstance(CreateServiceInstanceRequest request) {
+        return timed("create", request.getPlanId(), () -> doCreateServiceInstance(request));
+    }
+
+    private CreateServiceInstanceResponse doCreateServiceInstance(CreateServiceInstanceRequest request) {
         if (!request.isAsyncAccepted()) {
             throw new ServiceBrokerAsyncRequiredException("broker only supports async requests.");
         }
 
-        if (serviceInstanceRepository.findOne(request.getServiceInstanceId()) != null) {
+        //claim the id first, so only one of a set of concurrent retries ever gets as far as ece
+        Reservations.Result reservation;
+        try {
+            reservation = reservations.reserveInstance(request);
+        } catch (Throwable t) {
+            log.error("error reserving instance", t);
+            throw new ServiceBrokerException("Error reserving instance.", t);
+        }
+
+        if (Reservations.Result.CONFLICT.equals(reservation)) {
+            throw new ServiceInstanceExistsException(request.getServiceInstanceId(), request.getServiceDefinitionId());
+        }
+
+        if (Reservations.Result.SAME.equals(reservation)) {
+            log.info("repeated create for service instance: " + request.getServiceInstanceId());
+            repeatedCreates.incrementAndGet();
+            return repeatedCreateResponse(request);
+        }
+
+        try {
+            return createNewInstance(request);
+        } catch (Throwable t) {
+            //nothing was started, let a retry have another go
+            reservations.releaseInstance(request.getServiceInstanceId());
+            throw t;
+        }
+    }
+
+    private CreateServiceInstanceResponse repeatedCreateResponse(CreateServiceInstanceRequest request) {
+        ServiceInstance instance = findInstance(request.getServiceInstanceId());
+
+        //the first request may not have saved the instance yet, but it is on its way
+        if (instance == null || instance.getLastOperation() == null || isInProgress(instance)) {
+            return new CreateServiceInstanceResponse().withAsync(true).withOperation(OperationState.IN_PROGRESS.getValue());
+        }
+
+        GetLastServiceOperationResponse lo = instance.getLastOperation();
+        if (OperationState.SUCCEEDED.equals(lo.getState()) && lo.isDeleteOperation()) {
+            //a reservation that outlived its instance, the same as creating any other id that was already used
             throw new ServiceInstanceExistsException(request.getServiceInstanceId(), request.getServiceDefinitionId());
         }
+        if (OperationState.SUCCEEDED.equals(lo.getState())) {
+            return new CreateServiceInstanceResponse().withInstanceExisted(true);
+        }
+        return new CreateServiceInstanceResponse().withAsync(true).withOperation(lo.getState().getValue());
+    }
+
+    private CreateServiceInstanceResponse createNewInstance(CreateServiceInstanceRequest request) {
+        ServiceInstance instance = new ServiceInstance(request, catalogService.getPlan(request.getPlanId()));
 
-        ServiceInstance instance = new ServiceInstance(request);
-        boolean exists;
+        //the redis and ece existence checks are independent, so run the ece check while we look in redis
+        CompletableFuture<Boolean> exists;
         try {
-            exists = eceClient.clusterExists(instance);
+            exists = asyncEceClient.clusterExists(instance);
         } catch (Throwable t) {
             log.error("error checking cluster", t);
             throw new ServiceBrokerException("Error checking cluster.", t);
         }
 
-        if (exists) {
+        //instances stored before reservations were introduced have no reservation
+        if (serviceInstanceRepository.findOne(request.getServiceInstanceId()) != null) {
             throw new ServiceInstanceExistsException(request.getServiceInstanceId(), request.getServiceDefinitionId());
         }
 
         try {
+            if (exists.join()) {
+                throw new ServiceInstanceExistsException(request.getServiceInstanceId(), request.getServiceDefinitionId());
+            }
+        } catch (CompletionException e) {
+            log.error("error checking cluster", e.getCause());
+            throw new ServiceBrokerException("Error checking cluster.", e.getCause());
+        }
+
+        try {
+            //a pooled cluster is already running, so there is nothing left to wait for
+            if (isDefaults(request) && warmPool.claim(instance)) {
+                log.info("created service instance: " + request.getServiceInstanceId() + " from the warm pool.");
+                instance.setLastOperation(new GetLastServiceOperationResponse()
+                        .withOperationState(OperationState.SUCCEEDED)
+                        .withDescription("created."));
+                try {
+                    saveInstance(instance);
+                } catch (Throwable t) {
+                    //without its record nothing knows the cluster is this instance's
+                    warmPool.release(instance);
+                    throw t;
+                }
+                return new CreateServiceInstanceResponse().withAsync(true).withOperation(OperationState.IN_PROGRESS.getValue());
+            }
+
             log.info("creating service instance: " + request.getServiceInstanceId() + " service definition: " + request.getServiceDefinitionId());
-            eceClient.createCluster(instance);
 
             GetLastServiceOperationResponse lo = new GetLastServiceOperationResponse()
                     .withOperationState(OperationState.IN_PROGRESS)
@@ -73,6 +181,18 @@ public class EceBroker implements ServiceInstanceService, ServiceInstanceBinding
             instance.setLastOperation(lo);
             saveInstance(instance);
 
+            //the create call is the slowest thing we do, let it complete off the request thread
+            CompletableFuture<ServiceInstance> created;
+            try {
+                created = asyncEceClient.createCluster(instance);
+            } catch (Throwable t) {
+                //turned away by a full ece executor: nothing will ever advance this record, so it can't stay
+                forgetInstance(instance);
+                throw t;
+            }
+            created.thenCompose(this::requestKibanaEarly)
+                    .whenComplete((i, t) -> createClusterCompleted(instance, t));
+
             log.info("registered service instance: " + request.getServiceInstanceId());
 
             return new CreateServiceInstanceResponse().withAsync(true).withOperation(OperationState.IN_PROGRESS.getValue());
@@ -82,18 +202,133 @@ public class EceBroker implements ServiceInstanceService, ServiceInstanceBinding
         }
     }
 
+    //pooled clusters are built from the plan defaults, so only a create without parameters can use one
+    private static boolean isDefaults(CreateServiceInstanceRequest request) {
+        return request.getParameters() == null || request.getParameters().isEmpty();
+    }
+
+    /**
+     * Asks for kibana as soon as ece has given us the elasticsearch cluster id, so kibana boots alongside the cluster
+     * instead of after it. Runs before the cluster id is saved, so no poll can see the cluster without its kibana
+     * request. If ece turns the request down, kibana is requested from last_operation once the cluster has started.
+     */
+    private CompletableFuture<ServiceInstance> requestKibanaEarly(ServiceInstance instance) {
+        if (!kibanaPipelined || !instance.isKibanaWanted() || instance.isKibanaRequested()) {
+            return CompletableFuture.completedFuture(instance);
+        }
+
+        try {
+            return asyncEceClient.createKibana(instance).handle((i, t) -> {
+                if (t != null) {
+                    log.warn("kibana not accepted for cluster: " + instance.getClusterId() + ", will request it once the cluster starts.", t);
+                }
+                return instance;
+            });
+        } catch (Throwable t) {
+            log.warn("could not request kibana for cluster: " + instance.getClusterId() + ", will request it once the cluster starts.", t);
+            return CompletableFuture.completedFuture(instance);
+        }
+    }
+
+    private void createClusterCompleted(ServiceInstance instance, Throwable t) {
+        if (t != null) {
+            log.error("error creating cluster", t);
+            instance.getLastOperation().withOperationState(OperationState.FAILED).withDescription("create failed.");
+        }
+        saveInstance(instance);
+    }
+
+    private <T> T timed(String operation, String planId, Supplier<T> op) {
+        String plan = planId != null ? planId : "unknown";
+        long start = eceMetrics.start();
+        Throwable failure = null;
+        try {
+            return EceMetrics.withPlan(plan, op);
+        } catch (Throwable t) {
+            failure = t;
+            throw t;
+        } finally {
+            eceMetrics.record(EceMetrics.BROKER_OPERATIONS, start, failure, "operation", operation, "plan", plan);
+        }
+    }
+
+    private ServiceInstance findInstance(String id) {
+        ServiceInstance instance = serviceInstanceRepository.findOne(id);
+        if (instance != null) {
+            instance.markClean();
+        }
+        return instance;
+    }
+
+    /**
+     * Writes the instance only if something changed since it was loaded or last saved, and then only the fields that
+     * changed. Instances that were never stored are written in full.
+     */
     private void saveInstance(ServiceInstance instance) {
-        log.info("saving service instance to repo: " + instance.getService_instance_id());
-        serviceInstanceRepository.save(instance);
+        Map<String, Object> changed = instance.getChangedFields();
+        if (changed == null) {
+            log.info("saving service instance to repo: " + instance.getService_instance_id());
+            serviceInstanceRepository.save(instance);
+        } else if (changed.isEmpty()) {
+            log.debug("service instance: " + instance.getService_instance_id() + " unchanged, skipping save.");
+            skippedWrites.incrementAndGet();
+            return;
+        } else {
+            log.info("updating service instance in repo: " + instance.getService_instance_id() + " fields: " + changed.keySet());
+            serviceInstanceRepository.update(instance, changed);
+        }
+        instance.markClean();
+
+        if (changed == null || changed.containsKey("lastOperation")) {
+            try {
+                operationLeases.setInFlight(instance.getService_instance_id(), isInProgress(instance));
+            } catch (Throwable t) {
+                //the instance is saved, last_operation polls will still move it along
+                log.error("error tracking in-flight state of service instance: " + instance.getService_instance_id(), t);
+            }
+            credentialPool.track(instance);
+        }
+    }
+
+    private void forgetInstance(ServiceInstance instance) {
+        String id = instance.getService_instance_id();
+        try {
+            serviceInstanceRepository.delete(id);
+            operationLeases.setInFlight(id, false);
+        } catch (Throwable t) {
+            log.error("error removing service instance: " + id + " after its create was not started.", t);
+        }
+    }
+
+    private boolean isInProgress(ServiceInstance instance) {
+        return instance.getLastOperation() != null && OperationState.IN_PROGRESS.equals(instance.getLastOperation().getState());
+    }
+
+    /**
+     * @return number of instance saves skipped because nothing had changed
+     */
+    long getSkippedWrites() {
+        return skippedWrites.get();
+    }
+
+    /**
+     * @return number of instance and binding creates answered as repeats of an earlier identical request
+     */
+    long getRepeatedCreates() {
+        return repeatedCreates.get();
     }
 
     @Override
-    public GetLastServiceOperationResponse getLastOperation(GetLastServiceOperationRequest getLastServiceOperationRequest) {
+    public GetLastServiceOperationResponse getLastOperation(GetLastServiceOperationRequest request) {
+        return timed("last_operation", request.getPlanId(), () -> doGetLastOperation(request));
+    }
+
+    private GetLastServiceOperationResponse doGetLastOperation(GetLastServiceOperationRequest getLastServiceOperationRequest) {
         log.info("getting last operation for service: " + getLastServiceOperationRequest.getServiceInstanceId());
 
         ServiceInstance instance;
         try {
-            instance = serviceInstanceRepository.findOne(getLastServiceOperationRequest.getServiceInstanceId());
+            instance = findInstance(getLastServiceOperationRequest.getServiceInstanceId());
         } catch (Throwable t) {
             log.error("error retrieving instance.", t);
             return new GetLastServiceOperationResponse().withOperationState(OperationState.FAILED);
@@ -110,30 +345,119 @@ public class EceBroker implements ServiceInstanceService, ServiceInstanceBinding
             return lo;
         }
 
+        //only the broker holding the lease moves the operation along, everyone else reports what is stored
+        if (!acquireLease(instance)) {
+            log.info("service instance: " + instance.getService_instance_id() + " is being advanced by another broker.");
+            return lo;
+        }
+        return advanceOwned(instance);
+    }
+
+    /**
+     * Advances the in-flight operation on an instance if this broker holds, or can take, its lease. Called by the
+     * InFlightDriver so that operations progress regardless of where last_operation polls land.
+     */
+    void advance(String instanceId) {
+        ServiceInstance instance = findInstance(instanceId);
+        if (instance == null || !isInProgress(instance)) {
+            operationLeases.setInFlight(instanceId, false);
+            operationLeases.release(instanceId);
+            return;
+        }
+
+        if (acquireLease(instance)) {
+            advanceOwned(instance);
+        }
+    }
+
+    private boolean acquireLease(ServiceInstance instance) {
+        try {
+            return operationLeases.acquire(instance.getService_instance_id());
+        } catch (Throwable t) {
+            log.error("error acquiring lease on service instance: " + instance.getService_instance_id(), t);
+            return false;
+        }
+    }
+
+    private GetLastServiceOperationResponse advanceOwned(ServiceInstance cached) {
+        String id = cached.getService_instance_id();
+        if (!advancing.add(id)) {
+            log.info("service instance: " + id + " is already being advanced on this broker.");
+            return cached.getLastOperation();
+        }
+
+        ServiceInstance instance = null;
+        try {
+            //the copy we were handed may come from the near cache, behind steps the previous owner has saved
+            instance = serviceInstanceRepository.latest(id);
+            if (instance == null) {
+                operationLeases.setInFlight(id, false);
+                return cached.getLastOperation();
+            }
+            instance.markClean();
+
+            if (!isInProgress(instance)) {
+                return instance.getLastOperation();
+            }
+            ServiceInstance current = instance;
+            return EceMetrics.withPlan(current.getPlan_id(), () -> doAdvance(current));
+        } finally {
+            //the terminal state has been saved (and published) by now, so the next owner will not see it in flight
+            if (instance == null || !isInProgress(instance)) {
+                operationLeases.release(id);
+            }
+            advancing.remove(id);
+        }
+    }
+
+    //a deleted instance keeps its record, which answers any later create of the id, so its reservation can go
+    private void releaseReservation(String instanceId) {
         try {
+            reservations.releaseInstance(instanceId);
+        } catch (Throwable t) {
+            log.error("error releasing reservation for service instance: " + instanceId, t);
+        }
+    }
+
+    private GetLastServiceOperationResponse doAdvance(ServiceInstance instance) {
+        GetLastServiceOperationResponse lo = instance.getLastOperation();
+        String id = instance.getService_instance_id();
+
+        try {
+            ClusterStatus status = eceClient.getClusterStatus(instance);
+
             //Are we deleting?
             if (lo.isDeleteOperation()) {
-                if (!eceClient.isClusterStopped(instance)) {
-                    log.info("cluster: " + getLastServiceOperationRequest.getServiceInstanceId() + " delete in progress, waiting for cluster to stop.");
+                if (!eceClient.isClusterStopped(status)) {
+                    log.info("cluster: " + id + " delete in progress, waiting for cluster to stop.");
                     return lo;
                 }
 
-                log.info("deleting cluster: " + getLastServiceOperationRequest.getServiceInstanceId());
-                eceClient.deleteCluster(instance);
+                log.info("deleting cluster: " + id);
+                try {
+                    eceClient.deleteCluster(instance);
+                } catch (FeignException e) {
+                    //a retried or concurrent delete may find the cluster already gone, which is what we wanted
+                    if (e.status() != 404) {
+                        throw e;
+                    }
+                    log.warn("cluster: " + id + " already deleted.");
+                }
                 instance.getLastOperation().withOperationState(OperationState.SUCCEEDED).withDescription("deleted.");
                 saveInstance(instance);
+                releaseReservation(id);
                 return instance.getLastOperation();
             }
 
             // If cluster not started yet, we're still in process.
-            if (!eceClient.isClusterStarted(instance)) {
-                log.info("cluster: " + getLastServiceOperationRequest.getServiceInstanceId() + " create in progress, waiting for cluster to start.");
+            if (!eceClient.isClusterStarted(status)) {
+                log.info("cluster: " + id + " create in progress, waiting for cluster to start.");
                 return lo;
             }
 
             // So, cluster is started. If we don't want kibana, we are done.
             if (!instance.isKibanaWanted()) {
-                log.info("cluster: " + getLastServiceOperationRequest.getServiceInstanceId() + " create completed, cluster started.");
+                log.info("cluster: " + id + " create completed, cluster started.");
                 instance.getLastOperation().withOperationState(OperationState.SUCCEEDED).withDescription("created.");
                 saveInstance(instance);
                 return instance.getLastOperation();
@@ -141,17 +465,32 @@ public class EceBroker implements ServiceInstanceService, ServiceInstanceBinding
 
             // We must want kibana too, but if it is not ready we are still in process
             log.info("checking to see if kibana in involved...");
-            if (!eceClient.isKibanaEnabled(instance)) {
+            if (!eceClient.isKibanaEnabled(instance, status)) {
                 saveInstance(instance);
-                log.info("cluster: " + getLastServiceOperationRequest.getServiceInstanceId() + " started, kibana pending.");
+                log.info("cluster: " + id + " started, kibana pending.");
                 return lo;
             }
 
             // Kibana is ready too, we are done.
-            log.info("cluster: " + getLastServiceOperationRequest.getServiceInstanceId() + " create completed, cluster started, kibana started");
+            log.info("cluster: " + id + " create completed, cluster started, kibana started");
             instance.getLastOperation().withOperationState(OperationState.SUCCEEDED).withDescription("created");
             saveInstance(instance);
             return instance.getLastOperation();
+        } catch (EceUnavailableException e) {
+            //ece is being shed or missed a deadline, not failing this operation: report where we are and try again on a later poll
+            log.warn("cluster: " + id + " " + e.getMessage());
+            return lo;
+        } catch (FeignException e) {
+            if (!EceGuard.isFailure(e)) {
+                log.error("error updating last operation.", e);
+                instance.getLastOperation().withOperationState(OperationState.FAILED);
+                saveInstance(instance);
+                return instance.getLastOperation();
+            }
+
+            //timeouts and 5xx are ece hiccups, reprovisioning is far more expensive than asking again
+            log.warn("cluster: " + id + " transient ece error, will retry on a later poll: " + e.getMessage());
+            return lo;
         } catch (Throwable t) {
             log.error("error updating last operation.", t);
             instance.getLastOperation().withOperationState(OperationState.FAILED);
@@ -162,11 +501,15 @@ public class EceBroker implements ServiceInstanceService, ServiceInstanceBinding
 
     @Override
     public DeleteServiceInstanceResponse deleteServiceInstance(DeleteServiceInstanceRequest request) {
+        return timed("delete", request.getPlanId(), () -> doDeleteServiceInstance(request));
+    }
+
+    private DeleteServiceInstanceResponse doDeleteServiceInstance(DeleteServiceInstanceRequest request) {
         if (!request.isAsyncAccepted()) {
             throw new ServiceBrokerAsyncRequiredException("broker only supports async requests.");
         }
 
-        ServiceInstance serviceInstance = serviceInstanceRepository.findOne(request.getServiceInstanceId());
+        ServiceInstance serviceInstance = findInstance(request.getServiceInstanceId());
         if (serviceInstance == null) {
             throw new ServiceInstanceDoesNotExistException(request.getServiceInstanceId());
         }
@@ -195,6 +538,7 @@ public class EceBroker implements ServiceInstanceService, ServiceInstanceBinding
                         .withDeleteOperation(true);
                 serviceInstance.setLastOperation(lo);
                 saveInstance(serviceInstance);
+                releaseReservation(serviceInstance.getService_instance_id());
                 return new DeleteServiceInstanceResponse().withAsync(true).withOperation(OperationState.SUCCEEDED.getValue());
             }
 
@@ -211,16 +555,57 @@ public class EceBroker implements ServiceInstanceService, ServiceInstanceBinding
 
     @Override
     public UpdateServiceInstanceResponse updateServiceInstance(UpdateServiceInstanceRequest request) {
+        return timed("update", request.getPlanId(), () -> doUpdateServiceInstance(request));
+    }
+
+    private UpdateServiceInstanceResponse doUpdateServiceInstance(UpdateServiceInstanceRequest request) {
         throw new ServiceInstanceUpdateNotSupportedException("Broker does not support updating");
     }
 
     @Override
     public CreateServiceInstanceBindingResponse createServiceInstanceBinding(CreateServiceInstanceBindingRequest request) {
-        ServiceInstance instance = serviceInstanceRepository.findOne(request.getServiceInstanceId());
+        return timed("bind", request.getPlanId(), () -> doCreateServiceInstanceBinding(request));
+    }
+
+    private CreateServiceInstanceBindingResponse doCreateServiceInstanceBinding(CreateServiceInstanceBindingRequest request) {
+        ServiceInstance instance = findInstance(request.getServiceInstanceId());
         if (instance == null) {
             throw new ServiceInstanceDoesNotExistException(request.getServiceInstanceId());
         }
 
+        Reservations.Result reservation;
+        try {
+            reservation = reservations.reserveBinding(request);
+        } catch (Throwable t) {
+            throw new ServiceBrokerException("error reserving binding.", t);
+        }
+
+        if (Reservations.Result.CONFLICT.equals(reservation)) {
+            throw new ServiceInstanceBindingExistsException(request.getServiceInstanceId(), request.getBindingId());
+        }
+
+        if (Reservations.Result.SAME.equals(reservation)) {
+            log.info("repeated create for binding: " + request.getBindingId());
+            repeatedCreates.incrementAndGet();
+            ServiceBinding binding = serviceBindingRepository.findOne(request.getBindingId());
+            if (binding == null) {
+                //the first bind is still running, binds are synchronous so there is no 202 to give: the retry gets a 409
+                //right away rather than holding a servlet thread until the first one is done
+                throw new ServiceInstanceBindingExistsException(request.getServiceInstanceId(), request.getBindingId());
+            }
+            return new CreateServiceInstanceAppBindingResponse().withBindingExisted(true).withCredentials(instance.credentialsFor(binding));
+        }
+
+        try {
+            return createNewBinding(instance, request);
+        } catch (Throwable t) {
+            reservations.releaseBinding(request.getBindingId());
+            throw t;
+        }
+    }
+
+    private CreateServiceInstanceBindingResponse createNewBinding(ServiceInstance instance, CreateServiceInstanceBindingRequest request) {
+        //bindings stored before reservations were introduced have no reservation
         ServiceBinding binding = serviceBindingRepository.findOne(request.getBindingId());
         if (binding != null) {
             throw new ServiceInstanceBindingExistsException(request.getServiceInstanceId(), request.getBindingId());
@@ -229,22 +614,35 @@ public class EceBroker implements ServiceInstanceService, ServiceInstanceBinding
         log.info("creating binding for service instance: " + request.getServiceInstanceId() + " service: " + request.getServiceInstanceId());
         binding = new ServiceBinding(request);
 
+        BindingCredential credential = null;
         try {
-            eceClient.bindToCluster(instance, binding);
-            binding.getCredentials().putAll(instance.getCredentials());
+            //the binding keeps only its own user, connection data is read from the instance
+            credential = credentialPool.take(instance);
+            binding.getCredentials().put(ClusterConfig.credentialKeys.username.name(), credential.getUsername());
+            binding.getCredentials().put(ClusterConfig.credentialKeys.password.name(), credential.getPassword());
 
-            log.info("saving binding: " + request.getBindingId());
+            log.info("saving binding: " + request.getBindingId() + " user: " + credential.getUsername());
             serviceBindingRepository.save(binding);
 
-            return new CreateServiceInstanceAppBindingResponse().withCredentials(binding.getCredentials());
+            return new CreateServiceInstanceAppBindingResponse().withCredentials(instance.credentialsFor(binding));
 
         } catch (Throwable t) {
+            if (credential != null) {
+                credentialPool.discard(instance, credential.getUsername());
+            }
             throw new ServiceBrokerException("error creating binding.", t);
         }
     }
 
     @Override
     public void deleteServiceInstanceBinding(DeleteServiceInstanceBindingRequest request) {
+        timed("unbind", request.getPlanId(), () -> {
+            doDeleteServiceInstanceBinding(request);
+            return null;
+        });
+    }
+
+    private void doDeleteServiceInstanceBinding(DeleteServiceInstanceBindingRequest request) {
         ServiceBinding binding = serviceBindingRepository.findOne(request.getBindingId());
         if (binding == null) {
             throw new ServiceInstanceBindingDoesNotExistException(request.getBindingId());
@@ -257,10 +655,29 @@ public class EceBroker implements ServiceInstanceService, ServiceInstanceBinding
 
         try {
             log.info("deleting binding: " + request.getBindingId() + " for service instance: " + request.getServiceInstanceId());
-            eceClient.unbindFromCluster(instance, binding);
+            deleteUser(instance, binding);
             serviceBindingRepository.delete(binding);
+            reservations.releaseBinding(request.getBindingId());
         } catch (Throwable t) {
             throw new ServiceBrokerException("error deleting binding", t);
         }
     }
-}
\ No newline at end of file
+
+    //bindings made before they had their own user carry the cluster admin's, which has to stay
+    private void deleteUser(ServiceInstance instance, ServiceBinding binding) {
+        Object username = binding.getCredentials().get(ClusterConfig.credentialKeys.username.name());
+        if (username == null || username.equals(instance.getCredentials().get(ClusterConfig.credentialKeys.username.name()))) {
+            return;
+        }
+
+        try {
+            eceClient.deleteUser(instance, username.toString());
+        } catch (FeignException e) {
+            //a retried unbind may find the user already gone, which is what we wanted
+            if (e.status() != 404) {
+                throw e;
+            }
+            log.warn("user: " + username + " already deleted.");
+        }
+    }
+}
@@ -17,30 +17,69 @@
 
 package io.pivotal.ecosystem.ece;
 
-import com.jayway.jsonpath.JsonPath;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
-import java.util.List;
+import java.util.Arrays;
 
 @Slf4j
 @Service
 class EceClient {
 
+    private static final BodyTemplate<String> RENAME_BODY = BodyTemplate.<String>builder()
+            .beginObject()
+            .requiredStringField(ClusterConfig.eceApiKeys.cluster_name.name(), name -> name)
+            .endObject()
+            .build();
+
+    //the password of a new elasticsearch user, with the configured roles
+    private final BodyTemplate<String> userBody;
+
     private EceRepo eceRepo;
     private EceConfig eceConfig;
+    private ClusterStatusEngine clusterStatusEngine;
+    private ClusterNameIndex clusterNameIndex;
+    private ClusterStatusReader clusterStatusReader;
 
-    public EceClient(EceConfig eceConfig, EceRepo eceRepo) {
+    public EceClient(EceConfig eceConfig, EceRepo eceRepo, ClusterStatusEngine clusterStatusEngine, ClusterNameIndex clusterNameIndex,
+                     ClusterStatusReader clusterStatusReader, @Value("${ece.bindings.roles:superuser}") String roles) {
         super();
         this.eceConfig = eceConfig;
         this.eceRepo = eceRepo;
+        this.clusterStatusEngine = clusterStatusEngine;
+        this.clusterNameIndex = clusterNameIndex;
+        this.clusterStatusReader = clusterStatusReader;
+        this.userBody = BodyTemplate.<String>builder()
+                .beginObject()
+                .requiredStringField(ClusterConfig.eceApiKeys.password.name(), password -> password)
+                .literalArrayField("roles", Arrays.asList(roles.trim().split("\\s*,\\s*")))
+                .endObject()
+                .build();
     }
 
     void createCluster(ServiceInstance instance) {
         log.info("creating cluster: " + instance.getService_instance_id());
 
-        Object resp = eceRepo.createCluster(instance.getCreateClusterBody());
+        CreateClusterResponse resp = eceRepo.createCluster(instance.getCreateClusterBody());
         instance.processCreateClusterResponse(resp, eceConfig);
+        clusterNameIndex.add(instance.getClusterName());
+    }
+
+    /**
+     * Gives a cluster a new name in ece and in the name index, e.g. when a warm pool cluster is claimed by an instance.
+     */
+    void renameCluster(String clusterId, String from, String to) {
+        log.info("renaming cluster: " + clusterId + " from: " + from + " to: " + to);
+        eceRepo.updateClusterMetadata(clusterId, RENAME_BODY.render(to));
+        clusterNameIndex.add(to);
+        clusterNameIndex.remove(from);
+    }
+
+    //kibana clusters are named after their elasticsearch cluster, but are not in the name index
+    void renameKibana(String kibanaClusterId, String to) {
+        log.info("renaming kibana cluster: " + kibanaClusterId + " to: " + to);
+        eceRepo.updateKibanaMetadata(kibanaClusterId, RENAME_BODY.render(to));
     }
 
     void shutdownCluster(ServiceInstance instance) {
@@ -51,49 +90,73 @@ class EceClient {
     void deleteCluster(ServiceInstance instance) {
         log.info("deleting cluster: " + instance.getClusterId());
         eceRepo.deleteCluster(instance.getClusterId());
+        clusterNameIndex.remove(instance.getClusterName());
     }
 
-    void bindToCluster(ServiceInstance instance, ServiceBinding binding) {
-        //no-op for now
-        log.info("binding app: " + binding.getApp_guid() + " to cluster: " + instance.getService_instance_id());
+    /**
+     * Creates an elasticsearch user in the instance's cluster, for handing to a binding.
+     */
+    void createUser(ServiceInstance instance, String username, String password) {
+        log.info("creating user: " + username + " in cluster: " + instance.getClusterId());
+        eceRepo.putUser(instance.getClusterId(), username, userBody.render(password));
     }
 
-    void unbindFromCluster(ServiceInstance instance, ServiceBinding binding) {
-        //no-op for now
-        log.info("unbinding app: " + binding.getApp_guid() + " from cluster: " + instance.getService_instance_id());
+    void deleteUser(ServiceInstance instance, String username) {
+        log.info("deleting user: " + username + " from cluster: " + instance.getClusterId());
+        eceRepo.deleteUser(instance.getClusterId(), username);
     }
 
     void createKibana(ServiceInstance instance) {
         log.info("creating kibana cluster for instance: " + instance.getService_instance_id());
 
-        Object resp = eceRepo.createKibana(instance.getCreateKibanaBody());
+        CreateKibanaResponse resp = eceRepo.createKibana(instance.getCreateKibanaBody());
         instance.processCreateKibanaResponse(resp, eceConfig);
     }
 
-    private String getClusterStatus(Object clusterInfo) {
-        return JsonPath.parse(clusterInfo).read("$.status");
+    boolean clusterExists(ServiceInstance instance) {
+        return clusterNameIndex.contains(instance.getClusterName());
     }
 
-    boolean clusterExists(ServiceInstance instance) {
-        List<String> l = JsonPath.parse(eceRepo.getClustersInfo()).read("$..cluster_name");
-        return l.contains(instance.getClusterName());
+    /**
+     * Looks up the cluster's status once, so every check made while evaluating one poll sees the same document.
+     */
+    ClusterStatus getClusterStatus(ServiceInstance instance) {
+        log.info("checking status on clusterId: " + instance.getClusterId());
+        ClusterStatus status = clusterStatusEngine.getStatus(instance.getClusterId());
+
+        //a fresh listing is authoritative, but once it is too old to trust ask ece about this one cluster
+        if (status == null && instance.getClusterId() != null && clusterStatusEngine.isStale()) {
+            return clusterStatusReader.read(instance.getClusterId());
+        }
+        return status;
     }
 
     boolean isClusterStarted(ServiceInstance instance) {
-        return isClusterInState(instance, ClusterConfig.clusterState.started);
+        return isClusterStarted(getClusterStatus(instance));
+    }
+
+    boolean isClusterStarted(ClusterStatus status) {
+        return isClusterInState(status, ClusterConfig.clusterState.started);
     }
 
     boolean isClusterStopped(ServiceInstance instance) {
-        return isClusterInState(instance, ClusterConfig.clusterState.stopped);
+        return isClusterStopped(getClusterStatus(instance));
     }
 
-    private boolean isClusterInState(ServiceInstance instance, ClusterConfig.clusterState state) {
-        log.info("checking status on clusterId: " + instance.getClusterId());
-        String status = getClusterStatus(eceRepo.getClusterInfo(instance.getClusterId()));
-        return state.name().equalsIgnoreCase(status);
+    boolean isClusterStopped(ClusterStatus status) {
+        return isClusterInState(status, ClusterConfig.clusterState.stopped);
+    }
+
+    //an unknown or stale cluster is treated as not yet in the requested state
+    private boolean isClusterInState(ClusterStatus status, ClusterConfig.clusterState state) {
+        return status != null && status.isInState(state);
     }
 
     boolean isKibanaEnabled(ServiceInstance instance) {
+        return isKibanaEnabled(instance, getClusterStatus(instance));
+    }
+
+    boolean isKibanaEnabled(ServiceInstance instance, ClusterStatus status) {
         //do we even want kibana?
         if (!instance.isKibanaWanted()) {
             return false;
@@ -106,16 +169,6 @@ class EceClient {
         }
 
         //if we've requested kibana, check to see if it's enabled yet
-        return getKibanaEnabled(instance);
-    }
-
-    private boolean getKibanaEnabled(ServiceInstance instance) {
-        List<Boolean> l = JsonPath.parse(eceRepo.getClusterInfo(instance.getClusterId())).read("$..associated_kibana_clusters[*].enabled");
-        for (Boolean b : l) {
-            if (!b) {
-                return false;
-            }
-        }
-        return true;
+        return status != null && status.isKibanaEnabled();
     }
-}
+}
\ No newline at end of file
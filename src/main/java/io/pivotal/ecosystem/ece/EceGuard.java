@@ -0,0 +1,252 @@
+/*
+ * Copyright (C) 2017-Present Pivotal Software, Inc. All rights reserved.
+ * <p>
+ * This program and the accompanying materials are made available under
+ * the terms of the under the Apache License, Version 2.0 (the "License”);
+ * you may not use this file except in compliance with the License.
+ * <p>
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * <p>
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.pivotal.ecosystem.ece;
+
+import feign.FeignException;
+import feign.Response;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bulkhead for ece calls: a circuit breaker that fails fast while ece is down, in front of an adaptive concurrency
+ * limit that caps how many threads can be blocked in ece at once. Calls that are turned away throw
+ * EceUnavailableException without touching the network. A call that returns a raw response holds its slot until the
+ * response body is closed, so callers must close it (as they must anyway, to free the connection).
+ */
+class EceGuard {
+
+    private final CircuitBreaker breaker;
+    private final AdaptiveLimit limit;
+    private final long maxWait;
+
+    private final AtomicLong rejected = new AtomicLong();
+
+    EceGuard(CircuitBreaker breaker, AdaptiveLimit limit, long maxWait) {
+        super();
+        this.breaker = breaker;
+        this.limit = limit;
+        this.maxWait = maxWait;
+    }
+
+    @SuppressWarnings("unchecked")
+    <T> T wrap(Class<T> type, T target) {
+        InvocationHandler handler = (proxy, method, args) -> {
+            if (method.getDeclaringClass() == Object.class) {
+                return invoke(target, method, args);
+            }
+            return call(target, method, args);
+        };
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, handler);
+    }
+
+    private Object call(Object target, Method method, Object[] args) throws Throwable {
+        if (!breaker.allow()) {
+            rejected.incrementAndGet();
+            throw new EceUnavailableException("ece circuit breaker is open, not calling: " + method.getName());
+        }
+
+        boolean acquired;
+        try {
+            acquired = limit.acquire(maxWait);
+        } catch (InterruptedException e) {
+            breaker.onIgnored();
+            throw e;
+        }
+        if (!acquired) {
+            breaker.onIgnored();
+            rejected.incrementAndGet();
+            throw new EceUnavailableException("ece concurrency limit of " + limit.getLimit() + " reached, not calling: " + method.getName());
+        }
+
+        long start = System.nanoTime();
+        try {
+            Object o = invoke(target, method, args);
+            if (o instanceof Response) {
+                return guarded(checkStatus(method.getName(), (Response) o), start);
+            }
+            complete(start, false);
+            return o;
+        } catch (Throwable t) {
+            complete(start, isFailure(t));
+            throw t;
+        }
+    }
+
+    private void complete(long start, boolean failure) {
+        limit.release(System.nanoTime() - start, failure);
+        if (failure) {
+            breaker.onFailure();
+        } else {
+            breaker.onSuccess();
+        }
+    }
+
+    //the call is over once the body has been read, a slow or broken body is as much ece's doing as a slow answer
+    private Response guarded(Response response, long start) {
+        if (response.body() == null) {
+            complete(start, false);
+            return response;
+        }
+        return Response.create(response.status(), response.reason(), response.headers(), new GuardedBody(response.body(), start));
+    }
+
+    /**
+     * @return true if t means ece is unhealthy: a timeout or connection failure, a 5xx or a 429. Other 4xx responses
+     * are ece answering normally about the request.
+     */
+    static boolean isFailure(Throwable t) {
+        if (!(t instanceof FeignException)) {
+            return true;
+        }
+        int status = ((FeignException) t).status();
+        return status <= 0 || status >= 500 || status == 429;
+    }
+
+    /**
+     * Feign hands back raw responses without looking at the status, so an error body would otherwise be read as if it
+     * were the answer.
+     *
+     * @throws FeignException if the response is not a 2xx, after closing it
+     */
+    static Response checkStatus(String methodKey, Response response) {
+        if (response.status() >= 200 && response.status() < 300) {
+            return response;
+        }
+        try {
+            throw FeignException.errorStatus(methodKey, response);
+        } finally {
+            response.close();
+        }
+    }
+
+    /**
+     * Completes the guarded call when the body is closed: a failure if reading it threw, a success otherwise.
+     */
+    private class GuardedBody implements Response.Body {
+
+        private final Response.Body body;
+        private final long start;
+        private final AtomicBoolean completed = new AtomicBoolean();
+        private volatile boolean failed;
+
+        GuardedBody(Response.Body body, long start) {
+            super();
+            this.body = body;
+            this.start = start;
+        }
+
+        @Override
+        public Integer length() {
+            return body.length();
+        }
+
+        @Override
+        public boolean isRepeatable() {
+            return body.isRepeatable();
+        }
+
+        @Override
+        public InputStream asInputStream() throws IOException {
+            try {
+                return new FilterInputStream(body.asInputStream()) {
+                    @Override
+                    public int read() throws IOException {
+                        try {
+                            return super.read();
+                        } catch (IOException e) {
+                            failed = true;
+                            throw e;
+                        }
+                    }
+
+                    @Override
+                    public int read(byte[] b, int off, int len) throws IOException {
+                        try {
+                            return super.read(b, off, len);
+                        } catch (IOException e) {
+                            failed = true;
+                            throw e;
+                        }
+                    }
+
+                    @Override
+                    public void close() throws IOException {
+                        try {
+                            super.close();
+                        } finally {
+                            GuardedBody.this.close();
+                        }
+                    }
+                };
+            } catch (IOException e) {
+                failed = true;
+                throw e;
+            }
+        }
+
+        @Override
+        public Reader asReader() throws IOException {
+            return new InputStreamReader(asInputStream(), StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                body.close();
+            } finally {
+                if (completed.compareAndSet(false, true)) {
+                    complete(start, failed);
+                }
+            }
+        }
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    CircuitBreaker.State getState() {
+        return breaker.getState();
+    }
+
+    int getLimit() {
+        return limit.getLimit();
+    }
+
+    int getInFlight() {
+        return limit.getInFlight();
+    }
+
+    long getRejected() {
+        return rejected.get();
+    }
+}
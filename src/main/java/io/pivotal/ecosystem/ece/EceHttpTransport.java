@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2017-Present Pivotal Software, Inc. All rights reserved.
+ * <p>
+ * This program and the accompanying materials are made available under
+ * the terms of the under the Apache License, Version 2.0 (the "License”);
+ * you may not use this file except in compliance with the License.
+ * <p>
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * <p>
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.ecosystem.ece;
+
+import feign.Client;
+import feign.Request;
+import feign.httpclient.ApacheHttpClient;
+import feign.okhttp.OkHttpClient;
+import lombok.extern.slf4j.Slf4j;
+import okhttp3.ConnectionPool;
+import okhttp3.Protocol;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keep-alive, pooled http transport for the feign EceRepo client. The apache client is the default and gives us a
+ * bounded pool with per-route limits and full pool stats. okhttp can be selected instead when http/2 multiplexing to
+ * ece is wanted. Both transparently request and decode gzip responses, which matters for the cluster listings.
+ */
+@Slf4j
+class EceHttpTransport implements DisposableBean {
+
+    static final String APACHE = "apache";
+    static final String OKHTTP = "okhttp";
+
+    private final EceHttpConfig config;
+    private final Client client;
+
+    private PoolingHttpClientConnectionManager connectionManager;
+    private CloseableHttpClient httpClient;
+    private okhttp3.OkHttpClient okHttpClient;
+
+    EceHttpTransport(EceHttpConfig config) {
+        super();
+        this.config = config;
+
+        if (OKHTTP.equalsIgnoreCase(config.getClient())) {
+            this.client = new OkHttpClient(buildOkHttpClient());
+        } else {
+            this.client = new ApacheHttpClient(buildApacheClient());
+        }
+        log.info("ece http transport: " + config);
+    }
+
+    Client getClient() {
+        return client;
+    }
+
+    Request.Options getOptions() {
+        return new Request.Options(config.getConnectTimeout(), config.getReadTimeout());
+    }
+
+    /**
+     * @return leased, pending, idle (available) and max connections for the pool. okhttp does not track waiters, so
+     * pending is always 0 there.
+     */
+    PoolStats getStats() {
+        if (connectionManager != null) {
+            return connectionManager.getTotalStats();
+        }
+
+        ConnectionPool pool = okHttpClient.connectionPool();
+        int idle = pool.idleConnectionCount();
+        return new PoolStats(pool.connectionCount() - idle, 0, idle, config.getMaxConnections());
+    }
+
+    @Scheduled(fixedDelayString = "${ece.http.statsInterval:60000}")
+    void logStats() {
+        log.info("ece http pool stats: " + getStats());
+    }
+
+    @Override
+    public void destroy() throws IOException {
+        if (httpClient != null) {
+            httpClient.close();
+        }
+        if (okHttpClient != null) {
+            okHttpClient.connectionPool().evictAll();
+            okHttpClient.dispatcher().executorService().shutdown();
+        }
+    }
+
+    private CloseableHttpClient buildApacheClient() {
+        connectionManager = new PoolingHttpClientConnectionManager(config.getIdleTimeout(), TimeUnit.MILLISECONDS);
+        connectionManager.setMaxTotal(config.getMaxConnections());
+        connectionManager.setDefaultMaxPerRoute(config.getMaxConnectionsPerRoute());
+
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(config.getConnectTimeout())
+                .setSocketTimeout(config.getReadTimeout())
+                .setConnectionRequestTimeout(config.getConnectTimeout())
+                .build();
+
+        httpClient = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(requestConfig)
+                .evictIdleConnections(config.getIdleTimeout(), TimeUnit.MILLISECONDS)
+                .evictExpiredConnections()
+                .build();
+        return httpClient;
+    }
+
+    private okhttp3.OkHttpClient buildOkHttpClient() {
+        okHttpClient = new okhttp3.OkHttpClient.Builder()
+                .connectionPool(new ConnectionPool(config.getMaxConnections(), config.getIdleTimeout(), TimeUnit.MILLISECONDS))
+                .connectTimeout(config.getConnectTimeout(), TimeUnit.MILLISECONDS)
+                .readTimeout(config.getReadTimeout(), TimeUnit.MILLISECONDS)
+                .protocols(config.isHttp2() ? Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1) : Collections.singletonList(Protocol.HTTP_1_1))
+                .build();
+        return okHttpClient;
+    }
+}
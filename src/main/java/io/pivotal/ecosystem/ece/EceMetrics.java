@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2017-Present Pivotal Software, Inc. All rights reserved.
+ * <p>
+ * This program and the accompanying materials are made available under
+ * the terms of the under the Apache License, Version 2.0 (the "License”);
+ * you may not use this file except in compliance with the License.
+ * <p>
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * <p>
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.pivotal.ecosystem.ece;
+
+import feign.FeignException;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.cloud.servicebroker.exception.ServiceBrokerException;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Timers for ece calls, repository calls and broker operations. Every timer publishes a percentile histogram and is
+ * tagged with its outcome, so the per-outcome counts double as error counters. Ece and repository calls are also tagged
+ * with the plan of the instance they are made for, where the caller has one in scope. Timers are looked up once per tag
+ * combination and cached, so recording on the poll path is a map lookup and an add.
+ */
+@Component
+class EceMetrics {
+
+    static final String ECE_CALLS = "ece.api.calls";
+    static final String REPOSITORY_CALLS = "ece.repository.calls";
+    static final String BROKER_OPERATIONS = "ece.broker.operations";
+    static final String POOL_CLAIMS = "ece.pool.claims";
+    static final String CREDENTIAL_TAKES = "ece.bindings.credentials";
+    static final String RESPONSES = "ece.responses";
+    static final String SERIALIZATION = "ece.responses.serialization";
+
+    static final String SUCCESS = "success";
+    static final String CLIENT_ERROR = "client_error";
+    static final String SERVER_ERROR = "server_error";
+    static final String ERROR = "error";
+    static final String REJECTED = "rejected";
+
+    static final String NO_PLAN = "none";
+
+    //the plan of the instance this thread is working on
+    private static final ThreadLocal<String> PLAN = new ThreadLocal<>();
+
+    private MeterRegistry meterRegistry;
+
+    private final ConcurrentMap<String, Timer> timers = new ConcurrentHashMap<>();
+
+    public EceMetrics(MeterRegistry meterRegistry) {
+        super();
+        this.meterRegistry = meterRegistry;
+    }
+
+    MeterRegistry getMeterRegistry() {
+        return meterRegistry;
+    }
+
+    long start() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Records one timed call.
+     *
+     * @param tags key/value pairs, an outcome tag derived from t is added
+     */
+    void record(String name, long start, Throwable t, String... tags) {
+        long elapsed = System.nanoTime() - start;
+        timer(name, outcome(t), tags).record(elapsed, TimeUnit.NANOSECONDS);
+    }
+
+    private Timer timer(String name, String outcome, String... tags) {
+        StringBuilder key = new StringBuilder(name).append('|').append(outcome);
+        for (String tag : tags) {
+            key.append('|').append(tag);
+        }
+
+        Timer timer = timers.get(key.toString());
+        if (timer == null) {
+            timer = timers.computeIfAbsent(key.toString(), k -> Timer.builder(name)
+                    .tags(tags)
+                    .tag("outcome", outcome)
+                    .publishPercentileHistogram()
+                    .register(meterRegistry));
+        }
+        return timer;
+    }
+
+    /**
+     * Runs op with planId as the plan tag of the ece and repository calls it makes on this thread.
+     */
+    static <T> T withPlan(String planId, Supplier<T> op) {
+        String outer = PLAN.get();
+        PLAN.set(planId);
+        try {
+            return op.get();
+        } finally {
+            if (outer == null) {
+                PLAN.remove();
+            } else {
+                PLAN.set(outer);
+            }
+        }
+    }
+
+    static String currentPlan() {
+        String plan = PLAN.get();
+        return plan != null ? plan : NO_PLAN;
+    }
+
+    static String outcome(Throwable t) {
+        if (t == null) {
+            return SUCCESS;
+        }
+        if (t instanceof EceUnavailableException) {
+            return REJECTED;
+        }
+        if (t instanceof FeignException) {
+            return ((FeignException) t).status() >= 500 ? SERVER_ERROR : CLIENT_ERROR;
+        }
+        //the OSB exceptions other than ServiceBrokerException itself are all about the request, not the broker
+        if (t.getClass().getPackage() == ServiceBrokerException.class.getPackage() && !(t instanceof ServiceBrokerException)) {
+            return CLIENT_ERROR;
+        }
+        return ERROR;
+    }
+}
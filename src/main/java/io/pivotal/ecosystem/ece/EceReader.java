@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2017-Present Pivotal Software, Inc. All rights reserved.
+ * <p>
+ * This program and the accompanying materials are made available under
+ * the terms of the under the Apache License, Version 2.0 (the "License”);
+ * you may not use this file except in compliance with the License.
+ * <p>
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * <p>
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.ecosystem.ece;
+
+import feign.Response;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Map;
+
+/**
+ * Read side of the ece api, with concurrent identical reads coalesced into one outstanding http call.
+ */
+@Slf4j
+@Service
+class EceReader {
+
+    private static final String ALL_CLUSTERS = "*";
+
+    private EceRepo eceRepo;
+
+    private final SingleFlight<String, Map<String, ClusterStatus>> clusterReads = new SingleFlight<>();
+
+    public EceReader(EceRepo eceRepo) {
+        super();
+        this.eceRepo = eceRepo;
+    }
+
+    /**
+     * @return the status of every cluster in ece, keyed by cluster id
+     */
+    Map<String, ClusterStatus> getClusterStatuses() {
+        return clusterReads.execute(ALL_CLUSTERS, this::readClusterStatuses);
+    }
+
+    private Map<String, ClusterStatus> readClusterStatuses() {
+        //the guard checks the status too, but the repo is not guarded everywhere
+        try (Response response = EceGuard.checkStatus("getClustersInfo", eceRepo.getClustersInfo())) {
+            return ClusterListingParser.parse(response.body().asInputStream());
+        } catch (IOException e) {
+            throw new UncheckedIOException("error reading cluster listing.", e);
+        }
+    }
+
+    long getCalls() {
+        return clusterReads.getCalls();
+    }
+
+    long getCallsSaved() {
+        return clusterReads.getCoalesced();
+    }
+}
@@ -21,21 +21,23 @@ import feign.Body;
 import feign.Headers;
 import feign.Param;
 import feign.RequestLine;
+import feign.Response;
 import org.springframework.stereotype.Repository;
 
 @Repository
 interface EceRepo {
 
+    //raw response, so the (potentially very large) listing can be stream parsed
     @RequestLine("GET /clusters/elasticsearch")
-    Object getClustersInfo();
+    Response getClustersInfo();
 
     @RequestLine("GET /clusters/elasticsearch/{clusterId}")
-    Object getClusterInfo(@Param("clusterId") String clusterId);
+    ClusterInfo getClusterInfo(@Param("clusterId") String clusterId);
 
     @RequestLine("POST /clusters/elasticsearch")
     @Headers("Content-Type: application/json")
     @Body("{body}")
-    Object createCluster(@Param("body") Object body);
+    CreateClusterResponse createCluster(@Param("body") Object body);
 
     @RequestLine("DELETE /clusters/elasticsearch/{clusterId}")
     void deleteCluster(@Param("clusterId") String clusterId);
@@ -43,8 +45,28 @@ interface EceRepo {
     @RequestLine("POST /clusters/elasticsearch/{clusterId}/_shutdown")
     void shutdownCluster(@Param("clusterId") String clusterId);
 
+    @RequestLine("PUT /clusters/elasticsearch/{clusterId}/metadata/settings")
+    @Headers("Content-Type: application/json")
+    @Body("{body}")
+    void updateClusterMetadata(@Param("clusterId") String clusterId, @Param("body") Object body);
+
+    @RequestLine("PUT /clusters/kibana/{clusterId}/metadata/settings")
+    @Headers("Content-Type: application/json")
+    @Body("{body}")
+    void updateKibanaMetadata(@Param("clusterId") String clusterId, @Param("body") Object body);
+
+    //elasticsearch security api calls, sent through ece's proxy to the cluster
+    @RequestLine("PUT /clusters/elasticsearch/{clusterId}/proxy/_xpack/security/user/{username}")
+    @Headers({"Content-Type: application/json", "X-Management-Request: true"})
+    @Body("{body}")
+    void putUser(@Param("clusterId") String clusterId, @Param("username") String username, @Param("body") Object body);
+
+    @RequestLine("DELETE /clusters/elasticsearch/{clusterId}/proxy/_xpack/security/user/{username}")
+    @Headers("X-Management-Request: true")
+    void deleteUser(@Param("clusterId") String clusterId, @Param("username") String username);
+
     @RequestLine("POST /clusters/kibana")
     @Headers("Content-Type: application/json")
     @Body("{body}")
-    Object createKibana(@Param("body") Object body);
+    CreateKibanaResponse createKibana(@Param("body") Object body);
 }
\ No newline at end of file
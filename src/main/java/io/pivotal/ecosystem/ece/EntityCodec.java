@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2017-Present Pivotal Software, Inc. All rights reserved.
+ * <p>
+ * This program and the accompanying materials are made available under
+ * the terms of the under the Apache License, Version 2.0 (the "License”);
+ * you may not use this file except in compliance with the License.
+ * <p>
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * <p>
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.ecosystem.ece;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import org.springframework.cloud.servicebroker.model.GetLastServiceOperationResponse;
+import org.springframework.cloud.servicebroker.model.OperationState;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Compact binary encoding of ServiceInstance and ServiceBinding, used by the single-key storage mode. The first byte
+ * is the schema version, so the layout can change without breaking records already in redis. Version 2 bindings add
+ * the service instance id.
+ */
+abstract class EntityCodec {
+
+    static final byte VERSION_1 = 1;
+    static final byte VERSION_2 = 2;
+
+    private static final int KIBANA_WANTED = 1;
+    private static final int KIBANA_REQUESTED = 1 << 1;
+    private static final int ACCEPTS_INCOMPLETE = 1 << 2;
+    private static final int HAS_LAST_OPERATION = 1 << 3;
+    private static final int DELETE_OPERATION = 1 << 4;
+
+    private static final TypeReference<Map<String, Object>> OBJECT_MAP = new TypeReference<Map<String, Object>>() {
+    };
+
+    static byte[] encode(ServiceInstance instance) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(VERSION_1);
+
+            GetLastServiceOperationResponse lo = instance.getLastOperation();
+            int flags = (instance.isKibanaWanted() ? KIBANA_WANTED : 0)
+                    | (instance.isKibanaRequested() ? KIBANA_REQUESTED : 0)
+                    | (instance.isAccepts_incomplete() ? ACCEPTS_INCOMPLETE : 0)
+                    | (lo != null ? HAS_LAST_OPERATION : 0)
+                    | (lo != null && lo.isDeleteOperation() ? DELETE_OPERATION : 0);
+            out.writeByte(flags);
+
+            writeString(out, instance.getService_instance_id());
+            writeString(out, instance.getOrganization_guid());
+            writeString(out, instance.getPlan_id());
+            writeString(out, instance.getService_id());
+            writeString(out, instance.getSpace_guid());
+            writeMap(out, instance.getClusterParams());
+            writeMap(out, instance.getCredentials());
+            writeMap(out, instance.getKibanaParams());
+
+            if (lo != null) {
+                writeString(out, lo.getState() == null ? null : lo.getState().name());
+                writeString(out, lo.getDescription());
+            }
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static ServiceInstance decodeServiceInstance(byte[] b) {
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(b));
+            checkVersion(in.readByte());
+
+            int flags = in.readByte();
+            ServiceInstance instance = new ServiceInstance();
+            instance.setKibanaWanted((flags & KIBANA_WANTED) != 0);
+            instance.setKibanaRequested((flags & KIBANA_REQUESTED) != 0);
+            instance.setAccepts_incomplete((flags & ACCEPTS_INCOMPLETE) != 0);
+
+            instance.setService_instance_id(readString(in));
+            instance.setOrganization_guid(readString(in));
+            instance.setPlan_id(readString(in));
+            instance.setService_id(readString(in));
+            instance.setSpace_guid(readString(in));
+            readMap(in, instance.getClusterParams());
+            readMap(in, instance.getCredentials());
+            readMap(in, instance.getKibanaParams());
+
+            if ((flags & HAS_LAST_OPERATION) != 0) {
+                String state = readString(in);
+                instance.setLastOperation(new GetLastServiceOperationResponse()
+                        .withOperationState(state == null ? null : OperationState.valueOf(state))
+                        .withDescription(readString(in))
+                        .withDeleteOperation((flags & DELETE_OPERATION) != 0));
+            }
+            return instance;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    //binding parameters and credentials are arbitrary json, so they are carried as json
+    static byte[] encode(ServiceBinding binding) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(VERSION_2);
+
+            writeString(out, binding.getId());
+            writeString(out, binding.getService_id());
+            writeString(out, binding.getPlan_id());
+            writeString(out, binding.getApp_guid());
+            writeJson(out, binding.getBind_resource());
+            writeJson(out, binding.getParameters());
+            writeJson(out, binding.getCredentials());
+            writeString(out, binding.getService_instance_id());
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static ServiceBinding decodeServiceBinding(byte[] b) {
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(b));
+            byte version = in.readByte();
+            if (version != VERSION_1 && version != VERSION_2) {
+                throw new IOException("unsupported storage schema version: " + version);
+            }
+
+            ServiceBinding binding = new ServiceBinding();
+            binding.setId(readString(in));
+            binding.setService_id(readString(in));
+            binding.setPlan_id(readString(in));
+            binding.setApp_guid(readString(in));
+            binding.getBind_resource().putAll(readJson(in));
+            binding.getParameters().putAll(readJson(in));
+            binding.getCredentials().putAll(readJson(in));
+            if (version == VERSION_2) {
+                binding.setService_instance_id(readString(in));
+            }
+            return binding;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void checkVersion(byte version) throws IOException {
+        if (version != VERSION_1) {
+            throw new IOException("unsupported storage schema version: " + version);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        out.writeBoolean(s != null);
+        if (s != null) {
+            out.writeUTF(s);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeMap(DataOutputStream out, Map<String, String> m) throws IOException {
+        out.writeShort(m.size());
+        for (Map.Entry<String, String> e : m.entrySet()) {
+            writeString(out, e.getKey());
+            writeString(out, e.getValue());
+        }
+    }
+
+    private static void readMap(DataInputStream in, Map<String, String> m) throws IOException {
+        int size = in.readShort();
+        for (int i = 0; i < size; i++) {
+            m.put(readString(in), readString(in));
+        }
+    }
+
+    private static void writeJson(DataOutputStream out, Map<String, Object> m) throws IOException {
+        byte[] b = EceJson.MAPPER.writeValueAsBytes(m);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    private static Map<String, Object> readJson(DataInputStream in) throws IOException {
+        byte[] b = new byte[in.readInt()];
+        in.readFully(b);
+        Map<String, Object> m = EceJson.MAPPER.readValue(b, OBJECT_MAP);
+        return m == null ? new HashMap<>() : m;
+    }
+}
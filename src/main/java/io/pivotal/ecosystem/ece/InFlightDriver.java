@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2017-Present Pivotal Software, Inc. All rights reserved.
+ * <p>
+ * This program and the accompanying materials are made available under
+ * the terms of the under the Apache License, Version 2.0 (the "License”);
+ * you may not use this file except in compliance with the License.
+ * <p>
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * <p>
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.pivotal.ecosystem.ece;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+/**
+ * Advances in-flight operations in the background, so progress does not depend on which broker the cloud controller's
+ * last_operation polls are routed to. Each pass walks the in-flight set and advances every instance this broker holds
+ * or can take the lease on, taking no more than maxOwned so that work spreads across brokers.
+ */
+@Slf4j
+@Service
+class InFlightDriver {
+
+    private EceBroker eceBroker;
+    private OperationLeases operationLeases;
+    private int maxOwned;
+
+    public InFlightDriver(EceBroker eceBroker, OperationLeases operationLeases, @Value("${ece.lease.maxOwned:200}") int maxOwned) {
+        super();
+        this.eceBroker = eceBroker;
+        this.operationLeases = operationLeases;
+        this.maxOwned = maxOwned;
+    }
+
+    @Scheduled(fixedDelayString = "${ece.lease.driveInterval:10000}")
+    void drive() {
+        try {
+            for (String id : operationLeases.getInFlight()) {
+                if (!operationLeases.isOwned(id) && operationLeases.getOwnedCount() >= maxOwned) {
+                    continue;
+                }
+
+                //one instance that can't be advanced must not hold up the rest of the pass
+                try {
+                    eceBroker.advance(id);
+                } catch (Throwable t) {
+                    log.error("error advancing in-flight operation of service instance: " + id, t);
+                }
+            }
+        } catch (Throwable t) {
+            log.error("error driving in-flight operations.", t);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2017-Present Pivotal Software, Inc. All rights reserved.
+ * <p>
+ * This program and the accompanying materials are made available under
+ * the terms of the under the Apache License, Version 2.0 (the "License”);
+ * you may not use this file except in compliance with the License.
+ * <p>
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * <p>
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.pivotal.ecosystem.ece;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+/**
+ * Times every call made through an interface, tagged with the method name, plan and outcome. The plan is that of an
+ * instance passed to the call, or else the one the caller is working on (see EceMetrics.withPlan). Used for the ece
+ * feign client and the repositories, whose implementations are generated and can't be instrumented directly.
+ */
+abstract class MeteredProxy {
+
+    @SuppressWarnings("unchecked")
+    static <T> T wrap(Class<T> type, T target, EceMetrics metrics, String name, String... tags) {
+        InvocationHandler handler = (proxy, method, args) -> {
+            if (method.getDeclaringClass() == Object.class) {
+                return invoke(target, method, args);
+            }
+
+            long start = metrics.start();
+            try {
+                Object o = invoke(target, method, args);
+                metrics.record(name, start, null, withMethod(tags, method, args));
+                return o;
+            } catch (Throwable t) {
+                metrics.record(name, start, t, withMethod(tags, method, args));
+                throw t;
+            }
+        };
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, handler);
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static String[] withMethod(String[] tags, Method method, Object[] args) {
+        String[] s = new String[tags.length + 4];
+        System.arraycopy(tags, 0, s, 0, tags.length);
+        s[tags.length] = "method";
+        s[tags.length + 1] = method.getName();
+        s[tags.length + 2] = "plan";
+        s[tags.length + 3] = plan(args);
+        return s;
+    }
+
+    private static String plan(Object[] args) {
+        if (args != null) {
+            for (Object arg : args) {
+                if (arg instanceof ServiceInstance && ((ServiceInstance) arg).getPlan_id() != null) {
+                    return ((ServiceInstance) arg).getPlan_id();
+                }
+            }
+        }
+        return EceMetrics.currentPlan();
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2017-Present Pivotal Software, Inc. All rights reserved.
+ * <p>
+ * This program and the accompanying materials are made available under
+ * the terms of the under the Apache License, Version 2.0 (the "License”);
+ * you may not use this file except in compliance with the License.
+ * <p>
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * <p>
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.pivotal.ecosystem.ece;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.BeanFactoryAware;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+import org.springframework.core.PriorityOrdered;
+
+import java.util.Arrays;
+
+/**
+ * Instruments the ece client and the repositories, and binds the counters kept by the caching, coalescing and
+ * ownership components. Metrics are exposed by the actuator, with a prometheus scrape endpoint at /prometheus.
+ */
+@Configuration
+@ConditionalOnProperty(name = "ece.metrics.enabled", havingValue = "true", matchIfMissing = true)
+class MetricsConfig {
+
+    /**
+     * Wraps the raw ece client and repositories in timing proxies. Runs ahead of the near cache wrapping, so
+     * repository timings are for real redis calls and cache hits are not counted as such.
+     */
+    @Bean
+    public static BeanPostProcessor meteringPostProcessor() {
+        return new MeteringPostProcessor();
+    }
+
+    @Bean
+    public MeterBinder eceMeterBinder(EceBroker eceBroker, EceReader eceReader, ClusterStatusEngine clusterStatusEngine, ClusterStatusReader clusterStatusReader, OperationLeases operationLeases,
+                                      ServiceInstanceRepository serviceInstanceRepository, ServiceBindingRepository serviceBindingRepository,
+                                      ObjectProvider<NearCacheInvalidator> nearCacheInvalidator, ObjectProvider<EceHttpTransport> eceHttpTransport,
+                                      ObjectProvider<EceGuard> eceGuard, WarmPool warmPool, PreparedResponseFilter preparedResponseFilter,
+                                      CredentialPool credentialPool) {
+        return registry -> {
+            FunctionCounter.builder("ece.broker.writes.skipped", eceBroker, EceBroker::getSkippedWrites)
+                    .description("instance saves skipped because nothing changed").register(registry);
+            FunctionCounter.builder("ece.broker.creates.repeated", eceBroker, EceBroker::getRepeatedCreates)
+                    .description("creates answered as repeats of an identical request").register(registry);
+
+            FunctionCounter.builder("ece.reader.calls", eceReader, EceReader::getCalls)
+                    .description("cluster listing reads requested").register(registry);
+            FunctionCounter.builder("ece.reader.calls.saved", eceReader, EceReader::getCallsSaved)
+                    .description("cluster listing reads coalesced into another in flight").register(registry);
+
+            FunctionCounter.builder("ece.status.reads", clusterStatusReader, ClusterStatusReader::getReads)
+                    .description("direct cluster status reads made because the listing was stale").register(registry);
+            FunctionCounter.builder("ece.status.reads.saved", clusterStatusReader, ClusterStatusReader::getReadsSaved)
+                    .description("direct cluster status reads coalesced into another in flight").register(registry);
+            FunctionCounter.builder("ece.status.reads.hedged", clusterStatusReader, ClusterStatusReader::getHedged).register(registry);
+            FunctionCounter.builder("ece.status.reads.deadlineMissed", clusterStatusReader, ClusterStatusReader::getDeadlinesMissed).register(registry);
+            Gauge.builder("ece.status.snapshot.age", clusterStatusEngine, e -> System.currentTimeMillis() - e.getSnapshotTime())
+                    .baseUnit("milliseconds").register(registry);
+            Gauge.builder("ece.leases.owned", operationLeases, OperationLeases::getOwnedCount).register(registry);
+
+            for (String endpoint : Arrays.asList(PreparedResponseFilter.CATALOG, PreparedResponseFilter.BINDING)) {
+                for (String encoding : Arrays.asList(PreparedResponse.IDENTITY, PreparedResponse.GZIP)) {
+                    FunctionCounter.builder("ece.responses.bytes", preparedResponseFilter, f -> f.getBytes(endpoint, encoding))
+                            .baseUnit("bytes").tags("endpoint", endpoint, "encoding", encoding).register(registry);
+                }
+            }
+            FunctionCounter.builder("ece.responses.notModified", preparedResponseFilter, PreparedResponseFilter::getNotModified).register(registry);
+            FunctionCounter.builder("ece.responses.replayed", preparedResponseFilter, PreparedResponseFilter::getReplayed)
+                    .description("repeated binds answered with the first bind's response").register(registry);
+
+            bindPool(registry, warmPool);
+            FunctionCounter.builder("ece.bindings.credentials.hits", credentialPool, CredentialPool::getHits)
+                    .description("binds given a pre-minted user").register(registry);
+            FunctionCounter.builder("ece.bindings.credentials.misses", credentialPool, CredentialPool::getMisses)
+                    .description("binds that minted their user inline").register(registry);
+            FunctionCounter.builder("ece.bindings.credentials.minted", credentialPool, CredentialPool::getMinted).register(registry);
+            bindCache(registry, serviceInstanceRepository);
+            bindCache(registry, serviceBindingRepository);
+
+            NearCacheInvalidator invalidator = nearCacheInvalidator.getIfAvailable();
+            if (invalidator != null) {
+                FunctionCounter.builder("ece.cache.invalidations.published", invalidator, NearCacheInvalidator::getPublished).register(registry);
+                FunctionCounter.builder("ece.cache.invalidations.received", invalidator, NearCacheInvalidator::getReceived).register(registry);
+                Gauge.builder("ece.cache.invalidations.lag.avg", invalidator, NearCacheInvalidator::getAverageLag).baseUnit("milliseconds").register(registry);
+                Gauge.builder("ece.cache.invalidations.lag.max", invalidator, NearCacheInvalidator::getMaxLag).baseUnit("milliseconds").register(registry);
+            }
+
+            EceHttpTransport transport = eceHttpTransport.getIfAvailable();
+            if (transport != null) {
+                Gauge.builder("ece.http.connections.leased", transport, t -> t.getStats().getLeased()).register(registry);
+                Gauge.builder("ece.http.connections.pending", transport, t -> t.getStats().getPending()).register(registry);
+                Gauge.builder("ece.http.connections.available", transport, t -> t.getStats().getAvailable()).register(registry);
+                Gauge.builder("ece.http.connections.max", transport, t -> t.getStats().getMax()).register(registry);
+            }
+
+            EceGuard guard = eceGuard.getIfAvailable();
+            if (guard != null) {
+                Gauge.builder("ece.breaker.state", guard, g -> g.getState().ordinal())
+                        .description("0 closed, 1 half open, 2 open").register(registry);
+                Gauge.builder("ece.limit", guard, EceGuard::getLimit).register(registry);
+                Gauge.builder("ece.limit.inflight", guard, EceGuard::getInFlight).register(registry);
+                FunctionCounter.builder("ece.calls.rejected", guard, EceGuard::getRejected)
+                        .description("ece calls turned away by the breaker or the concurrency limit").register(registry);
+            }
+        };
+    }
+
+    private static void bindPool(MeterRegistry registry, WarmPool pool) {
+        if (pool.getPlans().isEmpty()) {
+            return;
+        }
+
+        FunctionCounter.builder("ece.pool.hits", pool, WarmPool::getHits).description("creates given a pooled cluster").register(registry);
+        FunctionCounter.builder("ece.pool.misses", pool, WarmPool::getMisses).description("pool plan creates that found no ready cluster").register(registry);
+        Gauge.builder("ece.pool.hit.rate", pool, WarmPool::getHitRate).register(registry);
+        FunctionCounter.builder("ece.pool.idle.time", pool, WarmPool::getIdleTime)
+                .description("millis claimed clusters sat ready before their claim").baseUnit("milliseconds").register(registry);
+
+        for (WarmPool.Plan plan : pool.getPlans().values()) {
+            Gauge.builder("ece.pool.target", plan, WarmPool.Plan::getTarget).tags("plan", plan.getId()).register(registry);
+            Gauge.builder("ece.pool.ready", plan, WarmPool.Plan::getReady).tags("plan", plan.getId()).register(registry);
+            Gauge.builder("ece.pool.pending", plan, WarmPool.Plan::getPending).tags("plan", plan.getId()).register(registry);
+            Gauge.builder("ece.pool.idle.memory", plan, WarmPool.Plan::getIdleMemory)
+                    .description("memory held by ready clusters nobody is using").baseUnit("megabytes").tags("plan", plan.getId()).register(registry);
+            Gauge.builder("ece.pool.idle.oldest", plan, WarmPool.Plan::getOldestIdle).baseUnit("milliseconds").tags("plan", plan.getId()).register(registry);
+        }
+    }
+
+    private static void bindCache(MeterRegistry registry, Object repository) {
+        if (!(repository instanceof CachingRepository)) {
+            return;
+        }
+
+        NearCache<?> cache = ((CachingRepository<?>) repository).getCache();
+        String name = cache.getName();
+        FunctionCounter.builder("ece.cache.hits", cache, NearCache::getHits).tags("cache", name).register(registry);
+        FunctionCounter.builder("ece.cache.misses", cache, NearCache::getMisses).tags("cache", name).register(registry);
+        FunctionCounter.builder("ece.cache.evictions", cache, NearCache::getEvictions).tags("cache", name).register(registry);
+        FunctionCounter.builder("ece.cache.invalidations", cache, NearCache::getInvalidations).tags("cache", name).register(registry);
+        Gauge.builder("ece.cache.hit.rate", cache, NearCache::getHitRate).tags("cache", name).register(registry);
+        Gauge.builder("ece.cache.size", cache, NearCache::size).tags("cache", name).register(registry);
+    }
+
+    private static class MeteringPostProcessor implements BeanPostProcessor, BeanFactoryAware, PriorityOrdered {
+
+        private BeanFactory beanFactory;
+
+        @Override
+        public void setBeanFactory(BeanFactory beanFactory) throws BeansException {
+            this.beanFactory = beanFactory;
+        }
+
+        @Override
+        public int getOrder() {
+            return Ordered.HIGHEST_PRECEDENCE;
+        }
+
+        @Override
+        public Object postProcessBeforeInitialization(Object bean, String beanName) throws BeansException {
+            return bean;
+        }
+
+        @Override
+        public Object postProcessAfterInitialization(Object bean, String beanName) throws BeansException {
+            if (bean instanceof EceRepo) {
+                return MeteredProxy.wrap(EceRepo.class, (EceRepo) bean, metrics(), EceMetrics.ECE_CALLS);
+            }
+            if (bean instanceof ServiceInstanceRepository) {
+                return MeteredProxy.wrap(ServiceInstanceRepository.class, (ServiceInstanceRepository) bean, metrics(),
+                        EceMetrics.REPOSITORY_CALLS, "repository", "instances");
+            }
+            if (bean instanceof ServiceBindingRepository) {
+                return MeteredProxy.wrap(ServiceBindingRepository.class, (ServiceBindingRepository) bean, metrics(),
+                        EceMetrics.REPOSITORY_CALLS, "repository", "bindings");
+            }
+            if (bean instanceof ClusterNameRepository) {
+                return MeteredProxy.wrap(ClusterNameRepository.class, (ClusterNameRepository) bean, metrics(),
+                        EceMetrics.REPOSITORY_CALLS, "repository", "clusterNames");
+            }
+            if (bean instanceof BulkBatchRepository) {
+                return MeteredProxy.wrap(BulkBatchRepository.class, (BulkBatchRepository) bean, metrics(),
+                        EceMetrics.REPOSITORY_CALLS, "repository", "batches");
+            }
+            return bean;
+        }
+
+        private EceMetrics metrics() {
+            return beanFactory.getBean(EceMetrics.class);
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2017-Present Pivotal Software, Inc. All rights reserved.
+ * <p>
+ * This program and the accompanying materials are made available under
+ * the terms of the under the Apache License, Version 2.0 (the "License”);
+ * you may not use this file except in compliance with the License.
+ * <p>
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * <p>
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.pivotal.ecosystem.ece;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Bounded in-process read-through cache. Entries are held encoded, so every hit hands out a private copy that callers
+ * are free to mutate. Entries are evicted least recently used first once maxSize is reached, and expire after ttl
+ * millis regardless, which bounds how stale an entry can get if an invalidation message is lost.
+ */
+class NearCache<T> {
+
+    private final String name;
+    private final int maxSize;
+    private final long ttl;
+    private final Function<T, byte[]> encoder;
+    private final Function<byte[], T> decoder;
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    //bumped on every invalidation, a load that overlaps one is not cached as it may have read the old value
+    private long generation;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    NearCache(String name, int maxSize, long ttl, Function<T, byte[]> encoder, Function<byte[], T> decoder) {
+        super();
+        this.name = name;
+        this.maxSize = maxSize;
+        this.ttl = ttl;
+        this.encoder = encoder;
+        this.decoder = decoder;
+    }
+
+    T get(String id, Function<String, T> loader) {
+        long gen;
+        synchronized (this) {
+            Entry e = entries.get(id);
+            if (e != null && !isExpired(e)) {
+                hits.incrementAndGet();
+                return decoder.apply(e.value);
+            }
+            if (e != null) {
+                entries.remove(id);
+            }
+            gen = generation;
+        }
+
+        misses.incrementAndGet();
+        T t = loader.apply(id);
+        if (t != null) {
+            byte[] b = encoder.apply(t);
+            synchronized (this) {
+                if (gen == generation) {
+                    store(id, b);
+                }
+            }
+        }
+        return t;
+    }
+
+    void put(String id, T t) {
+        byte[] b = encoder.apply(t);
+        synchronized (this) {
+            store(id, b);
+        }
+    }
+
+    synchronized void invalidate(String id) {
+        generation++;
+        if (entries.remove(id) != null) {
+            invalidations.incrementAndGet();
+        }
+    }
+
+    synchronized void clear() {
+        generation++;
+        invalidations.addAndGet(entries.size());
+        entries.clear();
+    }
+
+    private void store(String id, byte[] b) {
+        entries.put(id, new Entry(b, System.currentTimeMillis()));
+        if (entries.size() > maxSize) {
+            Iterator<Map.Entry<String, Entry>> i = entries.entrySet().iterator();
+            while (entries.size() > maxSize && i.hasNext()) {
+                i.next();
+                i.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    private boolean isExpired(Entry e) {
+        return System.currentTimeMillis() - e.time > ttl;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    long getHits() {
+        return hits.get();
+    }
+
+    long getMisses() {
+        return misses.get();
+    }
+
+    double getHitRate() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    long getEvictions() {
+        return evictions.get();
+    }
+
+    long getInvalidations() {
+        return invalidations.get();
+    }
+
+    private static class Entry {
+        private final byte[] value;
+        private final long time;
+
+        private Entry(byte[] value, long time) {
+            this.value = value;
+            this.time = time;
+        }
+    }
+}
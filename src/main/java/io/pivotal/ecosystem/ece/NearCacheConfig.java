@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2017-Present Pivotal Software, Inc. All rights reserved.
+ * <p>
+ * This program and the accompanying materials are made available under
+ * the terms of the under the Apache License, Version 2.0 (the "License”);
+ * you may not use this file except in compliance with the License.
+ * <p>
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * <p>
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.pivotal.ecosystem.ece;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.BeanFactoryAware;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.EnvironmentAware;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+/**
+ * With ece.cache.enabled=true, the instance and binding repositories (hash or compact, whichever is in use) are wrapped
+ * in near caches. Writes are published on a redis pub/sub channel so that the other broker instances drop their copies.
+ * Pub/sub is used rather than keyspace notifications as those need notify-keyspace-events configured on the server,
+ * which managed redis services often do not allow.
+ */
+@Slf4j
+@Configuration
+@ConditionalOnProperty(name = "ece.cache.enabled", havingValue = "true")
+class NearCacheConfig {
+
+    @Bean
+    public NearCacheInvalidator nearCacheInvalidator(StringRedisTemplate stringRedisTemplate,
+                                                     @Value("${ece.cache.channel:ece-cache-invalidation}") String channel) {
+        return new NearCacheInvalidator(stringRedisTemplate, channel);
+    }
+
+    @Bean
+    public RedisMessageListenerContainer nearCacheListenerContainer(RedisConnectionFactory redisConnectionFactory, NearCacheInvalidator nearCacheInvalidator) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(redisConnectionFactory);
+        container.addMessageListener(nearCacheInvalidator, new ChannelTopic(nearCacheInvalidator.getChannel()));
+        return container;
+    }
+
+    @Bean
+    public static BeanPostProcessor nearCachePostProcessor() {
+        return new NearCachePostProcessor();
+    }
+
+    private static class NearCachePostProcessor implements BeanPostProcessor, BeanFactoryAware, EnvironmentAware {
+
+        private BeanFactory beanFactory;
+        private Environment environment;
+
+        @Override
+        public void setBeanFactory(BeanFactory beanFactory) throws BeansException {
+            this.beanFactory = beanFactory;
+        }
+
+        @Override
+        public void setEnvironment(Environment environment) {
+            this.environment = environment;
+        }
+
+        @Override
+        public Object postProcessBeforeInitialization(Object bean, String beanName) throws BeansException {
+            return bean;
+        }
+
+        @Override
+        public Object postProcessAfterInitialization(Object bean, String beanName) throws BeansException {
+            if (bean instanceof CachingRepository) {
+                return bean;
+            }
+
+            if (bean instanceof ServiceInstanceRepository) {
+                log.info("near caching service instance repository: " + beanName);
+                return new CachingServiceInstanceRepository((ServiceInstanceRepository) bean, maxSize(), ttl(), invalidator());
+            }
+
+            if (bean instanceof ServiceBindingRepository) {
+                log.info("near caching service binding repository: " + beanName);
+                return new CachingServiceBindingRepository((ServiceBindingRepository) bean, maxSize(), ttl(), invalidator());
+            }
+
+            return bean;
+        }
+
+        private int maxSize() {
+            return environment.getProperty("ece.cache.maxSize", Integer.class, 10000);
+        }
+
+        private long ttl() {
+            return environment.getProperty("ece.cache.ttl", Long.class, 30000L);
+        }
+
+        private NearCacheInvalidator invalidator() {
+            return beanFactory.getBean(NearCacheInvalidator.class);
+        }
+    }
+}
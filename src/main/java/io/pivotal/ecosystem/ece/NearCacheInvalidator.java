@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2017-Present Pivotal Software, Inc. All rights reserved.
+ * <p>
+ * This program and the accompanying materials are made available under
+ * the terms of the under the Apache License, Version 2.0 (the "License”);
+ * you may not use this file except in compliance with the License.
+ * <p>
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * <p>
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.pivotal.ecosystem.ece;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the near caches of all broker instances coherent. Each write publishes the written id on a redis channel, and
+ * every other broker drops that id from its own caches when the message arrives. Messages look like
+ * "nodeId|publishTimeMillis|cacheName|id", an id of * clears the whole cache.
+ */
+@Slf4j
+class NearCacheInvalidator implements MessageListener {
+
+    static final String ALL = "*";
+
+    private final StringRedisTemplate redisTemplate;
+    private final String channel;
+    private final String nodeId = UUID.randomUUID().toString();
+
+    private final List<NearCache<?>> caches = new CopyOnWriteArrayList<>();
+
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong totalLag = new AtomicLong();
+    private final AtomicLong maxLag = new AtomicLong();
+
+    NearCacheInvalidator(StringRedisTemplate redisTemplate, String channel) {
+        super();
+        this.redisTemplate = redisTemplate;
+        this.channel = channel;
+    }
+
+    void register(NearCache<?> cache) {
+        caches.add(cache);
+    }
+
+    void publish(String cacheName, String id) {
+        try {
+            redisTemplate.convertAndSend(channel, nodeId + "|" + System.currentTimeMillis() + "|" + cacheName + "|" + id);
+            published.incrementAndGet();
+        } catch (Throwable t) {
+            //the write itself went through, other brokers fall back on the cache ttl
+            log.error("error publishing cache invalidation for: " + cacheName + " " + id, t);
+        }
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String[] parts = new String(message.getBody(), StandardCharsets.UTF_8).split("\\|", 4);
+        if (parts.length != 4) {
+            log.warn("ignoring malformed cache invalidation: " + new String(message.getBody(), StandardCharsets.UTF_8));
+            return;
+        }
+
+        if (nodeId.equals(parts[0])) {
+            //our own write, the local cache was updated when it was made
+            return;
+        }
+
+        for (NearCache<?> cache : caches) {
+            if (cache.getName().equals(parts[2])) {
+                if (ALL.equals(parts[3])) {
+                    cache.clear();
+                } else {
+                    cache.invalidate(parts[3]);
+                }
+            }
+        }
+
+        //lag is measured against the publisher's clock, so it includes any skew between the two hosts
+        long lag = Math.max(0, System.currentTimeMillis() - Long.parseLong(parts[1]));
+        received.incrementAndGet();
+        totalLag.addAndGet(lag);
+        maxLag.accumulateAndGet(lag, Math::max);
+    }
+
+    String getChannel() {
+        return channel;
+    }
+
+    long getPublished() {
+        return published.get();
+    }
+
+    long getReceived() {
+        return received.get();
+    }
+
+    double getAverageLag() {
+        long r = received.get();
+        return r == 0 ? 0 : (double) totalLag.get() / r;
+    }
+
+    long getMaxLag() {
+        return maxLag.get();
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2017-Present Pivotal Software, Inc. All rights reserved.
+ * <p>
+ * This program and the accompanying materials are made available under
+ * the terms of the under the Apache License, Version 2.0 (the "License”);
+ * you may not use this file except in compliance with the License.
+ * <p>
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * <p>
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.pivotal.ecosystem.ece;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Service;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Ownership of in-flight operations across broker instances. Every IN_PROGRESS instance is listed in a redis set, and
+ * only the broker holding an instance's lease may advance it. A lease is a redis key holding the owner's node id with a
+ * ttl. The owner renews it each time it advances the instance and releases it when the operation finishes. If the owner
+ * dies the lease expires and another broker picks the instance up.
+ */
+@Slf4j
+@Service
+class OperationLeases {
+
+    static final String IN_FLIGHT_KEY = "ece:inflight";
+    static final String LEASE_PREFIX = "ece:lease:";
+    static final String LOCK_PREFIX = "ece:lock:";
+
+    //1: renewed our own lease, 2: took a free lease, 0: someone else holds it
+    private static final RedisScript<Long> ACQUIRE = new DefaultRedisScript<>(
+            "local v = redis.call('get', KEYS[1]) " +
+                    "if v == ARGV[1] then redis.call('pexpire', KEYS[1], ARGV[2]) return 1 end " +
+                    "if v then return 0 end " +
+                    "redis.call('set', KEYS[1], ARGV[1], 'PX', ARGV[2]) return 2", Long.class);
+
+    private static final RedisScript<Long> RELEASE = new DefaultRedisScript<>(
+            "if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('del', KEYS[1]) end return 0", Long.class);
+
+    private StringRedisTemplate redisTemplate;
+    private long ttl;
+
+    private final String nodeId = UUID.randomUUID().toString();
+    private final Set<String> owned = ConcurrentHashMap.newKeySet();
+
+    public OperationLeases(StringRedisTemplate redisTemplate, @Value("${ece.lease.ttl:30000}") long ttl) {
+        super();
+        this.redisTemplate = redisTemplate;
+        this.ttl = ttl;
+    }
+
+    /**
+     * @return true if this broker now holds the lease on the instance, either renewed or newly taken.
+     */
+    boolean acquire(String instanceId) {
+        Long result = redisTemplate.execute(ACQUIRE, Collections.singletonList(LEASE_PREFIX + instanceId), nodeId, String.valueOf(ttl));
+        if (result != null && result > 0) {
+            if (result == 2) {
+                log.info("took lease on service instance: " + instanceId);
+            }
+            owned.add(instanceId);
+            return true;
+        }
+        owned.remove(instanceId);
+        return false;
+    }
+
+    void release(String instanceId) {
+        owned.remove(instanceId);
+        redisTemplate.execute(RELEASE, Collections.singletonList(LEASE_PREFIX + instanceId), nodeId);
+    }
+
+    /**
+     * A lease on a background job rather than an instance: same expiry and renewal, but kept out of the owned count.
+     *
+     * @return true if this broker now holds the lock.
+     */
+    boolean tryLock(String name) {
+        Long result = redisTemplate.execute(ACQUIRE, Collections.singletonList(LOCK_PREFIX + name), nodeId, String.valueOf(ttl));
+        return result != null && result > 0;
+    }
+
+    void unlock(String name) {
+        redisTemplate.execute(RELEASE, Collections.singletonList(LOCK_PREFIX + name), nodeId);
+    }
+
+    void setInFlight(String instanceId, boolean inFlight) {
+        if (inFlight) {
+            redisTemplate.opsForSet().add(IN_FLIGHT_KEY, instanceId);
+        } else {
+            redisTemplate.opsForSet().remove(IN_FLIGHT_KEY, instanceId);
+        }
+    }
+
+    Set<String> getInFlight() {
+        return redisTemplate.opsForSet().members(IN_FLIGHT_KEY);
+    }
+
+    boolean isOwned(String instanceId) {
+        return owned.contains(instanceId);
+    }
+
+    int getOwnedCount() {
+        return owned.size();
+    }
+
+    String getNodeId() {
+        return nodeId;
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2017-Present Pivotal Software, Inc. All rights reserved.
+ * <p>
+ * This program and the accompanying materials are made available under
+ * the terms of the under the Apache License, Version 2.0 (the "License”);
+ * you may not use this file except in compliance with the License.
+ * <p>
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * <p>
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.pivotal.ecosystem.ece;
+
+import lombok.Data;
+
+/**
+ * A cluster created ahead of demand for the warm pool, with what a claiming instance needs from its create responses.
+ */
+@Data
+class PoolCluster {
+    private String clusterId;
+    private String clusterName;
+    private String username;
+    private String password;
+    private String kibanaClusterId;
+
+    //millis: when the create was sent, and when the cluster (and kibana, if wanted) was seen running
+    private long createdAt;
+    private long readyAt;
+
+    static PoolCluster of(ServiceInstance instance) {
+        PoolCluster c = new PoolCluster();
+        c.setClusterId(instance.getClusterId());
+        c.setClusterName(instance.getClusterName());
+        c.setUsername(instance.getCredentials().get(ClusterConfig.credentialKeys.username.name()));
+        c.setPassword(instance.getCredentials().get(ClusterConfig.credentialKeys.password.name()));
+        c.setKibanaClusterId(instance.getKibanaParams().get(KibanaConfig.kibanaApiKeys.kibana_cluster_id.name()));
+        c.setCreatedAt(System.currentTimeMillis());
+        return c;
+    }
+
+    /**
+     * Gives the instance this cluster's id, credentials and kibana, as if it had made the create calls itself.
+     */
+    void attachTo(ServiceInstance instance, EceConfig eceConfig) {
+        CreateClusterResponse.Credentials credentials = new CreateClusterResponse.Credentials();
+        credentials.setUsername(username);
+        credentials.setPassword(password);
+
+        CreateClusterResponse cluster = new CreateClusterResponse();
+        cluster.setElasticsearch_cluster_id(clusterId);
+        cluster.setCredentials(credentials);
+        instance.processCreateClusterResponse(cluster, eceConfig);
+
+        if (kibanaClusterId != null) {
+            CreateKibanaResponse kibana = new CreateKibanaResponse();
+            kibana.setKibana_cluster_id(kibanaClusterId);
+            kibana.setElasticsearch_cluster_id(clusterId);
+            instance.processCreateKibanaResponse(kibana, eceConfig);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2017-Present Pivotal Software, Inc. All rights reserved.
+ * <p>
+ * This program and the accompanying materials are made available under
+ * the terms of the under the Apache License, Version 2.0 (the "License”);
+ * you may not use this file except in compliance with the License.
+ * <p>
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * <p>
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.pivotal.ecosystem.ece;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Redis side of the warm pool, shared by all brokers. Per plan, clusters that are still starting are held in a hash
+ * keyed by cluster id, and ready clusters in a list. Claims pop the head of the list, so a ready cluster goes to
+ * exactly one instance however many brokers are claiming.
+ */
+@Slf4j
+@Service
+class PoolStore {
+
+    static final String READY_PREFIX = "ece:pool:ready:";
+    static final String PENDING_PREFIX = "ece:pool:pending:";
+
+    //moves a cluster from pending to ready, unless another broker already has
+    private static final RedisScript<Long> PROMOTE = new DefaultRedisScript<>(
+            "if redis.call('hdel', KEYS[1], ARGV[1]) == 1 then return redis.call('rpush', KEYS[2], ARGV[2]) end return 0", Long.class);
+
+    private StringRedisTemplate redisTemplate;
+
+    public PoolStore(StringRedisTemplate redisTemplate) {
+        super();
+        this.redisTemplate = redisTemplate;
+    }
+
+    /**
+     * @return the longest waiting ready cluster for the plan, now removed from the pool, or null if there are none.
+     */
+    PoolCluster claim(String planId) {
+        return decode(redisTemplate.opsForList().leftPop(READY_PREFIX + planId));
+    }
+
+    /**
+     * Puts back a claimed cluster that could not be handed out, at the head so it is the next one claimed.
+     */
+    void putBack(String planId, PoolCluster cluster) {
+        redisTemplate.opsForList().leftPush(READY_PREFIX + planId, encode(cluster));
+    }
+
+    List<PoolCluster> getReady(String planId) {
+        List<PoolCluster> ready = new ArrayList<>();
+        for (String s : redisTemplate.opsForList().range(READY_PREFIX + planId, 0, -1)) {
+            PoolCluster c = decode(s);
+            if (c != null) {
+                ready.add(c);
+            }
+        }
+        return ready;
+    }
+
+    void addPending(String planId, PoolCluster cluster) {
+        redisTemplate.opsForHash().put(PENDING_PREFIX + planId, cluster.getClusterId(), encode(cluster));
+    }
+
+    void removePending(String planId, String clusterId) {
+        redisTemplate.opsForHash().delete(PENDING_PREFIX + planId, clusterId);
+    }
+
+    Map<String, PoolCluster> getPending(String planId) {
+        Map<String, PoolCluster> pending = new LinkedHashMap<>();
+        for (Map.Entry<Object, Object> e : redisTemplate.opsForHash().entries(PENDING_PREFIX + planId).entrySet()) {
+            PoolCluster c = decode((String) e.getValue());
+            if (c != null) {
+                pending.put((String) e.getKey(), c);
+            }
+        }
+        return pending;
+    }
+
+    boolean promote(String planId, PoolCluster cluster) {
+        Long result = redisTemplate.execute(PROMOTE, Arrays.asList(PENDING_PREFIX + planId, READY_PREFIX + planId), cluster.getClusterId(), encode(cluster));
+        return result != null && result > 0;
+    }
+
+    private static String encode(PoolCluster cluster) {
+        try {
+            return EceJson.MAPPER.writeValueAsString(cluster);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("unable to encode pool cluster: " + cluster.getClusterId(), e);
+        }
+    }
+
+    private static PoolCluster decode(String s) {
+        if (s == null) {
+            return null;
+        }
+        try {
+            return EceJson.MAPPER.readValue(s, PoolCluster.class);
+        } catch (IOException e) {
+            log.error("unreadable pool entry: " + s, e);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2017-Present Pivotal Software, Inc. All rights reserved.
+ * <p>
+ * This program and the accompanying materials are made available under
+ * the terms of the under the Apache License, Version 2.0 (the "License”);
+ * you may not use this file except in compliance with the License.
+ * <p>
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * <p>
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.pivotal.ecosystem.ece;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A json response body serialized once and kept as bytes, with a gzip variant when compressing is worth it and a strong
+ * ETag. Writing it is a header check and a buffer copy: a matching If-None-Match gets a 304, a client that accepts gzip
+ * gets the compressed bytes.
+ */
+class PreparedResponse {
+
+    static final String GZIP = "gzip";
+    static final String IDENTITY = "identity";
+    static final String NOT_MODIFIED = "not_modified";
+
+    private final int status;
+    private final byte[] body;
+    private final byte[] gzipped;
+    private final String etag;
+
+    PreparedResponse(int status, byte[] body, int gzipMinSize) {
+        super();
+        this.status = status;
+        this.body = body;
+        this.etag = etag(body);
+
+        byte[] g = body.length >= gzipMinSize ? gzip(body) : null;
+        this.gzipped = g != null && g.length < body.length ? g : null;
+    }
+
+    /**
+     * @return the encoding written: gzip, identity, or not_modified for a 304
+     */
+    String write(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        response.setHeader(HttpHeaders.ETAG, etag);
+        if (gzipped != null) {
+            response.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        }
+
+        if (matches(request.getHeader(HttpHeaders.IF_NONE_MATCH))) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return NOT_MODIFIED;
+        }
+
+        byte[] b = body;
+        String encoding = IDENTITY;
+        if (gzipped != null && acceptsGzip(request.getHeader(HttpHeaders.ACCEPT_ENCODING))) {
+            b = gzipped;
+            encoding = GZIP;
+            response.setHeader(HttpHeaders.CONTENT_ENCODING, GZIP);
+        }
+
+        response.setStatus(status);
+        response.setContentType(MediaType.APPLICATION_JSON_UTF8_VALUE);
+        response.setContentLength(b.length);
+        response.getOutputStream().write(b);
+        return encoding;
+    }
+
+    /**
+     * @return bytes written for the encoding. bodies without a gzip variant are sent as identity.
+     */
+    int size(String encoding) {
+        if (GZIP.equals(encoding) && gzipped != null) {
+            return gzipped.length;
+        }
+        return NOT_MODIFIED.equals(encoding) ? 0 : body.length;
+    }
+
+    String getEtag() {
+        return etag;
+    }
+
+    byte[] getBody() {
+        return body;
+    }
+
+    private boolean matches(String ifNoneMatch) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String tag : ifNoneMatch.split(",")) {
+            String t = tag.trim();
+            if ("*".equals(t) || etag.equals(t)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.trim().split(";");
+            if (GZIP.equalsIgnoreCase(parts[0].trim())) {
+                //gzip;q=0 means not acceptable
+                return parts.length < 2 || !parts[1].trim().replace(" ", "").matches("q=0(\\.0*)?");
+            }
+        }
+        return false;
+    }
+
+    private static String etag(byte[] body) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(body);
+            return "\"" + Base64.getUrlEncoder().withoutPadding().encodeToString(digest) + "\"";
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] gzip(byte[] body) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(body.length / 2);
+        try (GZIPOutputStream gz = new GZIPOutputStream(out)) {
+            gz.write(body);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,348 @@
+/*
+ * Copyright (C) 2017-Present Pivotal Software, Inc. All rights reserved.
+ * <p>
+ * This program and the accompanying materials are made available under
+ * the terms of the under the Apache License, Version 2.0 (the "License”);
+ * you may not use this file except in compliance with the License.
+ * <p>
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * <p>
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.pivotal.ecosystem.ece;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.servicebroker.model.BrokerApiVersion;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StreamUtils;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.ContentCachingResponseWrapper;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Answers GET /v2/catalog, and repeats of a bind request, from bytes serialized once instead of running them through
+ * the controllers and jackson again. The catalog is prepared when first asked for and again after a reload. A bind
+ * response is remembered after the first successful bind, and replayed for a byte-identical request to the same
+ * instance and binding id for as long as the stored binding still has the credentials it was made with. Anything else, including
+ * requests with the wrong broker api version, goes through to the controllers as before.
+ * <p>
+ * Response times are timed per endpoint and source (prepared, replayed or handler), and response bytes are counted
+ * per endpoint and encoding, with ece.responses.prepared=false giving the before numbers.
+ */
+@Slf4j
+@Component
+class PreparedResponseFilter extends OncePerRequestFilter {
+
+    static final String CATALOG = "catalog";
+    static final String BINDING = "binding";
+
+    static final String PREPARED = "prepared";
+    static final String REPLAYED = "replayed";
+    static final String HANDLER = "handler";
+
+    private static final Pattern CATALOG_PATH = Pattern.compile(".*/v2/catalog/?$");
+    private static final Pattern BINDING_PATH = Pattern.compile(".*/v2/service_instances/([^/]+)/service_bindings/([^/]+)/?$");
+
+    private CatalogService catalogService;
+    private ServiceBindingRepository serviceBindingRepository;
+    private ObjectMapper objectMapper;
+    private EceMetrics eceMetrics;
+    private ObjectProvider<BrokerApiVersion> brokerApiVersion;
+    private boolean prepared;
+    private int gzipMinSize;
+    private int maxReplays;
+
+    private volatile PreparedCatalog catalog;
+
+    private final LinkedHashMap<String, Replay> replays = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final Map<String, AtomicLong> bytes = new LinkedHashMap<>();
+    private final AtomicLong notModified = new AtomicLong();
+    private final AtomicLong replayed = new AtomicLong();
+
+    public PreparedResponseFilter(CatalogService catalogService, ServiceBindingRepository serviceBindingRepository, ObjectMapper objectMapper,
+                                  EceMetrics eceMetrics, ObjectProvider<BrokerApiVersion> brokerApiVersion,
+                                  @Value("${ece.responses.prepared:true}") boolean prepared,
+                                  @Value("${ece.responses.gzipMinSize:512}") int gzipMinSize,
+                                  @Value("${ece.responses.maxReplays:10000}") int maxReplays) {
+        super();
+        this.catalogService = catalogService;
+        this.serviceBindingRepository = serviceBindingRepository;
+        this.objectMapper = objectMapper;
+        this.eceMetrics = eceMetrics;
+        this.brokerApiVersion = brokerApiVersion;
+        this.prepared = prepared;
+        this.gzipMinSize = gzipMinSize;
+        this.maxReplays = maxReplays;
+
+        for (String endpoint : Arrays.asList(CATALOG, BINDING)) {
+            for (String encoding : Arrays.asList(PreparedResponse.IDENTITY, PreparedResponse.GZIP)) {
+                bytes.put(endpoint + "|" + encoding, new AtomicLong());
+            }
+        }
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain) throws ServletException, IOException {
+        String path = request.getRequestURI();
+        String method = request.getMethod();
+
+        if ("GET".equals(method) && CATALOG_PATH.matcher(path).matches()) {
+            if (prepared && isApiVersionAccepted(request)) {
+                long start = eceMetrics.start();
+                PreparedResponse catalogResponse = catalogResponse();
+                count(CATALOG, catalogResponse, catalogResponse.write(request, response));
+                eceMetrics.record(EceMetrics.RESPONSES, start, null, "endpoint", CATALOG, "source", PREPARED);
+            } else {
+                handle(CATALOG, request, response, chain);
+            }
+            return;
+        }
+
+        Matcher m = BINDING_PATH.matcher(path);
+        if (!m.matches()) {
+            chain.doFilter(request, response);
+            return;
+        }
+
+        String instanceId = m.group(1);
+        String bindingId = m.group(2);
+        if ("PUT".equals(method) && prepared && isApiVersionAccepted(request)) {
+            bind(instanceId, bindingId, request, response, chain);
+        } else if ("PUT".equals(method)) {
+            handle(BINDING, request, response, chain);
+        } else {
+            if ("DELETE".equals(method)) {
+                forget(instanceId + "/" + bindingId);
+            }
+            chain.doFilter(request, response);
+        }
+    }
+
+    //the same check the broker's api version interceptor makes, requests that fail it are left for it to reject
+    private boolean isApiVersionAccepted(HttpServletRequest request) {
+        BrokerApiVersion version = brokerApiVersion.getIfAvailable();
+        if (version == null || BrokerApiVersion.API_VERSION_ANY.equals(version.getApiVersion())) {
+            return true;
+        }
+        return version.getApiVersion().equals(request.getHeader(version.getBrokerApiVersionHeader()));
+    }
+
+    PreparedResponse catalogResponse() throws IOException {
+        CatalogRegistry registry = catalogService.getRegistry();
+        PreparedCatalog c = catalog;
+        if (c == null || c.registry != registry) {
+            long start = eceMetrics.start();
+            c = new PreparedCatalog(registry, new PreparedResponse(HttpServletResponse.SC_OK, objectMapper.writeValueAsBytes(registry.getCatalog()), gzipMinSize));
+            eceMetrics.record(EceMetrics.SERIALIZATION, start, null, "endpoint", CATALOG);
+            catalog = c;
+            log.info("prepared catalog response, bytes: " + c.response.size(PreparedResponse.IDENTITY) + " etag: " + c.response.getEtag());
+        }
+        return c.response;
+    }
+
+    private void bind(String instanceId, String bindingId, HttpServletRequest request, HttpServletResponse response, FilterChain chain) throws ServletException, IOException {
+        long start = eceMetrics.start();
+        byte[] requestBody = StreamUtils.copyToByteArray(request.getInputStream());
+        String key = instanceId + "/" + bindingId;
+
+        Replay replay = replay(key);
+        if (replay != null && Arrays.equals(replay.request, requestBody) && isCurrent(bindingId, replay)) {
+            log.info("replaying bind response for binding: " + bindingId);
+            replayed.incrementAndGet();
+            count(BINDING, replay.response, replay.response.write(request, response));
+            eceMetrics.record(EceMetrics.RESPONSES, start, null, "endpoint", BINDING, "source", REPLAYED);
+            return;
+        }
+
+        ContentCachingResponseWrapper captured = new ContentCachingResponseWrapper(response);
+        chain.doFilter(new BodyRequest(request, requestBody), captured);
+
+        byte[] body = captured.getContentAsByteArray();
+        count(BINDING, PreparedResponse.IDENTITY, body.length);
+        captured.copyBodyToResponse();
+        eceMetrics.record(EceMetrics.RESPONSES, start, null, "endpoint", BINDING, "source", HANDLER);
+
+        int status = captured.getStatusCode();
+        if (status == HttpServletResponse.SC_OK || status == HttpServletResponse.SC_CREATED) {
+            remember(key, bindingId, requestBody, body);
+        }
+    }
+
+    //a response is only worth replaying for the binding it was made for, check it's still the same one
+    private boolean isCurrent(String bindingId, Replay replay) {
+        try {
+            ServiceBinding binding = serviceBindingRepository.findOne(bindingId);
+            return binding != null && replay.credentials.equals(binding.getCredentials());
+        } catch (Throwable t) {
+            log.warn("could not check binding: " + bindingId + ", not replaying.", t);
+            return false;
+        }
+    }
+
+    private void remember(String key, String bindingId, byte[] requestBody, byte[] responseBody) {
+        try {
+            ServiceBinding binding = serviceBindingRepository.findOne(bindingId);
+            if (binding == null) {
+                return;
+            }
+
+            //repeats are answered 200, as the broker does for a bind that already exists
+            long start = eceMetrics.start();
+            Replay replay = new Replay(requestBody, binding.getCredentials(), new PreparedResponse(HttpServletResponse.SC_OK, responseBody, gzipMinSize));
+            eceMetrics.record(EceMetrics.SERIALIZATION, start, null, "endpoint", BINDING);
+            synchronized (replays) {
+                replays.put(key, replay);
+                if (replays.size() > maxReplays) {
+                    replays.remove(replays.keySet().iterator().next());
+                }
+            }
+        } catch (Throwable t) {
+            log.warn("could not keep bind response for binding: " + bindingId, t);
+        }
+    }
+
+    private Replay replay(String key) {
+        synchronized (replays) {
+            return replays.get(key);
+        }
+    }
+
+    private void forget(String key) {
+        synchronized (replays) {
+            replays.remove(key);
+        }
+    }
+
+    private void handle(String endpoint, HttpServletRequest request, HttpServletResponse response, FilterChain chain) throws ServletException, IOException {
+        long start = eceMetrics.start();
+        ContentCachingResponseWrapper captured = new ContentCachingResponseWrapper(response);
+        chain.doFilter(request, captured);
+        count(endpoint, PreparedResponse.IDENTITY, captured.getContentSize());
+        captured.copyBodyToResponse();
+        eceMetrics.record(EceMetrics.RESPONSES, start, null, "endpoint", endpoint, "source", HANDLER);
+    }
+
+    private void count(String endpoint, PreparedResponse response, String encoding) {
+        if (PreparedResponse.NOT_MODIFIED.equals(encoding)) {
+            notModified.incrementAndGet();
+            return;
+        }
+        count(endpoint, encoding, response.size(encoding));
+    }
+
+    private void count(String endpoint, String encoding, int size) {
+        bytes.get(endpoint + "|" + encoding).addAndGet(size);
+    }
+
+    /**
+     * @return response body bytes written for the endpoint (catalog or binding) in the encoding (identity or gzip)
+     */
+    long getBytes(String endpoint, String encoding) {
+        return bytes.get(endpoint + "|" + encoding).get();
+    }
+
+    long getNotModified() {
+        return notModified.get();
+    }
+
+    long getReplayed() {
+        return replayed.get();
+    }
+
+    private static class PreparedCatalog {
+        private final CatalogRegistry registry;
+        private final PreparedResponse response;
+
+        private PreparedCatalog(CatalogRegistry registry, PreparedResponse response) {
+            this.registry = registry;
+            this.response = response;
+        }
+    }
+
+    private static class Replay {
+        private final byte[] request;
+        private final Map<String, Object> credentials;
+        private final PreparedResponse response;
+
+        private Replay(byte[] request, Map<String, Object> credentials, PreparedResponse response) {
+            this.request = request;
+            this.credentials = credentials;
+            this.response = response;
+        }
+    }
+
+    //hands the controllers a request body we have already read
+    private static class BodyRequest extends HttpServletRequestWrapper {
+        private final byte[] body;
+
+        private BodyRequest(HttpServletRequest request, byte[] body) {
+            super(request);
+            this.body = body;
+        }
+
+        @Override
+        public ServletInputStream getInputStream() {
+            ByteArrayInputStream in = new ByteArrayInputStream(body);
+            return new ServletInputStream() {
+                @Override
+                public boolean isFinished() {
+                    return in.available() == 0;
+                }
+
+                @Override
+                public boolean isReady() {
+                    return true;
+                }
+
+                @Override
+                public void setReadListener(ReadListener readListener) {
+                    throw new UnsupportedOperationException();
+                }
+
+                @Override
+                public int read() {
+                    return in.read();
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) {
+                    return in.read(b, off, len);
+                }
+            };
+        }
+
+        @Override
+        public BufferedReader getReader() {
+            String encoding = getCharacterEncoding();
+            return new BufferedReader(new InputStreamReader(getInputStream(), encoding != null ? Charset.forName(encoding) : StandardCharsets.UTF_8));
+        }
+    }
+}
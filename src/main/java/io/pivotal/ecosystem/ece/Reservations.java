@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2017-Present Pivotal Software, Inc. All rights reserved.
+ * <p>
+ * This program and the accompanying materials are made available under
+ * the terms of the under the Apache License, Version 2.0 (the "License”);
+ * you may not use this file except in compliance with the License.
+ * <p>
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * <p>
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.pivotal.ecosystem.ece;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.springframework.cloud.servicebroker.model.CreateServiceInstanceBindingRequest;
+import org.springframework.cloud.servicebroker.model.CreateServiceInstanceRequest;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Atomic claims on instance and binding ids, so that concurrent retries of the same create can't both get through to
+ * ece. A reservation is a redis key set only if absent, holding a hash of the request that made it. A later request for
+ * the same id is either a retry (same hash) or a conflicting create (different hash).
+ */
+@Service
+class Reservations {
+
+    enum Result {
+        //the id was free and is now ours
+        NEW,
+        //the id was already reserved by an identical request
+        SAME,
+        //the id was already reserved by a different request
+        CONFLICT
+    }
+
+    static final String INSTANCE_PREFIX = "ece:reservation:instance:";
+    static final String BINDING_PREFIX = "ece:reservation:binding:";
+
+    //returns an empty string if the reservation was made, otherwise the hash it was already made with
+    private static final RedisScript<String> RESERVE = new DefaultRedisScript<>(
+            "if redis.call('set', KEYS[1], ARGV[1], 'NX') then return '' end return redis.call('get', KEYS[1])", String.class);
+
+    private static final ObjectMapper MAPPER = new ObjectMapper()
+            .configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true);
+
+    private StringRedisTemplate redisTemplate;
+
+    public Reservations(StringRedisTemplate redisTemplate) {
+        super();
+        this.redisTemplate = redisTemplate;
+    }
+
+    Result reserveInstance(CreateServiceInstanceRequest request) {
+        return reserve(INSTANCE_PREFIX + request.getServiceInstanceId(), hash(request));
+    }
+
+    Result reserveBinding(CreateServiceInstanceBindingRequest request) {
+        return reserve(BINDING_PREFIX + request.getBindingId(), hash(request));
+    }
+
+    void releaseInstance(String instanceId) {
+        redisTemplate.delete(INSTANCE_PREFIX + instanceId);
+    }
+
+    void releaseBinding(String bindingId) {
+        redisTemplate.delete(BINDING_PREFIX + bindingId);
+    }
+
+    //a single multi-key DEL
+    void releaseBindings(Collection<String> bindingIds) {
+        List<String> keys = new ArrayList<>();
+        for (String id : bindingIds) {
+            keys.add(BINDING_PREFIX + id);
+        }
+        if (!keys.isEmpty()) {
+            redisTemplate.delete(keys);
+        }
+    }
+
+    private Result reserve(String key, String hash) {
+        String existing = redisTemplate.execute(RESERVE, Collections.singletonList(key), hash);
+        if (existing == null || existing.isEmpty()) {
+            return Result.NEW;
+        }
+        return existing.equals(hash) ? Result.SAME : Result.CONFLICT;
+    }
+
+    static String hash(CreateServiceInstanceRequest request) {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("service_id", request.getServiceDefinitionId());
+        m.put("plan_id", request.getPlanId());
+        m.put("organization_guid", request.getOrganizationGuid());
+        m.put("space_guid", request.getSpaceGuid());
+        m.put("parameters", request.getParameters());
+        return hash(m);
+    }
+
+    static String hash(CreateServiceInstanceBindingRequest request) {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("service_instance_id", request.getServiceInstanceId());
+        m.put("service_id", request.getServiceDefinitionId());
+        m.put("plan_id", request.getPlanId());
+        m.put("app_guid", request.getBoundAppGuid());
+        m.put("bind_resource", request.getBindResource());
+        m.put("parameters", request.getParameters());
+        return hash(m);
+    }
+
+    private static String hash(Map<String, Object> m) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(MAPPER.writeValueAsString(m).getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (JsonProcessingException | NoSuchAlgorithmException e) {
+            throw new IllegalStateException("error hashing request.", e);
+        }
+    }
+}
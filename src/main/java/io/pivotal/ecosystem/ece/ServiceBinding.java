@@ -46,6 +46,10 @@ public class ServiceBinding implements Serializable {
     @JsonSerialize
     private String app_guid;
 
+    //bindings made before this was recorded have none
+    @JsonSerialize
+    private String service_instance_id;
+
     @JsonSerialize
     private final Map<String, Object> bind_resource = new HashMap<>();
 
@@ -66,6 +70,7 @@ public class ServiceBinding implements Serializable {
         setService_id(request.getServiceDefinitionId());
         setPlan_id(request.getPlanId());
         setApp_guid(request.getBoundAppGuid());
+        setService_instance_id(request.getServiceInstanceId());
 
         if (request.getBindResource() != null) {
             getBind_resource().putAll(request.getBindResource());
@@ -21,5 +21,5 @@ import org.springframework.data.repository.CrudRepository;
 import org.springframework.stereotype.Repository;
 
 @Repository
-public interface ServiceBindingRepository extends CrudRepository<ServiceBinding, String> {
+public interface ServiceBindingRepository extends CrudRepository<ServiceBinding, String>, ServiceBindingRepositoryCustom {
 }
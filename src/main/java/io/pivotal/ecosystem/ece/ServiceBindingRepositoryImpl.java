@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2017-Present Pivotal Software, Inc. All rights reserved.
+ * <p>
+ * This program and the accompanying materials are made available under
+ * the terms of the under the Apache License, Version 2.0 (the "License”);
+ * you may not use this file except in compliance with the License.
+ * <p>
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * <p>
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.pivotal.ecosystem.ece;
+
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.util.Collection;
+
+/**
+ * Pipelined bulk deletes for the hash layout: each binding is a hash under "bindings:{id}" plus a member of the
+ * "bindings" keyspace set, so a batch of bindings is removed with one DEL and one SREM.
+ */
+class ServiceBindingRepositoryImpl implements ServiceBindingRepositoryCustom {
+
+    private static final String KEYSPACE = "bindings";
+
+    private StringRedisTemplate redisTemplate;
+
+    public ServiceBindingRepositoryImpl(StringRedisTemplate redisTemplate) {
+        super();
+        this.redisTemplate = redisTemplate;
+    }
+
+    @Override
+    public void deleteAllById(Collection<String> ids) {
+        if (ids.isEmpty()) {
+            return;
+        }
+
+        String[] keys = new String[ids.size()];
+        int i = 0;
+        for (String id : ids) {
+            keys[i++] = KEYSPACE + ":" + id;
+        }
+        String[] members = ids.toArray(new String[ids.size()]);
+
+        redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection c = (StringRedisConnection) connection;
+            c.del(keys);
+            c.sRem(KEYSPACE, members);
+            return null;
+        });
+    }
+}
@@ -18,23 +18,28 @@
 package io.pivotal.ecosystem.ece;
 
 import com.fasterxml.jackson.databind.annotation.JsonSerialize;
-import com.google.gson.GsonBuilder;
-import com.google.gson.JsonArray;
-import com.google.gson.JsonObject;
-import com.jayway.jsonpath.DocumentContext;
-import com.jayway.jsonpath.JsonPath;
+import lombok.AccessLevel;
 import lombok.Data;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.cloud.servicebroker.model.CreateServiceInstanceRequest;
 import org.springframework.cloud.servicebroker.model.GetLastServiceOperationResponse;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.Transient;
 import org.springframework.data.redis.core.RedisHash;
 
 import java.io.Serializable;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
 
 @Data
+@ToString(exclude = "savedState")
 @RedisHash("instances")
 @Slf4j
 public class ServiceInstance implements Serializable {
@@ -43,6 +48,44 @@ public class ServiceInstance implements Serializable {
 
     public static final long serialVersionUID = 1L;
 
+    private static final BodyTemplate<ServiceInstance> CREATE_CLUSTER_BODY = BodyTemplate.<ServiceInstance>builder()
+            .beginObject()
+            .requiredStringField(ClusterConfig.eceApiKeys.cluster_name.name(), si -> si.getClusterParams().get(ClusterConfig.eceApiKeys.cluster_name.name()))
+            .beginObject(ClusterConfig.eceApiKeys.plan.name())
+            .beginObject(ClusterConfig.eceApiKeys.elasticsearch.name())
+            .requiredStringField(ClusterConfig.eceApiKeys.version.name(), si -> si.getClusterParams().get(ClusterConfig.eceApiKeys.elasticsearch_version.name()))
+            .endObject()
+            .intField(ClusterConfig.eceApiKeys.zone_count.name(), si -> si.getClusterParams().get(ClusterConfig.eceApiKeys.zone_count.name()))
+            .beginArray(ClusterConfig.eceApiKeys.cluster_topology.name())
+            .beginObject()
+            .requiredStringField(ClusterConfig.eceApiKeys.topology_type.name(), si -> si.getClusterParams().get(ClusterConfig.eceApiKeys.topology_type.name()))
+            .intField(ClusterConfig.eceApiKeys.memory_per_node.name(), si -> si.getClusterParams().get(ClusterConfig.eceApiKeys.memory_per_node.name()))
+            .intField(ClusterConfig.eceApiKeys.node_count_per_zone.name(), si -> si.getClusterParams().get(ClusterConfig.eceApiKeys.node_count_per_zone.name()))
+            .endObject()
+            .endArray()
+            .endObject()
+            .endObject()
+            .build();
+
+    private static final BodyTemplate<ServiceInstance> CREATE_KIBANA_BODY = BodyTemplate.<ServiceInstance>builder()
+            .beginObject()
+            .requiredStringField(KibanaConfig.kibanaApiKeys.cluster_name.name(), si -> si.getKibanaParams().get(KibanaConfig.kibanaApiKeys.cluster_name.name()))
+            .stringField(KibanaConfig.kibanaApiKeys.elasticsearch_cluster_id.name(), ServiceInstance::getClusterId)
+            .beginObject(KibanaConfig.kibanaApiKeys.plan.name())
+            .intField(KibanaConfig.kibanaApiKeys.zone_count.name(), si -> si.getKibanaParams().get(KibanaConfig.kibanaApiKeys.zone_count.name()))
+            .beginArray(KibanaConfig.kibanaApiKeys.cluster_topology.name())
+            .beginObject()
+            .intField(KibanaConfig.kibanaApiKeys.memory_per_node.name(), si -> si.getKibanaParams().get(KibanaConfig.kibanaApiKeys.memory_per_node.name()))
+            .intField(KibanaConfig.kibanaApiKeys.node_count_per_zone.name(), si -> si.getKibanaParams().get(KibanaConfig.kibanaApiKeys.node_count_per_zone.name()))
+            .endObject()
+            .endArray()
+            .beginObject(KibanaConfig.KIBANA)
+            .literalField(KibanaConfig.kibanaApiKeys.version.name(), KibanaConfig.DEFAULT_KIBANA_VERSION)
+            .endObject()
+            .endObject()
+            .endObject()
+            .build();
+
     //was kibana requested by user?
     @JsonSerialize
     private boolean kibanaWanted = false;
@@ -82,12 +125,43 @@ public class ServiceInstance implements Serializable {
     @JsonSerialize
     private boolean accepts_incomplete = false;
 
+    //encoded state as of the last load or save, used to work out what has changed since
+    @Transient
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private transient byte[] savedState;
+
+    //persistent fields that can change after create, by property path
+    private static final Map<String, Function<ServiceInstance, Object>> TRACKED_FIELDS = new LinkedHashMap<>();
+
+    static {
+        TRACKED_FIELDS.put("kibanaWanted", ServiceInstance::isKibanaWanted);
+        TRACKED_FIELDS.put("kibanaRequested", ServiceInstance::isKibanaRequested);
+        TRACKED_FIELDS.put("organization_guid", ServiceInstance::getOrganization_guid);
+        TRACKED_FIELDS.put("plan_id", ServiceInstance::getPlan_id);
+        TRACKED_FIELDS.put("service_id", ServiceInstance::getService_id);
+        TRACKED_FIELDS.put("space_guid", ServiceInstance::getSpace_guid);
+        TRACKED_FIELDS.put("clusterParams", ServiceInstance::getClusterParams);
+        TRACKED_FIELDS.put("credentials", ServiceInstance::getCredentials);
+        TRACKED_FIELDS.put("kibanaParams", ServiceInstance::getKibanaParams);
+        TRACKED_FIELDS.put("lastOperation", ServiceInstance::getLastOperation);
+        TRACKED_FIELDS.put("accepts_incomplete", ServiceInstance::isAccepts_incomplete);
+    }
+
     public ServiceInstance() {
         super();
     }
 
     //TODO deal with stuff in response bodies
     public ServiceInstance(CreateServiceInstanceRequest request) {
+        this(request, CatalogPlan.defaults(request.getPlanId()));
+    }
+
+    /**
+     * @param plan the request's plan, which decides whether kibana is wanted and supplies the sizing for anything the
+     *             request parameters leave out
+     */
+    public ServiceInstance(CreateServiceInstanceRequest request, CatalogPlan plan) {
         this();
         setService_instance_id(request.getServiceInstanceId());
         setOrganization_guid(request.getOrganizationGuid());
@@ -95,21 +169,18 @@ public class ServiceInstance implements Serializable {
         setService_id(request.getServiceDefinitionId());
         setSpace_guid(request.getSpaceGuid());
 
-        processParams(request.getParameters());
+        processParams(request.getParameters(), plan);
     }
 
-    private void processParams(Map<String, Object> params) {
+    private void processParams(Map<String, Object> params, CatalogPlan plan) {
         if (params != null) {
             getClusterParams().putAll(EnumUtil.paramsToClusterConfigParams(params));
             getKibanaParams().putAll(EnumUtil.paramsToKibanaParams(params));
         }
 
-        processClusterParams();
-        processKibanaParams();
-
-        if (getPlan_id().toLowerCase().contains(KibanaConfig.KIBANA)) {
-            setKibanaWanted(true);
-        }
+        processClusterParams(plan);
+        processKibanaParams(plan);
+        setKibanaWanted(plan.isKibana());
     }
 
     public String getClusterId() {
@@ -120,91 +191,90 @@ public class ServiceInstance implements Serializable {
         return getClusterParams().get(ClusterConfig.eceApiKeys.cluster_name.name());
     }
 
-    private void processClusterParams() {
+    private void processClusterParams(CatalogPlan plan) {
         getClusterParams().putIfAbsent(ClusterConfig.eceApiKeys.cluster_name.name(), getService_instance_id());
-        getClusterParams().putIfAbsent(ClusterConfig.eceApiKeys.zone_count.name(), ClusterConfig.DEFAULT_ZONE_COUNT);
-        getClusterParams().putIfAbsent(ClusterConfig.eceApiKeys.elasticsearch_version.name(), ClusterConfig.DEFAULT_ELASTICSEARCH_VERSION);
-        getClusterParams().putIfAbsent(ClusterConfig.eceApiKeys.memory_per_node.name(), ClusterConfig.DEFAULT_MEMORY_PER_NODE);
-        getClusterParams().putIfAbsent(ClusterConfig.eceApiKeys.node_count_per_zone.name(), ClusterConfig.DEFAULT_NODE_COUNT_PER_ZONE);
-        getClusterParams().putIfAbsent(ClusterConfig.eceApiKeys.topology_type.name(), ClusterConfig.DEFAULT_TOPOLOGY_TYPE);
+        plan.getClusterDefaults().forEach(getClusterParams()::putIfAbsent);
     }
 
     String getCreateClusterBody() {
-        JsonObject cluster = new JsonObject();
-        JsonObject plan = new JsonObject();
-        JsonObject elasticSearch = new JsonObject();
-        JsonArray clusterTopology = new JsonArray();
-        JsonObject topology = new JsonObject();
-
-        cluster.addProperty(ClusterConfig.eceApiKeys.cluster_name.name(), getClusterParams().get(ClusterConfig.eceApiKeys.cluster_name.name()));
-        elasticSearch.addProperty(ClusterConfig.eceApiKeys.version.name(), getClusterParams().get(ClusterConfig.eceApiKeys.elasticsearch_version.name()));
-        plan.add(ClusterConfig.eceApiKeys.elasticsearch.name(), elasticSearch);
-        plan.addProperty(ClusterConfig.eceApiKeys.zone_count.name(), Integer.valueOf(getClusterParams().get(ClusterConfig.eceApiKeys.zone_count.name())));
-
-        topology.addProperty(ClusterConfig.eceApiKeys.topology_type.name(), getClusterParams().get(ClusterConfig.eceApiKeys.topology_type.name()));
-        topology.addProperty(ClusterConfig.eceApiKeys.memory_per_node.name(), Integer.valueOf(getClusterParams().get(ClusterConfig.eceApiKeys.memory_per_node.name())));
-        topology.addProperty(ClusterConfig.eceApiKeys.node_count_per_zone.name(), Integer.valueOf(getClusterParams().get(ClusterConfig.eceApiKeys.node_count_per_zone.name())));
-        clusterTopology.add(topology);
-        plan.add(ClusterConfig.eceApiKeys.cluster_topology.name(), clusterTopology);
-        cluster.add(ClusterConfig.eceApiKeys.plan.name(), plan);
-
-        return new GsonBuilder().create().toJson(cluster);
+        return CREATE_CLUSTER_BODY.render(this);
     }
 
-    void processCreateClusterResponse(Object createClusterResponse, EceConfig eceConfig) {
-        DocumentContext dc = JsonPath.parse(createClusterResponse);
-        getClusterParams().put(ClusterConfig.eceApiKeys.elasticsearch_cluster_id.name(), dc.read("$." + ClusterConfig.eceApiKeys.elasticsearch_cluster_id.name()));
+    void processCreateClusterResponse(CreateClusterResponse createClusterResponse, EceConfig eceConfig) {
+        String clusterId = createClusterResponse.getElasticsearch_cluster_id();
+        getClusterParams().put(ClusterConfig.eceApiKeys.elasticsearch_cluster_id.name(), clusterId);
 
-        getCredentials().put(ClusterConfig.credentialKeys.clusterId.name(), getClusterParams().get(ClusterConfig.eceApiKeys.elasticsearch_cluster_id.name()));
-        getCredentials().put(ClusterConfig.credentialKeys.username.name(), dc.read("$." + ClusterConfig.eceApiKeys.credentials.name() + "." + ClusterConfig.eceApiKeys.username.name()));
-        getCredentials().put(ClusterConfig.credentialKeys.password.name(), dc.read("$." + ClusterConfig.eceApiKeys.credentials.name() + "." + ClusterConfig.eceApiKeys.password.name()));
+        getCredentials().put(ClusterConfig.credentialKeys.clusterId.name(), clusterId);
+        getCredentials().put(ClusterConfig.credentialKeys.username.name(), createClusterResponse.getCredentials().getUsername());
+        getCredentials().put(ClusterConfig.credentialKeys.password.name(), createClusterResponse.getCredentials().getPassword());
 
         getCredentials().put(ClusterConfig.credentialKeys.host.name(), eceConfig.getElasticsearchDomain());
         getCredentials().put(ClusterConfig.credentialKeys.port.name(), eceConfig.getElasticsearchPort());
-        getCredentials().put(ClusterConfig.credentialKeys.uri.name(), "ece://" + getClusterParams().get(ClusterConfig.eceApiKeys.elasticsearch_cluster_id.name()) + "." + eceConfig.getElasticsearchDomain() + ":" + eceConfig.getElasticsearchPort());
-        getCredentials().put(ClusterConfig.credentialKeys.eceEndpoint.name(), "https://" + getClusterParams().get(ClusterConfig.eceApiKeys.elasticsearch_cluster_id.name()) + "." + eceConfig.getElasticsearchDomain() + ":" + eceConfig.getElasticsearchPort());
+        getCredentials().put(ClusterConfig.credentialKeys.uri.name(), "ece://" + clusterId + "." + eceConfig.getElasticsearchDomain() + ":" + eceConfig.getElasticsearchPort());
+        getCredentials().put(ClusterConfig.credentialKeys.eceEndpoint.name(), "https://" + clusterId + "." + eceConfig.getElasticsearchDomain() + ":" + eceConfig.getElasticsearchPort());
     }
 
-    private void processKibanaParams() {
+    private void processKibanaParams(CatalogPlan plan) {
         getKibanaParams().put(KibanaConfig.kibanaApiKeys.elasticsearch_cluster_id.name(), getClusterId());
 
         getKibanaParams().putIfAbsent(KibanaConfig.kibanaApiKeys.cluster_name.name(), getClusterName());
-        getKibanaParams().putIfAbsent(KibanaConfig.kibanaApiKeys.zone_count.name(), KibanaConfig.DEFAULT_ZONE_COUNT);
-        getKibanaParams().putIfAbsent(KibanaConfig.kibanaApiKeys.version.name(), KibanaConfig.DEFAULT_KIBANA_VERSION);
-        getKibanaParams().putIfAbsent(KibanaConfig.kibanaApiKeys.memory_per_node.name(), KibanaConfig.DEFAULT_MEMORY_PER_NODE);
-        getKibanaParams().putIfAbsent(KibanaConfig.kibanaApiKeys.node_count_per_zone.name(), KibanaConfig.DEFAULT_NODE_COUNT_PER_ZONE);
-        getKibanaParams().putIfAbsent(KibanaConfig.kibanaApiKeys.cluster_topology.name(), KibanaConfig.DEFAULT_TOPOLOGY_TYPE);
+        plan.getKibanaDefaults().forEach(getKibanaParams()::putIfAbsent);
     }
 
     String getCreateKibanaBody() {
-        JsonObject cluster = new JsonObject();
-        JsonObject plan = new JsonObject();
-        JsonObject kibana = new JsonObject();
-        JsonArray clusterTopology = new JsonArray();
-        JsonObject topology = new JsonObject();
-
-        cluster.addProperty(KibanaConfig.kibanaApiKeys.cluster_name.name(), getKibanaParams().get(KibanaConfig.kibanaApiKeys.cluster_name.name()));
-        cluster.addProperty(KibanaConfig.kibanaApiKeys.elasticsearch_cluster_id.name(), getClusterParams().get(ClusterConfig.eceApiKeys.elasticsearch_cluster_id.name()));
-        plan.addProperty(KibanaConfig.kibanaApiKeys.zone_count.name(), Integer.valueOf(getKibanaParams().get(KibanaConfig.kibanaApiKeys.zone_count.name())));
-
-        topology.addProperty(KibanaConfig.kibanaApiKeys.memory_per_node.name(), Integer.valueOf(getKibanaParams().get(KibanaConfig.kibanaApiKeys.memory_per_node.name())));
-        topology.addProperty(KibanaConfig.kibanaApiKeys.node_count_per_zone.name(), Integer.valueOf(getKibanaParams().get(KibanaConfig.kibanaApiKeys.node_count_per_zone.name())));
-        clusterTopology.add(topology);
-        plan.add(KibanaConfig.kibanaApiKeys.cluster_topology.name(), clusterTopology);
-        kibana.addProperty(KibanaConfig.kibanaApiKeys.version.name(), KibanaConfig.DEFAULT_KIBANA_VERSION);
-        plan.add(KibanaConfig.KIBANA, kibana);
-
-        cluster.add(KibanaConfig.kibanaApiKeys.plan.name(), plan);
-
-        return new GsonBuilder().create().toJson(cluster);
+        return CREATE_KIBANA_BODY.render(this);
     }
 
-    void processCreateKibanaResponse(Object createClusterResponse, EceConfig eceConfig) {
-        String kibanaClusterId = JsonPath.parse(createClusterResponse).read("$." + KibanaConfig.kibanaApiKeys.kibana_cluster_id.name());
+    void processCreateKibanaResponse(CreateKibanaResponse createKibanaResponse, EceConfig eceConfig) {
+        String kibanaClusterId = createKibanaResponse.getKibana_cluster_id();
         getKibanaParams().put(KibanaConfig.kibanaApiKeys.kibana_cluster_id.name(), kibanaClusterId);
         getCredentials().put(ClusterConfig.credentialKeys.kibanaClusterId.name(), kibanaClusterId);
         getCredentials().put(ClusterConfig.credentialKeys.kibanaEndpoint.name(), "https://" + kibanaClusterId +
                 "." + eceConfig.getElasticsearchDomain() + ":" + eceConfig.getElasticsearchPort());
         setKibanaRequested(true);
     }
-}
\ No newline at end of file
+
+    /**
+     * @return what an app bound with the binding sees: this instance's connection data, with the binding's own
+     * username and password in place of the cluster admin's. Bindings made before they had their own user carry a copy
+     * of the instance credentials, which overlays the same values.
+     */
+    Map<String, Object> credentialsFor(ServiceBinding binding) {
+        Map<String, Object> m = new HashMap<>(getCredentials());
+        m.remove(ClusterConfig.credentialKeys.username.name());
+        m.remove(ClusterConfig.credentialKeys.password.name());
+        m.putAll(binding.getCredentials());
+        return m;
+    }
+
+    /**
+     * Records the current state as persisted. Call after loading from or saving to the repository.
+     */
+    void markClean() {
+        savedState = EntityCodec.encode(this);
+    }
+
+    boolean isDirty() {
+        return savedState == null || !Arrays.equals(savedState, EntityCodec.encode(this));
+    }
+
+    /**
+     * @return property paths of the fields changed since the last markClean, or null if this instance has never been
+     * loaded or saved (so everything needs writing).
+     */
+    Map<String, Object> getChangedFields() {
+        if (savedState == null) {
+            return null;
+        }
+
+        ServiceInstance saved = EntityCodec.decodeServiceInstance(savedState);
+        Map<String, Object> changed = new LinkedHashMap<>();
+        for (Map.Entry<String, Function<ServiceInstance, Object>> e : TRACKED_FIELDS.entrySet()) {
+            Object current = e.getValue().apply(this);
+            if (!Objects.equals(current, e.getValue().apply(saved))) {
+                changed.put(e.getKey(), current);
+            }
+        }
+        return changed;
+    }
+}
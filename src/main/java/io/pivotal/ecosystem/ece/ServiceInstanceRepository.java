@@ -22,5 +22,12 @@ import org.springframework.data.repository.CrudRepository;
 import org.springframework.stereotype.Repository;
 
 @Repository
-public interface ServiceInstanceRepository extends CrudRepository<ServiceInstance, String> {
+public interface ServiceInstanceRepository extends CrudRepository<ServiceInstance, String>, ServiceInstanceRepositoryCustom {
+
+    /**
+     * @return the instance as stored, bypassing any near cache in front of the repository
+     */
+    default ServiceInstance latest(String id) {
+        return findOne(id);
+    }
 }
@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2017-Present Pivotal Software, Inc. All rights reserved.
+ * <p>
+ * This program and the accompanying materials are made available under
+ * the terms of the under the Apache License, Version 2.0 (the "License”);
+ * you may not use this file except in compliance with the License.
+ * <p>
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * <p>
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.pivotal.ecosystem.ece;
+
+import org.springframework.data.redis.core.PartialUpdate;
+import org.springframework.data.redis.core.RedisKeyValueTemplate;
+
+import java.util.Map;
+
+/**
+ * Partial updates for the hash layout: only the changed hash entries are written, rather than the whole instance.
+ */
+class ServiceInstanceRepositoryImpl implements ServiceInstanceRepositoryCustom {
+
+    private RedisKeyValueTemplate redisKeyValueTemplate;
+
+    public ServiceInstanceRepositoryImpl(RedisKeyValueTemplate redisKeyValueTemplate) {
+        super();
+        this.redisKeyValueTemplate = redisKeyValueTemplate;
+    }
+
+    @Override
+    public void update(ServiceInstance instance, Map<String, Object> fields) {
+        PartialUpdate<ServiceInstance> update = new PartialUpdate<>(instance.getService_instance_id(), ServiceInstance.class);
+        for (Map.Entry<String, Object> e : fields.entrySet()) {
+            update = e.getValue() == null ? update.del(e.getKey()) : update.set(e.getKey(), e.getValue());
+        }
+        redisKeyValueTemplate.update(update);
+    }
+}
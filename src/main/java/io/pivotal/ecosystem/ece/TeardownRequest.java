@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2017-Present Pivotal Software, Inc. All rights reserved.
+ * <p>
+ * This program and the accompanying materials are made available under
+ * the terms of the under the Apache License, Version 2.0 (the "License”);
+ * you may not use this file except in compliance with the License.
+ * <p>
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * <p>
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.pivotal.ecosystem.ece;
+
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import lombok.Data;
+
+/**
+ * Body of a teardown call: every instance in the org, or only those in the space if one is given.
+ */
+@Data
+public class TeardownRequest {
+
+    @JsonSerialize
+    private String organization_guid;
+
+    @JsonSerialize
+    private String space_guid;
+
+    boolean isInScope(ServiceInstance instance) {
+        if (space_guid != null && !space_guid.equals(instance.getSpace_guid())) {
+            return false;
+        }
+        return organization_guid == null || organization_guid.equals(instance.getOrganization_guid());
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2017-Present Pivotal Software, Inc. All rights reserved.
+ * <p>
+ * This program and the accompanying materials are made available under
+ * the terms of the under the Apache License, Version 2.0 (the "License”);
+ * you may not use this file except in compliance with the License.
+ * <p>
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * <p>
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.pivotal.ecosystem.ece;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.servicebroker.model.GetLastServiceOperationResponse;
+import org.springframework.cloud.servicebroker.model.OperationState;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * One background loop for all active teardowns. Each pass checks every member against the cluster listing snapshot,
+ * and the members whose clusters have stopped are advanced (deleted) on the ece executor, deleteBatchSize at a time.
+ * Once no member is left in progress, the bindings of the deleted instances are removed in one pipelined delete and
+ * the teardown is marked done. Advancing goes through EceBroker and its leases, so it can't collide with
+ * last_operation polls or the InFlightDriver working on the same instances.
+ */
+@Slf4j
+@Service
+class TeardownWatcher {
+
+    private EceBroker eceBroker;
+    private BulkProvisioner bulkProvisioner;
+    private BulkBatchRepository bulkBatchRepository;
+    private ServiceBindingRepository serviceBindingRepository;
+    private Reservations reservations;
+    private ClusterStatusEngine clusterStatusEngine;
+    private ThreadPoolTaskExecutor executor;
+    private int deleteBatchSize;
+
+    public TeardownWatcher(EceBroker eceBroker, BulkProvisioner bulkProvisioner, BulkBatchRepository bulkBatchRepository,
+                           ServiceBindingRepository serviceBindingRepository, Reservations reservations, ClusterStatusEngine clusterStatusEngine,
+                           @Qualifier(EceAsyncConfig.ECE_EXECUTOR) ThreadPoolTaskExecutor executor,
+                           @Value("${ece.teardown.deleteBatchSize:20}") int deleteBatchSize) {
+        super();
+        this.eceBroker = eceBroker;
+        this.bulkProvisioner = bulkProvisioner;
+        this.bulkBatchRepository = bulkBatchRepository;
+        this.serviceBindingRepository = serviceBindingRepository;
+        this.reservations = reservations;
+        this.clusterStatusEngine = clusterStatusEngine;
+        this.executor = executor;
+        this.deleteBatchSize = deleteBatchSize;
+    }
+
+    @Scheduled(fixedDelayString = "${ece.teardown.interval:10000}")
+    void watch() {
+        try {
+            for (BulkBatch batch : bulkBatchRepository.findByActive(true)) {
+                watch(batch);
+            }
+        } catch (Throwable t) {
+            log.error("error watching teardowns.", t);
+        }
+    }
+
+    void watch(BulkBatch batch) {
+        //cluster states come from the listing, don't act on one that is too old
+        if (clusterStatusEngine.isStale()) {
+            log.warn("cluster status snapshot is stale, skipping teardown pass.");
+            return;
+        }
+
+        Map<String, ServiceInstance> members = bulkProvisioner.findMembers(batch.getInstanceIds());
+        List<String> stopped = new ArrayList<>();
+        Set<String> deleted = new HashSet<>();
+        boolean pending = false;
+
+        for (String id : batch.getInstanceIds()) {
+            ServiceInstance instance = members.get(id);
+            if (instance == null || batch.getErrors().containsKey(id)) {
+                continue;
+            }
+
+            GetLastServiceOperationResponse lo = instance.getLastOperation();
+            if (lo == null || !lo.isDeleteOperation()) {
+                //the shutdown has not been taken on yet
+                pending = true;
+            } else if (OperationState.IN_PROGRESS.equals(lo.getState())) {
+                pending = true;
+                ClusterStatus status = clusterStatusEngine.getStatus(instance.getClusterId());
+                if (status != null && status.isInState(ClusterConfig.clusterState.stopped)) {
+                    stopped.add(id);
+                }
+            } else if (OperationState.SUCCEEDED.equals(lo.getState())) {
+                deleted.add(id);
+            }
+        }
+
+        deleteStopped(batch, stopped);
+
+        if (!pending) {
+            removeBindings(batch, deleted);
+            batch.setActive(false);
+            bulkBatchRepository.save(batch);
+            log.info("teardown: " + batch.getId() + " done, deleted: " + deleted.size() + " of: " + batch.getInstanceIds().size());
+        }
+    }
+
+    private void deleteStopped(BulkBatch batch, List<String> stopped) {
+        if (stopped.isEmpty()) {
+            return;
+        }
+
+        log.info("teardown: " + batch.getId() + " deleting " + stopped.size() + " stopped clusters.");
+        for (int i = 0; i < stopped.size(); i += deleteBatchSize) {
+            List<CompletableFuture<Void>> deletes = new ArrayList<>();
+            for (String id : stopped.subList(i, Math.min(i + deleteBatchSize, stopped.size()))) {
+                try {
+                    deletes.add(CompletableFuture.runAsync(() -> eceBroker.advance(id), executor));
+                } catch (Throwable t) {
+                    //the ece pool is full, this one is picked up on the next pass
+                    log.warn("teardown: " + batch.getId() + " could not submit delete for service instance: " + id);
+                }
+            }
+            for (CompletableFuture<Void> f : deletes) {
+                try {
+                    f.join();
+                } catch (Throwable t) {
+                    log.error("teardown: " + batch.getId() + " error deleting cluster.", t);
+                }
+            }
+        }
+    }
+
+    //bindings don't carry an index by instance, so this is one scan of the bindings and one pipelined delete
+    private void removeBindings(BulkBatch batch, Set<String> instanceIds) {
+        if (instanceIds.isEmpty()) {
+            return;
+        }
+
+        List<String> bindingIds = new ArrayList<>();
+        for (ServiceBinding binding : serviceBindingRepository.findAll()) {
+            if (binding != null && instanceIds.contains(binding.getService_instance_id())) {
+                bindingIds.add(binding.getId());
+            }
+        }
+
+        serviceBindingRepository.deleteAllById(bindingIds);
+        reservations.releaseBindings(bindingIds);
+        log.info("teardown: " + batch.getId() + " removed " + bindingIds.size() + " bindings.");
+    }
+}
@@ -0,0 +1,431 @@
+/*
+ * Copyright (C) 2017-Present Pivotal Software, Inc. All rights reserved.
+ * <p>
+ * This program and the accompanying materials are made available under
+ * the terms of the under the Apache License, Version 2.0 (the "License”);
+ * you may not use this file except in compliance with the License.
+ * <p>
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * <p>
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.pivotal.ecosystem.ece;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.servicebroker.model.CreateServiceInstanceRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Clusters created ahead of demand, so a create can be answered with one that is already running. Each plan listed in
+ * ece.pool.targets keeps that many started clusters (with kibana enabled, for the kibana plans) waiting in redis. A
+ * create with default parameters claims one, renames it to the instance's cluster name and takes over its credentials,
+ * and is done without waiting on ece. A claimed cluster that can't be handed out goes back to the pool under a pool
+ * name, or is stopped if even that fails. The refiller runs on one broker at a time, under a lock it renews before each
+ * create: it moves clusters that have started from pending to ready, and creates new ones to make up the target.
+ */
+@Slf4j
+@Service
+class WarmPool {
+
+    static final String NAME_PREFIX = "ece-pool-";
+    static final String REFILL_LOCK = "pool:refill";
+
+    private PoolStore poolStore;
+    private EceClient eceClient;
+    private CatalogService catalogService;
+    private ClusterStatusEngine clusterStatusEngine;
+    private OperationLeases operationLeases;
+    private EceConfig eceConfig;
+    private EceMetrics eceMetrics;
+    private int maxCreates;
+    private long pendingTimeout;
+
+    private final Map<String, Plan> plans;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong idleTime = new AtomicLong();
+
+    public WarmPool(PoolStore poolStore, EceClient eceClient, CatalogService catalogService, ClusterStatusEngine clusterStatusEngine, OperationLeases operationLeases,
+                    EceConfig eceConfig, EceMetrics eceMetrics, @Value("${ece.pool.targets:}") String targets,
+                    @Value("${ece.pool.maxCreates:5}") int maxCreates, @Value("${ece.pool.pendingTimeout:1800000}") long pendingTimeout) {
+        super();
+        this.poolStore = poolStore;
+        this.eceClient = eceClient;
+        this.catalogService = catalogService;
+        this.clusterStatusEngine = clusterStatusEngine;
+        this.operationLeases = operationLeases;
+        this.eceConfig = eceConfig;
+        this.eceMetrics = eceMetrics;
+        this.maxCreates = maxCreates;
+        this.pendingTimeout = pendingTimeout;
+        this.plans = parseTargets(targets);
+        refreshPlans();
+    }
+
+    private void refreshPlans() {
+        for (Plan plan : plans.values()) {
+            plan.setCatalogPlan(catalogService.getPlan(plan.id));
+        }
+    }
+
+    /**
+     * @param targets comma separated planId:count pairs, e.g. oneNodeCluster:2,oneNodeClusterWithKibana:1
+     */
+    static Map<String, Plan> parseTargets(String targets) {
+        Map<String, Plan> plans = new LinkedHashMap<>();
+        if (targets == null || targets.trim().isEmpty()) {
+            return plans;
+        }
+
+        for (String target : targets.split(",")) {
+            String[] s = target.trim().split(":");
+            if (s.length != 2) {
+                throw new IllegalArgumentException("ece.pool.targets entries must be planId:count, got: " + target);
+            }
+            int count = Integer.parseInt(s[1].trim());
+            if (count > 0) {
+                plans.put(s[0].trim(), new Plan(s[0].trim(), count));
+            }
+        }
+        return Collections.unmodifiableMap(plans);
+    }
+
+    /**
+     * Hands the instance a ready cluster from its plan's pool, if there is one. On success the instance has its
+     * cluster id, credentials and (for kibana plans) kibana, and the cluster carries the instance's name.
+     *
+     * @return true if the instance got a pooled cluster, false if it needs one created.
+     */
+    boolean claim(ServiceInstance instance) {
+        Plan plan = plans.get(instance.getPlan_id());
+        if (plan == null) {
+            return false;
+        }
+
+        long start = eceMetrics.start();
+        Throwable failure = null;
+        PoolCluster cluster = null;
+        String claimedName = null;
+        boolean hit = false;
+        try {
+            cluster = poolStore.claim(plan.id);
+            if (cluster == null) {
+                log.info("warm pool for plan: " + plan.id + " is empty.");
+                return false;
+            }
+
+            eceClient.renameCluster(cluster.getClusterId(), cluster.getClusterName(), instance.getClusterName());
+            claimedName = instance.getClusterName();
+            if (cluster.getKibanaClusterId() != null) {
+                eceClient.renameKibana(cluster.getKibanaClusterId(), claimedName);
+            }
+            cluster.attachTo(instance, eceConfig);
+            hit = true;
+
+            plan.ready = Math.max(0, plan.ready - 1);
+            idleTime.addAndGet(System.currentTimeMillis() - cluster.getReadyAt());
+            log.info("service instance: " + instance.getService_instance_id() + " claimed pooled cluster: " + cluster.getClusterId());
+            return true;
+        } catch (Throwable t) {
+            failure = t;
+            log.error("error claiming pooled cluster for service instance: " + instance.getService_instance_id(), t);
+            if (cluster != null) {
+                putBack(plan, cluster, claimedName);
+            }
+            return false;
+        } finally {
+            if (hit) {
+                hits.incrementAndGet();
+            } else {
+                misses.incrementAndGet();
+            }
+            eceMetrics.record(EceMetrics.POOL_CLAIMS, start, failure, "plan", plan.id, "result", hit ? "hit" : "miss");
+        }
+    }
+
+    /**
+     * Returns a cluster the instance claimed but could not keep, e.g. because the instance could not be saved.
+     */
+    void release(ServiceInstance instance) {
+        Plan plan = plans.get(instance.getPlan_id());
+        PoolCluster cluster = PoolCluster.of(instance);
+        cluster.setClusterName(NAME_PREFIX + UUID.randomUUID().toString());
+        cluster.setReadyAt(System.currentTimeMillis());
+        log.info("service instance: " + instance.getService_instance_id() + " returning pooled cluster: " + cluster.getClusterId());
+        if (plan == null) {
+            shutdown(cluster);
+            return;
+        }
+        putBack(plan, cluster, instance.getClusterName());
+    }
+
+    //claimedName: what the cluster was renamed to for the instance, null if it still has its pool name
+    private void putBack(Plan plan, PoolCluster cluster, String claimedName) {
+        try {
+            if (claimedName != null) {
+                eceClient.renameCluster(cluster.getClusterId(), claimedName, cluster.getClusterName());
+                if (cluster.getKibanaClusterId() != null) {
+                    eceClient.renameKibana(cluster.getKibanaClusterId(), cluster.getClusterName());
+                }
+            }
+            poolStore.putBack(plan.id, cluster);
+        } catch (Throwable t) {
+            //nothing would ever claim or clean up a cluster left running outside the pool
+            log.error("could not return cluster: " + cluster.getClusterId() + " to the warm pool, stopping it.", t);
+            shutdown(cluster);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${ece.pool.interval:30000}")
+    void refill() {
+        if (plans.isEmpty()) {
+            return;
+        }
+
+        //cluster states come from the listing, don't act on one that is too old
+        if (clusterStatusEngine.isStale()) {
+            log.warn("cluster status snapshot is stale, skipping warm pool refill.");
+            return;
+        }
+
+        try {
+            if (!operationLeases.tryLock(REFILL_LOCK)) {
+                return;
+            }
+        } catch (Throwable t) {
+            log.error("error acquiring warm pool lock.", t);
+            return;
+        }
+
+        try {
+            refreshPlans();
+            for (Plan plan : plans.values()) {
+                refill(plan);
+            }
+        } finally {
+            operationLeases.unlock(REFILL_LOCK);
+        }
+    }
+
+    void refill(Plan plan) {
+        try {
+            Map<String, PoolCluster> pending = poolStore.getPending(plan.id);
+            int starting = 0;
+            for (PoolCluster cluster : pending.values()) {
+                if (!promote(plan, cluster)) {
+                    starting++;
+                }
+            }
+
+            List<PoolCluster> ready = poolStore.getReady(plan.id);
+            plan.ready = ready.size();
+            plan.pending = starting;
+            plan.oldestReadyAt = ready.isEmpty() ? 0 : ready.get(0).getReadyAt();
+
+            int wanted = Math.min(plan.target - plan.ready - plan.pending, maxCreates);
+            for (int i = 0; i < wanted; i++) {
+                //creates wait on ece and a run of them outlasts the lock's ttl: renew it, or leave the rest to its new holder
+                if (!operationLeases.tryLock(REFILL_LOCK)) {
+                    log.warn("lost the warm pool lock, stopping the refill of plan: " + plan.id);
+                    return;
+                }
+                create(plan);
+            }
+        } catch (Throwable t) {
+            log.error("error refilling warm pool for plan: " + plan.id, t);
+        }
+    }
+
+    /**
+     * @return true if the cluster is no longer pending: moved to ready, or given up on.
+     */
+    private boolean promote(Plan plan, PoolCluster cluster) {
+        ClusterStatus status = clusterStatusEngine.getStatus(cluster.getClusterId());
+        boolean started = status != null && status.isInState(ClusterConfig.clusterState.started);
+
+        if (!started) {
+            if (System.currentTimeMillis() - cluster.getCreatedAt() < pendingTimeout) {
+                return false;
+            }
+            log.warn("pooled cluster: " + cluster.getClusterId() + " did not start within " + pendingTimeout + " millis, dropping it from the pool.");
+            poolStore.removePending(plan.id, cluster.getClusterId());
+            shutdown(cluster);
+            return true;
+        }
+
+        if (plan.isKibanaWanted()) {
+            //the early request was turned down, ask again now the cluster is up
+            if (cluster.getKibanaClusterId() == null) {
+                requestKibana(plan, cluster);
+                poolStore.addPending(plan.id, cluster);
+                return false;
+            }
+            if (!status.isKibanaEnabled()) {
+                return false;
+            }
+        }
+
+        cluster.setReadyAt(System.currentTimeMillis());
+        if (poolStore.promote(plan.id, cluster)) {
+            log.info("pooled cluster: " + cluster.getClusterId() + " for plan: " + plan.id + " is ready.");
+        }
+        return true;
+    }
+
+    private void create(Plan plan) {
+        ServiceInstance instance = plan.template(NAME_PREFIX + UUID.randomUUID().toString());
+        eceClient.createCluster(instance);
+
+        PoolCluster cluster = PoolCluster.of(instance);
+        if (plan.isKibanaWanted()) {
+            requestKibana(plan, cluster);
+        }
+        poolStore.addPending(plan.id, cluster);
+        plan.pending++;
+        log.info("created pooled cluster: " + cluster.getClusterId() + " for plan: " + plan.id);
+    }
+
+    private void requestKibana(Plan plan, PoolCluster cluster) {
+        ServiceInstance instance = plan.template(cluster.getClusterName());
+        cluster.attachTo(instance, eceConfig);
+        try {
+            eceClient.createKibana(instance);
+            cluster.setKibanaClusterId(instance.getKibanaParams().get(KibanaConfig.kibanaApiKeys.kibana_cluster_id.name()));
+        } catch (Throwable t) {
+            log.warn("kibana not accepted for pooled cluster: " + cluster.getClusterId() + ", will request it once the cluster starts.", t);
+        }
+    }
+
+    private void shutdown(PoolCluster cluster) {
+        ServiceInstance instance = new ServiceInstance();
+        instance.getClusterParams().put(ClusterConfig.eceApiKeys.elasticsearch_cluster_id.name(), cluster.getClusterId());
+        try {
+            eceClient.shutdownCluster(instance);
+        } catch (Throwable t) {
+            log.error("could not stop pooled cluster: " + cluster.getClusterId() + ", it is left in ece.", t);
+        }
+    }
+
+    Map<String, Plan> getPlans() {
+        return plans;
+    }
+
+    long getHits() {
+        return hits.get();
+    }
+
+    long getMisses() {
+        return misses.get();
+    }
+
+    double getHitRate() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    /**
+     * @return total millis that claimed clusters spent ready and unused before their claim
+     */
+    long getIdleTime() {
+        return idleTime.get();
+    }
+
+    /**
+     * Pool target for one plan, with counts as of the last refill pass (less claims made since).
+     */
+    static class Plan {
+        private final String id;
+        private final int target;
+
+        //the catalog's view of the plan, refreshed every refill pass so a catalog reload reaches new pool clusters
+        private volatile CatalogPlan catalogPlan;
+
+        private volatile int ready;
+        private volatile int pending;
+        private volatile long oldestReadyAt;
+
+        Plan(String id, int target) {
+            super();
+            this.id = id;
+            this.target = target;
+            this.catalogPlan = CatalogPlan.defaults(id);
+        }
+
+        //a default parameters instance of this plan, as a create with no parameters would make
+        ServiceInstance template(String name) {
+            CreateServiceInstanceRequest request = new CreateServiceInstanceRequest(catalogPlan.getServiceId(), id, null, null, null);
+            request.withServiceInstanceId(name);
+            return new ServiceInstance(request, catalogPlan);
+        }
+
+        boolean isKibanaWanted() {
+            return catalogPlan.isKibana();
+        }
+
+        /**
+         * @return memory (MB) a running cluster of this plan holds, kibana included
+         */
+        long getMemory() {
+            CatalogPlan p = catalogPlan;
+            return memory(p.getClusterDefaults(), ClusterConfig.eceApiKeys.zone_count.name(),
+                    ClusterConfig.eceApiKeys.node_count_per_zone.name(), ClusterConfig.eceApiKeys.memory_per_node.name())
+                    + (p.isKibana() ? memory(p.getKibanaDefaults(), KibanaConfig.kibanaApiKeys.zone_count.name(),
+                    KibanaConfig.kibanaApiKeys.node_count_per_zone.name(), KibanaConfig.kibanaApiKeys.memory_per_node.name()) : 0);
+        }
+
+        private static long memory(Map<String, String> params, String zones, String nodes, String perNode) {
+            return Long.parseLong(params.get(zones)) * Long.parseLong(params.get(nodes)) * Long.parseLong(params.get(perNode));
+        }
+
+        void setCatalogPlan(CatalogPlan catalogPlan) {
+            this.catalogPlan = catalogPlan;
+        }
+
+        String getId() {
+            return id;
+        }
+
+        int getTarget() {
+            return target;
+        }
+
+        int getReady() {
+            return ready;
+        }
+
+        int getPending() {
+            return pending;
+        }
+
+        /**
+         * @return memory (MB) held by ready clusters waiting to be claimed
+         */
+        long getIdleMemory() {
+            return ready * getMemory();
+        }
+
+        /**
+         * @return millis the longest waiting ready cluster has been idle, as of the last refill pass
+         */
+        long getOldestIdle() {
+            long t = oldestReadyAt;
+            return t == 0 ? 0 : System.currentTimeMillis() - t;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2017-Present Pivotal Software, Inc. All rights reserved.
+ * <p>
+ * This program and the accompanying materials are made available under
+ * the terms of the under the Apache License, Version 2.0 (the "License”);
+ * you may not use this file except in compliance with the License.
+ * <p>
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * <p>
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.ecosystem.ece;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class BodyTemplateTest {
+
+    private static final BodyTemplate<Map<String, String>> TEMPLATE = BodyTemplate.<Map<String, String>>builder()
+            .beginObject()
+            .requiredStringField("name", m -> m.get("name"))
+            .stringField("id", m -> m.get("id"))
+            .beginArray("list")
+            .beginObject()
+            .intField("count", m -> m.get("count"))
+            .endObject()
+            .beginObject()
+            .literalField("fixed", "value")
+            .endObject()
+            .endArray()
+            .endObject()
+            .build();
+
+    @Test
+    public void testRender() {
+        Map<String, String> m = new HashMap<>();
+        m.put("name", "a \"quoted\" name");
+        m.put("id", "anId");
+        m.put("count", "007");
+
+        assertEquals("{\"name\":\"a \\\"quoted\\\" name\",\"id\":\"anId\",\"list\":[{\"count\":7},{\"fixed\":\"value\"}]}", TEMPLATE.render(m));
+    }
+
+    @Test
+    public void testNullFieldOmitted() {
+        Map<String, String> m = new HashMap<>();
+        m.put("name", "n");
+        m.put("count", "1");
+
+        assertEquals("{\"name\":\"n\",\"list\":[{\"count\":1},{\"fixed\":\"value\"}]}", TEMPLATE.render(m));
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void testBadInt() {
+        Map<String, String> m = new HashMap<>();
+        m.put("name", "n");
+        m.put("count", "many");
+        TEMPLATE.render(m);
+    }
+}
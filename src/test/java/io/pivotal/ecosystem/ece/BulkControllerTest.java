@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2017-Present Pivotal Software, Inc. All rights reserved.
+ * <p>
+ * This program and the accompanying materials are made available under
+ * the terms of the under the Apache License, Version 2.0 (the "License”);
+ * you may not use this file except in compliance with the License.
+ * <p>
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * <p>
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.pivotal.ecosystem.ece;
+
+import com.jayway.jsonpath.DocumentContext;
+import com.jayway.jsonpath.JsonPath;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.cloud.servicebroker.model.GetLastServiceOperationResponse;
+import org.springframework.cloud.servicebroker.model.OperationState;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest
+public class BulkControllerTest {
+
+    private MockMvc mockMvc;
+
+    @Autowired
+    private BulkController bulkController;
+
+    @Autowired
+    private BulkProvisioner bulkProvisioner;
+
+    @Autowired
+    private BulkBatchRepository bulkBatchRepository;
+
+    @Autowired
+    private ServiceInstanceRepository serviceInstanceRepository;
+
+    private final AtomicReference<BulkBatch> saved = new AtomicReference<>();
+
+    @Before
+    public void setUp() {
+        mockMvc = MockMvcBuilders.standaloneSetup(bulkController).build();
+        when(bulkBatchRepository.save(any(BulkBatch.class))).thenAnswer(i -> {
+            saved.set((BulkBatch) i.getArguments()[0]);
+            return i.getArguments()[0];
+        });
+        when(bulkBatchRepository.findOne(anyString())).thenAnswer(i -> saved.get());
+        when(serviceInstanceRepository.findAll(any(Iterable.class))).thenReturn(Collections.emptyList());
+    }
+
+    @Test
+    public void testInvalidBatch() throws Exception {
+        mockMvc.perform(post("/admin/bulk")
+                .content("{\"instances\": []}")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isBadRequest());
+
+        mockMvc.perform(post("/admin/bulk")
+                .content("{\"operation\": \"create\", \"instances\": [{\"service_instance_id\": \"a\", \"service_id\": \"ece\", \"plan_id\": \"p\"}," +
+                        "{\"service_instance_id\": \"a\", \"service_id\": \"ece\", \"plan_id\": \"p\"}]}")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void testBatchStatus() throws Exception {
+        //neither instance exists, so both deletes are refused by the broker
+        mockMvc.perform(post("/admin/bulk")
+                .content("{\"operation\": \"delete\", \"instances\": [{\"service_instance_id\": \"a\", \"service_id\": \"ece\", \"plan_id\": \"p\"}," +
+                        "{\"service_instance_id\": \"b\", \"service_id\": \"ece\", \"plan_id\": \"p\"}]}")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isAccepted())
+                .andExpect(jsonPath("$.total").value(2));
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (saved.get().getErrors().size() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertEquals(2, saved.get().getErrors().size());
+
+        MvcResult result = mockMvc.perform(get("/admin/bulk/" + saved.get().getId() + "?page=1&size=1"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        //the page is streamed into the original response, an async dispatch would see an empty body
+        result.getAsyncResult(5000);
+        assertEquals(200, result.getResponse().getStatus());
+        DocumentContext page = JsonPath.parse(result.getResponse().getContentAsString());
+        assertEquals(2, (int) page.read("$.total", Integer.class));
+        assertEquals(1, (int) page.read("$.members.length()", Integer.class));
+        assertEquals("b", page.read("$.members[0].service_instance_id"));
+        assertEquals("failed", page.read("$.members[0].state"));
+    }
+
+    @Test
+    public void testTeardownScope() throws Exception {
+        ServiceInstance other = TestConfig.defaultsServiceInstance("other");
+        other.setSpace_guid("anotherSpace");
+        ServiceInstance deleted = TestConfig.defaultsServiceInstance("deleted");
+        deleted.setLastOperation(new GetLastServiceOperationResponse().withOperationState(OperationState.SUCCEEDED).withDeleteOperation(true));
+        when(serviceInstanceRepository.findAll()).thenReturn(Arrays.asList(TestConfig.defaultsServiceInstance("live"), other, deleted));
+        mockMvc = MockMvcBuilders.standaloneSetup(new BulkController(bulkProvisioner, true)).build();
+
+        mockMvc.perform(post("/admin/bulk/teardown")
+                .content("{}")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isBadRequest());
+
+        mockMvc.perform(post("/admin/bulk/teardown")
+                .content("{\"space_guid\": \"aSpaceGuid\"}")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isAccepted())
+                .andExpect(jsonPath("$.operation").value("teardown"))
+                .andExpect(jsonPath("$.total").value(1));
+
+        assertEquals(Collections.singletonList("live"), saved.get().getInstanceIds());
+        assertTrue(saved.get().isActive());
+    }
+
+    @Test
+    public void testTeardownDisabledByDefault() throws Exception {
+        //its own provisioner, the shared batch repository sees async saves from the other tests
+        BulkProvisioner provisioner = mock(BulkProvisioner.class);
+        mockMvc = MockMvcBuilders.standaloneSetup(new BulkController(provisioner, false)).build();
+
+        mockMvc.perform(post("/admin/bulk/teardown")
+                .content("{\"space_guid\": \"aSpaceGuid\"}")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isForbidden());
+
+        verify(provisioner, never()).teardown(any(TeardownRequest.class));
+    }
+
+    @Test
+    public void testUnknownBatch() throws Exception {
+        mockMvc.perform(get("/admin/bulk/nope"))
+                .andExpect(status().isNotFound());
+    }
+}
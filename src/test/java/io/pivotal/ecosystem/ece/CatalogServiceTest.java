@@ -23,9 +23,18 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.cloud.servicebroker.exception.ServiceBrokerException;
 import org.springframework.cloud.servicebroker.model.Catalog;
+import org.springframework.cloud.servicebroker.model.CreateServiceInstanceRequest;
 import org.springframework.test.context.junit4.SpringRunner;
 
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 @RunWith(SpringRunner.class)
@@ -41,4 +50,61 @@ public class CatalogServiceTest {
         assertNotNull(catalog);
         assertTrue(catalog.getServiceDefinitions().size() > 0);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testIndexedLookups() {
+        assertEquals("ece", catalogService.getServiceDefinition("ece").getId());
+        assertNull(catalogService.getServiceDefinition("nope"));
+        assertNull(catalogService.getServiceDefinition(null));
+
+        assertFalse(catalogService.getPlan("oneNodeCluster").isKibana());
+        assertTrue(catalogService.getPlan("oneNodeClusterWithKibana").isKibana());
+        assertEquals("ece", catalogService.getPlan("oneNodeCluster").getServiceId());
+
+        //plans the catalog doesn't know get the built in defaults
+        assertTrue(catalogService.getPlan("someKibanaPlan").isKibana());
+        assertEquals(ClusterConfig.DEFAULT_MEMORY_PER_NODE, catalogService.getPlan("other").getClusterDefaults().get(ClusterConfig.eceApiKeys.memory_per_node.name()));
+    }
+
+    private static String catalog(String planMetadata) {
+        return "{\"services\": [{\"id\": \"ece\", \"name\": \"ece\", \"description\": \"d\", \"bindable\": true, " +
+                "\"plans\": [{\"id\": \"big\", \"name\": \"big\", \"description\": \"d\", \"metadata\": " + planMetadata + "}]}]}";
+    }
+
+    @Test
+    public void testPlanDefaultsFromMetadata() throws Exception {
+        File f = File.createTempFile("catalog", ".json");
+        f.deleteOnExit();
+        Files.write(f.toPath(), catalog("{\"kibana\": true, \"defaults\": {\"elasticsearch\": {\"memory_per_node\": 4096}}}").getBytes(StandardCharsets.UTF_8));
+
+        CatalogService cs = new CatalogService(f.getPath());
+        CatalogPlan plan = cs.getPlan("big");
+        assertTrue(plan.isKibana());
+
+        ServiceInstance instance = new ServiceInstance(new CreateServiceInstanceRequest("ece", "big", "o", "s", null).withServiceInstanceId("si"), plan);
+        assertTrue(instance.isKibanaWanted());
+        assertEquals("4096", instance.getClusterParams().get(ClusterConfig.eceApiKeys.memory_per_node.name()));
+        assertEquals(ClusterConfig.DEFAULT_NODE_COUNT_PER_ZONE, instance.getClusterParams().get(ClusterConfig.eceApiKeys.node_count_per_zone.name()));
+    }
+
+    @Test
+    public void testReloadSwapsCatalogAndKeepsItOnError() throws Exception {
+        File f = File.createTempFile("catalog", ".json");
+        f.deleteOnExit();
+        Files.write(f.toPath(), catalog("{\"kibana\": false}").getBytes(StandardCharsets.UTF_8));
+
+        CatalogService cs = new CatalogService(f.getPath());
+        assertFalse(cs.getPlan("big").isKibana());
+
+        Files.write(f.toPath(), catalog("{\"kibana\": true}").getBytes(StandardCharsets.UTF_8));
+        assertTrue(f.setLastModified(f.lastModified() + 2000));
+        cs.reloadIfChanged();
+        assertTrue(cs.getPlan("big").isKibana());
+
+        CatalogRegistry before = cs.getRegistry();
+        Files.write(f.toPath(), "{not json".getBytes(StandardCharsets.UTF_8));
+        assertTrue(f.setLastModified(f.lastModified() + 2000));
+        cs.reloadIfChanged();
+        assertSame(before, cs.getRegistry());
+    }
+}
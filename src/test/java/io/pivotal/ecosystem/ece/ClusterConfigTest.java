@@ -29,6 +29,7 @@ import java.util.Map;
 import static io.pivotal.ecosystem.ece.ClusterConfig.credentialKeys;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 
 @RunWith(SpringRunner.class)
 @SpringBootTest(classes = TestConfig.class)
@@ -40,7 +41,7 @@ public class ClusterConfigTest {
     @Test
     public void testWithInstanceAndDefaults() throws Exception {
         ServiceInstance instance = TestConfig.defaultsServiceInstance(TestConfig.SI_ID);
-        instance.processCreateClusterResponse(TestConfig.fromJson("createClusterResponse.json"), eceConfig);
+        instance.processCreateClusterResponse(TestConfig.fromJson("createClusterResponse.json", CreateClusterResponse.class), eceConfig);
 
         assertEquals("d3228e4268d449e1be1a918e0eac49e3", instance.getCredentials().get(credentialKeys.clusterId.name()));
         assertEquals("aUser", instance.getCredentials().get(credentialKeys.username.name()));
@@ -70,7 +71,7 @@ public class ClusterConfigTest {
 
     @Test
     public void testExtractCreds() throws IOException {
-        Object o = TestConfig.fromJson("createClusterResponse.json");
+        CreateClusterResponse o = TestConfig.fromJson("createClusterResponse.json", CreateClusterResponse.class);
         assertNotNull(o);
 
         ServiceInstance instance = TestConfig.defaultsServiceInstance(TestConfig.SI_ID);
@@ -81,4 +82,15 @@ public class ClusterConfigTest {
         assertEquals(7, m2.size());
         assertEquals("https://d3228e4268d449e1be1a918e0eac49e3.domain:1234", m2.get(credentialKeys.eceEndpoint.name()));
     }
+
+    @Test
+    public void testDecodeClusterInfo() throws IOException {
+        ClusterInfo ci = TestConfig.fromJson("clusterInfo.json", ClusterInfo.class);
+
+        assertEquals("a249ed949aeb44deb53388f1bda81c35", ci.getCluster_id());
+        assertEquals("logging-and-metrics", ci.getCluster_name());
+        assertEquals("started", ci.getStatus());
+        assertEquals(1, ci.getAssociated_kibana_clusters().size());
+        assertTrue(ci.getAssociated_kibana_clusters().get(0).isEnabled());
+    }
 }
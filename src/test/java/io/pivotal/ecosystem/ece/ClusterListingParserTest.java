@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2017-Present Pivotal Software, Inc. All rights reserved.
+ * <p>
+ * This program and the accompanying materials are made available under
+ * the terms of the under the Apache License, Version 2.0 (the "License”);
+ * you may not use this file except in compliance with the License.
+ * <p>
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * <p>
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.ecosystem.ece;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ClusterListingParserTest {
+
+    @Test
+    public void testParseListing() throws IOException {
+        Map<String, ClusterStatus> m = ClusterListingParser.parse(TestConfig.responseFromFile("clustersInfo.json").body().asInputStream());
+        assertEquals(3, m.size());
+
+        ClusterStatus cs = m.get(TestConfig.CLUSTER_ID);
+        assertEquals(TestConfig.CLUSTER_ID, cs.getClusterId());
+        assertEquals("6629d808-a1c8-42d4-b3d6-b504716a8981", cs.getClusterName());
+        assertTrue(cs.isInState(ClusterConfig.clusterState.started));
+        assertTrue(cs.isKibanaEnabled());
+
+        assertEquals("admin-console-elasticsearch", m.get("876d76804ec5450fb5ebe22882857ab4").getClusterName());
+    }
+
+    @Test
+    public void testKibanaNotEnabled() throws IOException {
+        String json = "{\"return_count\": 1, \"elasticsearch_clusters\": [{\"cluster_id\": \"c1\", \"status\": \"stopped\", " +
+                "\"associated_kibana_clusters\": [{\"kibana_id\": \"k1\", \"enabled\": true}, {\"kibana_id\": \"k2\", \"enabled\": false}], " +
+                "\"cluster_name\": \"n1\", \"metadata\": {\"version\": 1}}]}";
+        ClusterStatus cs = ClusterListingParser.parse(new ByteArrayInputStream(json.getBytes())).get("c1");
+
+        assertEquals("n1", cs.getClusterName());
+        assertTrue(cs.isInState(ClusterConfig.clusterState.stopped));
+        assertFalse(cs.isKibanaEnabled());
+    }
+
+    @Test
+    public void testErrorBodyIsNotAnEmptyListing() {
+        String json = "{\"errors\": [{\"code\": \"root.unavailable\", \"message\": \"service unavailable\"}]}";
+        try {
+            ClusterListingParser.parse(new ByteArrayInputStream(json.getBytes()));
+            fail("expected the error body to be rejected");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("elasticsearch_clusters"));
+        }
+    }
+}
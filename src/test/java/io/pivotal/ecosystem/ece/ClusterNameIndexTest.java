@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2017-Present Pivotal Software, Inc. All rights reserved.
+ * <p>
+ * This program and the accompanying materials are made available under
+ * the terms of the under the Apache License, Version 2.0 (the "License”);
+ * you may not use this file except in compliance with the License.
+ * <p>
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * <p>
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.pivotal.ecosystem.ece;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ClusterNameIndexTest {
+
+    @Test
+    public void testReconcileKeepsNamesNewerThanTheListing() {
+        EceReader eceReader = mock(EceReader.class);
+        ClusterStatusEngine clusterStatusEngine = mock(ClusterStatusEngine.class);
+        ClusterNameRepository clusterNameRepository = mock(ClusterNameRepository.class);
+        ClusterNameIndex index = new ClusterNameIndex(eceReader, clusterStatusEngine, clusterNameRepository, 600000, 60000);
+
+        when(clusterStatusEngine.isStale()).thenReturn(true);
+        when(eceReader.getClusterStatuses()).thenReturn(Collections.singletonMap(TestConfig.CLUSTER_ID,
+                new ClusterStatus(TestConfig.CLUSTER_ID, "listed", "started", true)));
+        //"gone" was deleted from ece long ago, "taken" was just saved by another broker and is not in the listing yet
+        when(clusterNameRepository.findAll()).thenReturn(Arrays.asList(new ClusterName("listed", 0),
+                new ClusterName("gone", 0), new ClusterName("taken")));
+
+        index.reconcile();
+
+        verify(clusterNameRepository).delete("gone");
+        verify(clusterNameRepository, never()).delete("taken");
+        verify(clusterNameRepository, never()).save(any(ClusterName.class));
+        assertTrue(index.contains("taken"));
+        assertTrue(index.contains("listed"));
+    }
+
+    @Test
+    public void testFailedReconcileFallsBackToRedis() {
+        EceReader eceReader = mock(EceReader.class);
+        ClusterStatusEngine clusterStatusEngine = mock(ClusterStatusEngine.class);
+        ClusterNameRepository clusterNameRepository = mock(ClusterNameRepository.class);
+        ClusterNameIndex index = new ClusterNameIndex(eceReader, clusterStatusEngine, clusterNameRepository, 600000, 60000);
+
+        when(clusterStatusEngine.isStale()).thenReturn(true);
+        when(eceReader.getClusterStatuses()).thenThrow(new EceUnavailableException("ece circuit breaker is open"));
+        when(clusterNameRepository.exists("taken")).thenReturn(true);
+
+        assertTrue(index.contains("taken"));
+        assertFalse(index.contains("free"));
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2017-Present Pivotal Software, Inc. All rights reserved.
+ * <p>
+ * This program and the accompanying materials are made available under
+ * the terms of the under the Apache License, Version 2.0 (the "License”);
+ * you may not use this file except in compliance with the License.
+ * <p>
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * <p>
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.pivotal.ecosystem.ece;
+
+import feign.FeignException;
+import feign.Response;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ClusterStatusReaderTest {
+
+    private EceRepo eceRepo;
+    private ThreadPoolTaskExecutor executor;
+    private ClusterStatusReader reader;
+
+    @Before
+    public void setUp() {
+        eceRepo = mock(EceRepo.class);
+        executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(4);
+        executor.initialize();
+        reader = new ClusterStatusReader(eceRepo, executor, 500, 20);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    private static ClusterInfo info(String status) {
+        ClusterInfo info = new ClusterInfo();
+        info.setCluster_id(TestConfig.CLUSTER_ID);
+        info.setStatus(status);
+        return info;
+    }
+
+    @Test
+    public void testRead() {
+        ClusterInfo info = info("started");
+        ClusterInfo.KibanaAssociation kibana = new ClusterInfo.KibanaAssociation();
+        kibana.setEnabled(false);
+        info.getAssociated_kibana_clusters().add(kibana);
+        when(eceRepo.getClusterInfo(TestConfig.CLUSTER_ID)).thenReturn(info);
+
+        ClusterStatus status = reader.read(TestConfig.CLUSTER_ID);
+        assertTrue(status.isInState(ClusterConfig.clusterState.started));
+        assertFalse(status.isKibanaEnabled());
+        assertEquals(0, reader.getHedged());
+    }
+
+    @Test
+    public void testUnknownCluster() {
+        when(eceRepo.getClusterInfo(TestConfig.CLUSTER_ID))
+                .thenThrow(FeignException.errorStatus("x", Response.create(404, "Not Found", Collections.emptyMap(), new byte[0])));
+        assertNull(reader.read(TestConfig.CLUSTER_ID));
+    }
+
+    @Test
+    public void testSlowReadIsHedged() {
+        when(eceRepo.getClusterInfo(TestConfig.CLUSTER_ID)).thenReturn(info("started"));
+        for (int i = 0; i < 50; i++) {
+            reader.read(TestConfig.CLUSTER_ID);
+        }
+        assertEquals(20, reader.hedgeDelay());
+
+        //the first request hangs past the deadline, the hedge answers
+        AtomicInteger calls = new AtomicInteger();
+        when(eceRepo.getClusterInfo(TestConfig.CLUSTER_ID)).thenAnswer(i -> {
+            if (calls.incrementAndGet() == 1) {
+                Thread.sleep(1000);
+            }
+            return info("started");
+        });
+
+        long start = System.currentTimeMillis();
+        assertTrue(reader.read(TestConfig.CLUSTER_ID).isInState(ClusterConfig.clusterState.started));
+        assertTrue(System.currentTimeMillis() - start < 500);
+        assertEquals(1, reader.getHedged());
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    public void testConcurrentReadsShareOneHedgedRead() throws Exception {
+        when(eceRepo.getClusterInfo(TestConfig.CLUSTER_ID)).thenReturn(info("started"));
+        for (int i = 0; i < 50; i++) {
+            reader.read(TestConfig.CLUSTER_ID);
+        }
+
+        //every request is slow enough to be hedged, but a burst of callers still only sends the one read and its hedge
+        AtomicInteger calls = new AtomicInteger();
+        when(eceRepo.getClusterInfo(TestConfig.CLUSTER_ID)).thenAnswer(i -> {
+            calls.incrementAndGet();
+            Thread.sleep(300);
+            return info("started");
+        });
+
+        int callers = 8;
+        ExecutorService es = Executors.newFixedThreadPool(callers);
+        List<Future<ClusterStatus>> results = new ArrayList<>();
+        for (int i = 0; i < callers; i++) {
+            results.add(es.submit(() -> reader.read(TestConfig.CLUSTER_ID)));
+        }
+        for (Future<ClusterStatus> f : results) {
+            assertTrue(f.get(5, TimeUnit.SECONDS).isInState(ClusterConfig.clusterState.started));
+        }
+        es.shutdown();
+
+        assertEquals(callers - 1, reader.getReadsSaved());
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    public void testMissedDeadline() {
+        when(eceRepo.getClusterInfo(TestConfig.CLUSTER_ID)).thenAnswer(i -> {
+            Thread.sleep(1000);
+            return info("started");
+        });
+
+        try {
+            reader.read(TestConfig.CLUSTER_ID);
+            fail("expected the read to miss its deadline");
+        } catch (EceUnavailableException e) {
+            assertEquals(1, reader.getDeadlinesMissed());
+        }
+    }
+
+    @Test
+    public void testErrorsPropagate() {
+        when(eceRepo.getClusterInfo(TestConfig.CLUSTER_ID))
+                .thenThrow(FeignException.errorStatus("x", Response.create(503, "Unavailable", Collections.emptyMap(), new byte[0])));
+        try {
+            reader.read(TestConfig.CLUSTER_ID);
+            fail("expected the ece error");
+        } catch (FeignException e) {
+            assertEquals(503, e.status());
+        }
+    }
+}
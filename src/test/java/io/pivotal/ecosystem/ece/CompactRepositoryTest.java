@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2017-Present Pivotal Software, Inc. All rights reserved.
+ * <p>
+ * This program and the accompanying materials are made available under
+ * the terms of the under the Apache License, Version 2.0 (the "License”);
+ * you may not use this file except in compliance with the License.
+ * <p>
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * <p>
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.pivotal.ecosystem.ece;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.cloud.servicebroker.model.GetLastServiceOperationResponse;
+import org.springframework.cloud.servicebroker.model.OperationState;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class CompactRepositoryTest {
+
+    private static final String KEY = CompactServiceInstanceRepository.PREFIX + TestConfig.SI_ID;
+
+    private ValueOperations<String, byte[]> values;
+    private ServiceInstanceRepository hashInstances;
+    private CompactServiceInstanceRepository repo;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        RedisTemplate<String, byte[]> redisTemplate = mock(RedisTemplate.class);
+        values = mock(ValueOperations.class);
+        when(redisTemplate.opsForValue()).thenReturn(values);
+        hashInstances = mock(ServiceInstanceRepository.class);
+        repo = new CompactServiceInstanceRepository(redisTemplate, hashInstances);
+    }
+
+    @Test
+    public void testMissReadsThroughToHash() {
+        ServiceInstance hash = TestConfig.defaultsServiceInstance(TestConfig.SI_ID);
+        when(hashInstances.findOne(TestConfig.SI_ID)).thenReturn(hash);
+        when(values.get(KEY)).thenReturn(null, EntityCodec.encode(hash));
+        when(values.setIfAbsent(eq(KEY), any(byte[].class))).thenReturn(true);
+
+        ServiceInstance found = repo.findOne(TestConfig.SI_ID);
+
+        assertNotNull(found);
+        assertEquals(TestConfig.SI_ID, found.getService_instance_id());
+        verify(hashInstances).delete(TestConfig.SI_ID);
+    }
+
+    @Test
+    public void testCompactCopyIsKept() {
+        ServiceInstance hash = TestConfig.defaultsServiceInstance(TestConfig.SI_ID);
+        when(hashInstances.findOne(TestConfig.SI_ID)).thenReturn(hash);
+        when(values.setIfAbsent(eq(KEY), any(byte[].class))).thenReturn(false);
+
+        assertTrue(!repo.migrate(TestConfig.SI_ID));
+        verify(values, never()).set(anyString(), any(byte[].class));
+        verify(hashInstances).delete(TestConfig.SI_ID);
+    }
+
+    @Test
+    public void testHashChangedWhileCopyingIsKept() {
+        ServiceInstance read = TestConfig.defaultsServiceInstance(TestConfig.SI_ID);
+        ServiceInstance saved = TestConfig.defaultsServiceInstance(TestConfig.SI_ID);
+        saved.setLastOperation(new GetLastServiceOperationResponse().withOperationState(OperationState.SUCCEEDED));
+        when(hashInstances.findOne(TestConfig.SI_ID)).thenReturn(read, saved);
+        when(values.setIfAbsent(eq(KEY), any(byte[].class))).thenReturn(true);
+
+        assertTrue(repo.migrate(TestConfig.SI_ID));
+        verify(values).set(KEY, EntityCodec.encode(saved));
+        verify(hashInstances, never()).delete(anyString());
+    }
+
+    @Test
+    public void testMissOnBothLayouts() {
+        assertNull(repo.findOne(TestConfig.SI_ID));
+        verify(values, never()).setIfAbsent(anyString(), any(byte[].class));
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2017-Present Pivotal Software, Inc. All rights reserved.
+ * <p>
+ * This program and the accompanying materials are made available under
+ * the terms of the under the Apache License, Version 2.0 (the "License”);
+ * you may not use this file except in compliance with the License.
+ * <p>
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * <p>
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.pivotal.ecosystem.ece;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.cloud.servicebroker.model.GetLastServiceOperationResponse;
+import org.springframework.cloud.servicebroker.model.OperationState;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class CompactStorageMigratorTest {
+
+    private ServiceInstanceRepository hashInstances;
+    private ServiceBindingRepository hashBindings;
+    private CompactServiceInstanceRepository compactInstances;
+    private CompactServiceBindingRepository compactBindings;
+    private OperationLeases operationLeases;
+    private CompactStorageMigrator migrator;
+
+    @Before
+    public void setUp() {
+        hashInstances = mock(ServiceInstanceRepository.class);
+        hashBindings = mock(ServiceBindingRepository.class);
+        compactInstances = mock(CompactServiceInstanceRepository.class);
+        compactBindings = mock(CompactServiceBindingRepository.class);
+        operationLeases = mock(OperationLeases.class);
+        migrator = new CompactStorageMigrator(hashInstances, hashBindings, compactInstances, compactBindings, operationLeases);
+        when(hashBindings.findAll()).thenReturn(Collections.emptyList());
+    }
+
+    @Test
+    public void testMovesEachHashRecord() {
+        ServiceInstance hash = TestConfig.defaultsServiceInstance(TestConfig.SI_ID);
+        hash.setLastOperation(new GetLastServiceOperationResponse().withOperationState(OperationState.SUCCEEDED));
+        when(hashInstances.findAll()).thenReturn(Collections.singletonList(hash));
+        when(compactInstances.getId(hash)).thenReturn(TestConfig.SI_ID);
+        when(operationLeases.tryLock(CompactStorageMigrator.MIGRATION_LOCK)).thenReturn(true);
+
+        migrator.migrate();
+
+        verify(compactInstances).migrate(TestConfig.SI_ID);
+        verify(hashBindings).findAll();
+        verify(operationLeases).unlock(CompactStorageMigrator.MIGRATION_LOCK);
+    }
+
+    @Test
+    public void testStopsWhenTheLockIsLost() {
+        List<ServiceInstance> hashes = new ArrayList<>();
+        for (int i = 0; i < CompactStorageMigrator.RENEW_EVERY * 2; i++) {
+            ServiceInstance hash = TestConfig.defaultsServiceInstance("si" + i);
+            when(compactInstances.getId(hash)).thenReturn("si" + i);
+            hashes.add(hash);
+        }
+        when(hashInstances.findAll()).thenReturn(hashes);
+        when(operationLeases.tryLock(CompactStorageMigrator.MIGRATION_LOCK)).thenReturn(true, false);
+
+        migrator.migrate();
+
+        verify(compactInstances, times(CompactStorageMigrator.RENEW_EVERY - 1)).migrate(anyString());
+        verify(hashBindings, never()).findAll();
+    }
+
+    @Test
+    public void testSkipsWithoutLock() {
+        when(operationLeases.tryLock(CompactStorageMigrator.MIGRATION_LOCK)).thenReturn(false);
+
+        migrator.migrate();
+
+        verify(hashInstances, never()).findAll();
+        verify(compactInstances, never()).migrate(anyString());
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2017-Present Pivotal Software, Inc. All rights reserved.
+ * <p>
+ * This program and the accompanying materials are made available under
+ * the terms of the under the Apache License, Version 2.0 (the "License”);
+ * you may not use this file except in compliance with the License.
+ * <p>
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * <p>
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.pivotal.ecosystem.ece;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.cloud.servicebroker.model.GetLastServiceOperationResponse;
+import org.springframework.cloud.servicebroker.model.OperationState;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.contains;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.startsWith;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest
+public class CredentialPoolTest {
+
+    @Autowired
+    private CredentialStore credentialStore;
+
+    @Autowired
+    private EceRepo eceRepo;
+
+    @Autowired
+    private EceClient eceClient;
+
+    @Autowired
+    private ServiceInstanceRepository serviceInstanceRepository;
+
+    @Autowired
+    private OperationLeases operationLeases;
+
+    @Autowired
+    private EceMetrics eceMetrics;
+
+    private CredentialPool credentialPool;
+
+    @Before
+    public void setUp() {
+        credentialPool = new CredentialPool(credentialStore, eceClient, serviceInstanceRepository, operationLeases, eceMetrics, 2, 20);
+    }
+
+    private static ServiceInstance created() {
+        ServiceInstance instance = TestConfig.defaultsServiceInstance(TestConfig.SI_ID);
+        instance.getClusterParams().put(ClusterConfig.eceApiKeys.elasticsearch_cluster_id.name(), TestConfig.CLUSTER_ID);
+        instance.setLastOperation(new GetLastServiceOperationResponse().withOperationState(OperationState.SUCCEEDED).withDescription("created."));
+        return instance;
+    }
+
+    @Test
+    public void testTakeFromPool() {
+        BindingCredential pooled = BindingCredential.generate(TestConfig.CLUSTER_ID);
+        when(credentialStore.take(TestConfig.SI_ID)).thenReturn(pooled);
+
+        assertSame(pooled, credentialPool.take(created()));
+        verify(eceRepo, never()).putUser(anyString(), anyString(), any());
+        assertEquals(1, credentialPool.getHits());
+    }
+
+    @Test
+    public void testEmptyPoolMintsInline() {
+        BindingCredential c = credentialPool.take(created());
+
+        assertTrue(c.getUsername().startsWith(BindingCredential.USERNAME_PREFIX));
+        verify(eceRepo).putUser(eq(TestConfig.CLUSTER_ID), eq(c.getUsername()), eq("{\"password\":\"" + c.getPassword() + "\",\"roles\":[\"superuser\"]}"));
+        assertEquals(1, credentialPool.getMisses());
+        assertEquals(1, credentialPool.getMinted());
+    }
+
+    @Test
+    public void testCredentialForAnotherClusterIsDiscarded() {
+        BindingCredential stale = BindingCredential.generate("anotherClusterId");
+        when(credentialStore.take(TestConfig.SI_ID)).thenReturn(stale);
+
+        BindingCredential c = credentialPool.take(created());
+
+        assertNotEquals(stale.getUsername(), c.getUsername());
+        verify(eceRepo).deleteUser("anotherClusterId", stale.getUsername());
+        verify(eceRepo).putUser(eq(TestConfig.CLUSTER_ID), eq(c.getUsername()), any());
+    }
+
+    @Test
+    public void testTrackRegistersCreatedAndReleasesDeleted() {
+        ServiceInstance instance = created();
+        credentialPool.track(instance);
+        verify(credentialStore).register(TestConfig.SI_ID);
+
+        instance.getLastOperation().withDeleteOperation(true);
+        credentialPool.track(instance);
+        verify(credentialStore).release(TestConfig.SI_ID);
+    }
+
+    @Test
+    public void testRefillTopsUpPool() {
+        when(operationLeases.tryLock(CredentialPool.REFILL_LOCK)).thenReturn(true);
+        when(credentialStore.getInstances()).thenReturn(Collections.singleton(TestConfig.SI_ID));
+        when(serviceInstanceRepository.findOne(TestConfig.SI_ID)).thenReturn(created());
+        when(credentialStore.size(TestConfig.SI_ID)).thenReturn(0L);
+        when(credentialStore.add(eq(TestConfig.SI_ID), any(BindingCredential.class))).thenReturn(true);
+
+        credentialPool.refill();
+
+        verify(eceRepo, times(2)).putUser(eq(TestConfig.CLUSTER_ID), startsWith(BindingCredential.USERNAME_PREFIX), contains("superuser"));
+        verify(credentialStore, times(2)).add(eq(TestConfig.SI_ID), any(BindingCredential.class));
+        verify(operationLeases).unlock(CredentialPool.REFILL_LOCK);
+    }
+
+    @Test
+    public void testRefillOfReleasedPoolDiscardsMintedUser() {
+        when(operationLeases.tryLock(CredentialPool.REFILL_LOCK)).thenReturn(true);
+        when(credentialStore.getInstances()).thenReturn(Collections.singleton(TestConfig.SI_ID));
+        when(serviceInstanceRepository.findOne(TestConfig.SI_ID)).thenReturn(created());
+        when(credentialStore.size(TestConfig.SI_ID)).thenReturn(0L);
+        when(credentialStore.add(eq(TestConfig.SI_ID), any(BindingCredential.class))).thenReturn(false);
+
+        credentialPool.refill();
+
+        verify(eceRepo, times(1)).putUser(eq(TestConfig.CLUSTER_ID), anyString(), any());
+        verify(eceRepo).deleteUser(eq(TestConfig.CLUSTER_ID), startsWith(BindingCredential.USERNAME_PREFIX));
+    }
+
+    @Test
+    public void testRefillDropsPoolOfDeletedInstance() {
+        when(operationLeases.tryLock(CredentialPool.REFILL_LOCK)).thenReturn(true);
+        when(credentialStore.getInstances()).thenReturn(Collections.singleton(TestConfig.SI_ID));
+
+        credentialPool.refill();
+
+        verify(credentialStore).release(TestConfig.SI_ID);
+        verify(eceRepo, never()).putUser(anyString(), anyString(), any());
+    }
+
+    @Test
+    public void testRefillStopsWhenTheLockIsLost() {
+        when(operationLeases.tryLock(CredentialPool.REFILL_LOCK)).thenReturn(true, true, true, false);
+        when(credentialStore.getInstances()).thenReturn(Collections.singleton(TestConfig.SI_ID));
+        when(serviceInstanceRepository.findOne(TestConfig.SI_ID)).thenReturn(created());
+        when(credentialStore.size(TestConfig.SI_ID)).thenReturn(0L);
+        when(credentialStore.add(eq(TestConfig.SI_ID), any(BindingCredential.class))).thenReturn(true);
+
+        credentialPool.refill();
+
+        //locked, renewed for the instance and its first mint, then taken by another broker
+        verify(eceRepo, times(1)).putUser(eq(TestConfig.CLUSTER_ID), anyString(), any());
+        verify(credentialStore, times(1)).add(eq(TestConfig.SI_ID), any(BindingCredential.class));
+    }
+}
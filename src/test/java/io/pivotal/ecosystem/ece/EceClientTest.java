@@ -17,6 +17,7 @@
 
 package io.pivotal.ecosystem.ece;
 
+import feign.Response;
 import lombok.extern.slf4j.Slf4j;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -25,12 +26,18 @@ import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.test.context.junit4.SpringRunner;
 
 import java.io.IOException;
+import java.util.Collections;
 
 import static io.pivotal.ecosystem.ece.TestConfig.CLUSTER_ID;
 import static io.pivotal.ecosystem.ece.TestConfig.CLUSTER_NAME;
 import static junit.framework.TestCase.assertFalse;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.atMost;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @RunWith(SpringRunner.class)
@@ -47,9 +54,16 @@ public class EceClientTest {
     @Autowired
     private EceConfig eceConfig;
 
+    @Autowired
+    private ClusterStatusEngine clusterStatusEngine;
+
+    @Autowired
+    private ClusterNameRepository clusterNameRepository;
+
     @Test
     public void testGetClusterStatus() throws Exception {
-        when(eceRepo.getClusterInfo(any(String.class))).thenReturn(TestConfig.fromJson("clusterInfo.json"));
+        when(eceRepo.getClustersInfo()).thenReturn(TestConfig.responseFromFile("clustersInfo.json"));
+        clusterStatusEngine.refresh();
         ServiceInstance instance = TestConfig.defaultsServiceInstance(CLUSTER_NAME);
         instance.getClusterParams().put(ClusterConfig.eceApiKeys.elasticsearch_cluster_id.name(), CLUSTER_ID);
 
@@ -59,24 +73,63 @@ public class EceClientTest {
 
     @Test
     public void testGetKibanaEnabled() throws IOException {
-        when(eceRepo.getClusterInfo(any(String.class))).thenReturn(TestConfig.fromJson("clusterInfo.json"));
-        when(eceRepo.createKibana(any(Object.class))).thenReturn(TestConfig.fromJson("createKibanaResponse.json"));
+        when(eceRepo.getClustersInfo()).thenReturn(TestConfig.responseFromFile("clustersInfo.json"));
+        clusterStatusEngine.refresh();
+        when(eceRepo.createKibana(any(Object.class))).thenReturn(TestConfig.fromJson("createKibanaResponse.json", CreateKibanaResponse.class));
         ServiceInstance instance = TestConfig.defaultsServiceInstance(CLUSTER_NAME);
         instance.getClusterParams().put(ClusterConfig.eceApiKeys.elasticsearch_cluster_id.name(), CLUSTER_ID);
         instance.getKibanaParams().put(KibanaConfig.kibanaApiKeys.kibana_cluster_id.name(), "12345");
         instance.setKibanaWanted(true);
-        Object o = eceRepo.createKibana(TestConfig.fromJson("createKibanaRequestBody.json"));
+        CreateKibanaResponse o = eceRepo.createKibana(TestConfig.fromJson("createKibanaRequestBody.json"));
         instance.processCreateKibanaResponse(o, eceConfig);
         assertTrue(eceClient.isKibanaEnabled(instance));
     }
 
+    @Test
+    public void testUnknownClusterNotStarted() throws Exception {
+        when(eceRepo.getClustersInfo()).thenReturn(TestConfig.responseFromFile("clustersInfo.json"));
+        clusterStatusEngine.refresh();
+        ServiceInstance instance = TestConfig.defaultsServiceInstance(CLUSTER_NAME);
+        instance.getClusterParams().put(ClusterConfig.eceApiKeys.elasticsearch_cluster_id.name(), "notInTheListing");
+
+        assertFalse(eceClient.isClusterStarted(instance));
+        assertFalse(eceClient.isClusterStopped(instance));
+        verify(eceRepo, never()).getClusterInfo(any(String.class));
+    }
+
     @Test
     public void testClusterExists() throws IOException {
-        when(eceRepo.getClustersInfo()).thenReturn(TestConfig.fromJson("clustersInfo.json"));
+        when(eceRepo.getClustersInfo()).thenReturn(TestConfig.responseFromFile("clustersInfo.json"));
+        when(clusterNameRepository.findAll()).thenReturn(Collections.emptyList());
         ServiceInstance instance = TestConfig.defaultsServiceInstance("foo");
         assertFalse(eceClient.clusterExists(instance));
 
         instance = TestConfig.defaultsServiceInstance("admin-console-elasticsearch");
         assertTrue(eceClient.clusterExists(instance));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testClusterExistsUsesIndex() throws IOException {
+        when(eceRepo.getClustersInfo()).thenReturn(TestConfig.responseFromFile("clustersInfo.json"));
+        when(clusterNameRepository.findAll()).thenReturn(Collections.emptyList());
+        assertTrue(eceClient.clusterExists(TestConfig.defaultsServiceInstance("logging-and-metrics")));
+        assertFalse(eceClient.clusterExists(TestConfig.defaultsServiceInstance("bar")));
+        assertTrue(eceClient.clusterExists(TestConfig.defaultsServiceInstance("admin-console-elasticsearch")));
+        verify(eceRepo, atMost(1)).getClustersInfo();
+    }
+
+    @Test
+    public void testFailedListingKeepsSnapshot() throws Exception {
+        when(eceRepo.getClustersInfo()).thenReturn(TestConfig.responseFromFile("clustersInfo.json"));
+        clusterStatusEngine.refresh();
+        long snapshotTime = clusterStatusEngine.getSnapshotTime();
+
+        //an error document is not an empty listing
+        when(eceRepo.getClustersInfo()).thenReturn(Response.create(503, "Service Unavailable", Collections.emptyMap(),
+                "{\"errors\":[{\"message\":\"unavailable\"}]}".getBytes()));
+        clusterStatusEngine.refresh();
+
+        assertEquals(snapshotTime, clusterStatusEngine.getSnapshotTime());
+        assertNotNull(clusterStatusEngine.getStatus(CLUSTER_ID));
+    }
+}
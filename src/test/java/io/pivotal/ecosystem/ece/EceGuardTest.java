@@ -0,0 +1,220 @@
+/*
+ * Copyright (C) 2017-Present Pivotal Software, Inc. All rights reserved.
+ * <p>
+ * This program and the accompanying materials are made available under
+ * the terms of the under the Apache License, Version 2.0 (the "License”);
+ * you may not use this file except in compliance with the License.
+ * <p>
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * <p>
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.pivotal.ecosystem.ece;
+
+import feign.FeignException;
+import feign.Response;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class EceGuardTest {
+
+    private static FeignException error(int status) {
+        return FeignException.errorStatus("x", Response.create(status, "error", Collections.emptyMap(), new byte[0]));
+    }
+
+    @Test
+    public void testBreakerOpensAndRecovers() throws Exception {
+        EceRepo repo = mock(EceRepo.class);
+        EceGuard guard = new EceGuard(new CircuitBreaker("test", 3, 100), new AdaptiveLimit(10, 1, 10, 3.0, 0.9), 0);
+        EceRepo guarded = guard.wrap(EceRepo.class, repo);
+
+        //ece answering 404 is not ece being down
+        doThrow(error(404)).when(repo).deleteCluster("id");
+        for (int i = 0; i < 5; i++) {
+            expect(guarded, FeignException.class);
+        }
+        assertEquals(CircuitBreaker.State.CLOSED, guard.getState());
+
+        doThrow(error(503)).when(repo).deleteCluster("id");
+        for (int i = 0; i < 3; i++) {
+            expect(guarded, FeignException.class);
+        }
+        assertEquals(CircuitBreaker.State.OPEN, guard.getState());
+
+        //open: fail fast without calling ece
+        reset(repo);
+        expect(guarded, EceUnavailableException.class);
+        verify(repo, never()).deleteCluster("id");
+        assertEquals(1, guard.getRejected());
+
+        //after the open time a trial call goes through and closes the breaker
+        Thread.sleep(150);
+        guarded.deleteCluster("id");
+        verify(repo, times(1)).deleteCluster("id");
+        assertEquals(CircuitBreaker.State.CLOSED, guard.getState());
+    }
+
+    @Test
+    public void testErrorListingIsAFailure() {
+        EceRepo repo = mock(EceRepo.class);
+        EceGuard guard = new EceGuard(new CircuitBreaker("test", 1, 1000), new AdaptiveLimit(10, 1, 10, 3.0, 0.9), 0);
+        EceRepo guarded = guard.wrap(EceRepo.class, repo);
+
+        //feign doesn't check the status of raw responses, the guard has to
+        when(repo.getClustersInfo()).thenReturn(Response.create(503, "Service Unavailable", Collections.emptyMap(), new byte[0]));
+        try {
+            guarded.getClustersInfo();
+            fail("expected the 503 to be thrown");
+        } catch (FeignException e) {
+            assertEquals(503, e.status());
+        }
+        assertEquals(CircuitBreaker.State.OPEN, guard.getState());
+        assertEquals(0, guard.getInFlight());
+    }
+
+    @Test
+    public void testListingHoldsSlotUntilBodyIsClosed() throws Exception {
+        EceRepo repo = mock(EceRepo.class);
+        EceGuard guard = new EceGuard(new CircuitBreaker("test", 1, 1000), new AdaptiveLimit(10, 1, 10, 3.0, 0.9), 0);
+        EceRepo guarded = guard.wrap(EceRepo.class, repo);
+
+        when(repo.getClustersInfo()).thenReturn(Response.create(200, "OK", Collections.emptyMap(), "{}", StandardCharsets.UTF_8));
+        Response response = guarded.getClustersInfo();
+        assertEquals(1, guard.getInFlight());
+
+        response.close();
+        assertEquals(0, guard.getInFlight());
+        assertEquals(CircuitBreaker.State.CLOSED, guard.getState());
+    }
+
+    @Test
+    public void testFailedBodyReadIsAFailure() throws Exception {
+        EceRepo repo = mock(EceRepo.class);
+        EceGuard guard = new EceGuard(new CircuitBreaker("test", 1, 1000), new AdaptiveLimit(10, 1, 10, 3.0, 0.9), 0);
+        EceRepo guarded = guard.wrap(EceRepo.class, repo);
+
+        InputStream broken = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                throw new SocketTimeoutException("Read timed out");
+            }
+        };
+        when(repo.getClustersInfo()).thenReturn(Response.create(200, "OK", Collections.emptyMap(), broken, null));
+        try (Response response = guarded.getClustersInfo()) {
+            response.body().asInputStream().read();
+            fail("expected the read to time out");
+        } catch (SocketTimeoutException e) {
+            //expected
+        }
+        assertEquals(0, guard.getInFlight());
+        assertEquals(CircuitBreaker.State.OPEN, guard.getState());
+    }
+
+    @Test
+    public void testFailedTrialReopens() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker("test", 1, 50);
+        breaker.onFailure();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+        Thread.sleep(100);
+        assertTrue(breaker.allow());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        //only one trial at a time
+        assertFalse(breaker.allow());
+
+        breaker.onFailure();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.allow());
+    }
+
+    @Test
+    public void testLimitBoundsConcurrentCalls() throws Exception {
+        EceRepo repo = mock(EceRepo.class);
+        EceGuard guard = new EceGuard(new CircuitBreaker("test", 5, 1000), new AdaptiveLimit(2, 1, 2, 3.0, 0.9), 0);
+        EceRepo guarded = guard.wrap(EceRepo.class, repo);
+
+        CountDownLatch entered = new CountDownLatch(2);
+        CountDownLatch release = new CountDownLatch(1);
+        doAnswer(i -> {
+            entered.countDown();
+            release.await();
+            return null;
+        }).when(repo).shutdownCluster("id");
+
+        ExecutorService es = Executors.newFixedThreadPool(2);
+        es.execute(() -> guarded.shutdownCluster("id"));
+        es.execute(() -> guarded.shutdownCluster("id"));
+        entered.await();
+        assertEquals(2, guard.getInFlight());
+
+        //a third caller is turned away rather than blocked, and that doesn't count against ece
+        try {
+            guarded.shutdownCluster("id");
+            fail("expected the limit to reject the call");
+        } catch (EceUnavailableException e) {
+            assertEquals(1, guard.getRejected());
+        }
+        assertEquals(CircuitBreaker.State.CLOSED, guard.getState());
+
+        release.countDown();
+        es.shutdown();
+        while (guard.getInFlight() > 0) {
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void testLimitAdapts() {
+        AdaptiveLimit limit = new AdaptiveLimit(10, 2, 20, 2.0, 0.5);
+
+        //fast calls grow the limit, one step per limit's worth of calls
+        for (int i = 0; i < 100; i++) {
+            limit.release(1000, false);
+        }
+        assertTrue(limit.getLimit() > 10);
+
+        //slow calls and failures cut it, down to the floor
+        int grown = limit.getLimit();
+        limit.release(100000, false);
+        assertTrue(limit.getLimit() < grown);
+        for (int i = 0; i < 20; i++) {
+            limit.release(1000, true);
+        }
+        assertEquals(2, limit.getLimit());
+    }
+
+    private void expect(EceRepo guarded, Class<? extends Exception> type) {
+        try {
+            guarded.deleteCluster("id");
+            fail("expected " + type.getSimpleName());
+        } catch (Exception e) {
+            assertTrue(type.isInstance(e));
+        }
+    }
+}
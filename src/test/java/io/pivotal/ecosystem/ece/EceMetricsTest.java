@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2017-Present Pivotal Software, Inc. All rights reserved.
+ * <p>
+ * This program and the accompanying materials are made available under
+ * the terms of the under the Apache License, Version 2.0 (the "License”);
+ * you may not use this file except in compliance with the License.
+ * <p>
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * <p>
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.pivotal.ecosystem.ece;
+
+import feign.FeignException;
+import feign.Response;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Test;
+import org.springframework.cloud.servicebroker.exception.ServiceBrokerException;
+import org.springframework.cloud.servicebroker.exception.ServiceInstanceExistsException;
+
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class EceMetricsTest {
+
+    @Test
+    public void testOutcome() {
+        assertEquals(EceMetrics.SUCCESS, EceMetrics.outcome(null));
+        assertEquals(EceMetrics.CLIENT_ERROR, EceMetrics.outcome(FeignException.errorStatus("x", Response.create(404, "Not Found", Collections.emptyMap(), new byte[0]))));
+        assertEquals(EceMetrics.SERVER_ERROR, EceMetrics.outcome(FeignException.errorStatus("x", Response.create(503, "Unavailable", Collections.emptyMap(), new byte[0]))));
+        assertEquals(EceMetrics.CLIENT_ERROR, EceMetrics.outcome(new ServiceInstanceExistsException("id", "sd")));
+        assertEquals(EceMetrics.ERROR, EceMetrics.outcome(new ServiceBrokerException("boom")));
+        assertEquals(EceMetrics.ERROR, EceMetrics.outcome(new IllegalStateException()));
+    }
+
+    @Test
+    public void testMeteredProxy() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        EceMetrics metrics = new EceMetrics(registry);
+
+        ServiceInstanceRepository repo = mock(ServiceInstanceRepository.class);
+        when(repo.exists("a")).thenReturn(true);
+        when(repo.findOne("b")).thenThrow(new IllegalStateException("redis down"));
+
+        ServiceInstanceRepository metered = MeteredProxy.wrap(ServiceInstanceRepository.class, repo, metrics,
+                EceMetrics.REPOSITORY_CALLS, "repository", "instances");
+
+        assertTrue(metered.exists("a"));
+        assertTrue(metered.exists("a"));
+        try {
+            metered.findOne("b");
+            fail("expected the repository exception.");
+        } catch (IllegalStateException e) {
+            assertEquals("redis down", e.getMessage());
+        }
+        metered.toString();
+
+        Timer exists = registry.find(EceMetrics.REPOSITORY_CALLS).tags("repository", "instances", "method", "exists", "outcome", EceMetrics.SUCCESS).timer();
+        assertNotNull(exists);
+        assertEquals(2, exists.count());
+
+        Timer findOne = registry.find(EceMetrics.REPOSITORY_CALLS).tags("method", "findOne", "outcome", EceMetrics.ERROR).timer();
+        assertNotNull(findOne);
+        assertEquals(1, findOne.count());
+
+        assertNull(registry.find(EceMetrics.REPOSITORY_CALLS).tags("method", "toString").timer());
+        assertNotNull(registry.find(EceMetrics.REPOSITORY_CALLS).tags("method", "exists", "plan", EceMetrics.NO_PLAN).timer());
+    }
+
+    @Test
+    public void testPlanTag() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        EceMetrics metrics = new EceMetrics(registry);
+        ServiceInstanceRepository metered = MeteredProxy.wrap(ServiceInstanceRepository.class, mock(ServiceInstanceRepository.class), metrics,
+                EceMetrics.REPOSITORY_CALLS, "repository", "instances");
+
+        //from the instance passed in, or else from the plan the caller is working on
+        metered.save(TestConfig.defaultsServiceInstance(TestConfig.SI_ID));
+        EceMetrics.withPlan("aPlan", () -> metered.findOne(TestConfig.SI_ID));
+        metered.exists(TestConfig.SI_ID);
+
+        assertEquals(1, registry.find(EceMetrics.REPOSITORY_CALLS).tags("method", "save", "plan", TestConfig.PLAN_ID).timer().count());
+        assertEquals(1, registry.find(EceMetrics.REPOSITORY_CALLS).tags("method", "findOne", "plan", "aPlan").timer().count());
+        assertEquals(1, registry.find(EceMetrics.REPOSITORY_CALLS).tags("method", "exists", "plan", EceMetrics.NO_PLAN).timer().count());
+        assertEquals(EceMetrics.NO_PLAN, EceMetrics.currentPlan());
+    }
+}
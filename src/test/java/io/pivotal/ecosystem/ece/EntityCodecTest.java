@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2017-Present Pivotal Software, Inc. All rights reserved.
+ * <p>
+ * This program and the accompanying materials are made available under
+ * the terms of the under the Apache License, Version 2.0 (the "License”);
+ * you may not use this file except in compliance with the License.
+ * <p>
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * <p>
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.ecosystem.ece;
+
+import org.junit.Test;
+import org.springframework.cloud.servicebroker.model.CreateServiceInstanceBindingRequest;
+import org.springframework.cloud.servicebroker.model.GetLastServiceOperationResponse;
+import org.springframework.cloud.servicebroker.model.OperationState;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class EntityCodecTest {
+
+    @Test
+    public void testServiceInstanceRoundTrip() throws Exception {
+        ServiceInstance instance = TestConfig.customServiceInstance(TestConfig.SI_ID);
+        instance.processCreateClusterResponse(TestConfig.fromJson("createClusterResponse.json", CreateClusterResponse.class), new EceConfig("domain", "1234"));
+        instance.setKibanaWanted(true);
+        instance.setLastOperation(new GetLastServiceOperationResponse()
+                .withOperationState(OperationState.IN_PROGRESS)
+                .withDescription("deleting....")
+                .withDeleteOperation(true));
+
+        byte[] b = EntityCodec.encode(instance);
+        assertEquals(EntityCodec.VERSION_1, b[0]);
+        assertEquals(instance, EntityCodec.decodeServiceInstance(b));
+    }
+
+    @Test
+    public void testServiceInstanceNoLastOperation() {
+        ServiceInstance instance = TestConfig.defaultsServiceInstance(TestConfig.SI_ID);
+
+        ServiceInstance decoded = EntityCodec.decodeServiceInstance(EntityCodec.encode(instance));
+        assertNull(decoded.getLastOperation());
+        assertEquals(instance, decoded);
+    }
+
+    @Test
+    public void testServiceBindingRoundTrip() {
+        Map<String, Object> params = new HashMap<>();
+        params.put("aKey", "aValue");
+        params.put("nested", Collections.singletonMap("n", 1));
+        CreateServiceInstanceBindingRequest req = new CreateServiceInstanceBindingRequest(TestConfig.SD_ID, TestConfig.PLAN_ID, "anAppGuid",
+                Collections.singletonMap("app_guid", "anAppGuid"), params);
+        req.withBindingId("aBindingId");
+        req.withServiceInstanceId(TestConfig.SI_ID);
+
+        ServiceBinding binding = new ServiceBinding(req);
+        binding.getCredentials().put("username", "aUser");
+
+        ServiceBinding decoded = EntityCodec.decodeServiceBinding(EntityCodec.encode(binding));
+        assertEquals(binding, decoded);
+        assertEquals(TestConfig.SI_ID, decoded.getService_instance_id());
+        assertTrue(decoded.getParameters().get("nested") instanceof Map);
+    }
+}
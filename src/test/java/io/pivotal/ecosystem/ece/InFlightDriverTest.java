@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2017-Present Pivotal Software, Inc. All rights reserved.
+ * <p>
+ * This program and the accompanying materials are made available under
+ * the terms of the under the Apache License, Version 2.0 (the "License”);
+ * you may not use this file except in compliance with the License.
+ * <p>
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * <p>
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.pivotal.ecosystem.ece;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class InFlightDriverTest {
+
+    @Test
+    public void testFailedAdvanceDoesNotStopThePass() {
+        EceBroker eceBroker = mock(EceBroker.class);
+        OperationLeases operationLeases = mock(OperationLeases.class);
+        when(operationLeases.getInFlight()).thenReturn(new LinkedHashSet<>(Arrays.asList("a", "b")));
+        doThrow(new IllegalStateException("no cluster")).when(eceBroker).advance("a");
+
+        new InFlightDriver(eceBroker, operationLeases, 200).drive();
+
+        verify(eceBroker).advance("b");
+    }
+}
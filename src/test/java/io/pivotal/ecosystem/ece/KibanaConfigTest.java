@@ -68,7 +68,7 @@ public class KibanaConfigTest {
 
     @Test
     public void testExtractCreds() throws IOException {
-        Object o = TestConfig.fromJson("createKibanaResponse.json");
+        CreateKibanaResponse o = TestConfig.fromJson("createKibanaResponse.json", CreateKibanaResponse.class);
         assertNotNull(o);
 
         ServiceInstance instance = TestConfig.defaultsServiceInstance(TestConfig.SI_ID);
@@ -18,25 +18,53 @@
 package io.pivotal.ecosystem.ece;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import feign.FeignException;
+import feign.Response;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.cloud.servicebroker.controller.ServiceInstanceController;
+import org.springframework.cloud.servicebroker.model.CreateServiceInstanceRequest;
 import org.springframework.cloud.servicebroker.model.GetLastServiceOperationResponse;
 import org.springframework.cloud.servicebroker.model.OperationState;
 import org.springframework.http.MediaType;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.util.ReflectionTestUtils;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
 
 import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 @RunWith(SpringRunner.class)
@@ -54,12 +82,27 @@ public class MVCTest {
     @Autowired
     private EceRepo eceRepo;
 
+    @Autowired
+    private EceClient eceClient;
+
     @Autowired
     private CatalogService catalogService;
 
     @Autowired
     private ServiceInstanceRepository serviceInstanceRepository;
 
+    @Autowired
+    private OperationLeases operationLeases;
+
+    @Autowired
+    private Reservations reservations;
+
+    @Autowired
+    private ClusterNameRepository clusterNameRepository;
+
+    @Autowired
+    private ClusterStatusEngine clusterStatusEngine;
+
     @Before
     public void setUp() {
         mockMvc = MockMvcBuilders.standaloneSetup(new ServiceInstanceController(catalogService, eceBroker))
@@ -71,13 +114,210 @@ public class MVCTest {
         ServiceInstance si = TestConfig.defaultsServiceInstance(ID);
         si.setLastOperation(new GetLastServiceOperationResponse().withOperationState(OperationState.IN_PROGRESS).withDescription("creating."));
         when(serviceInstanceRepository.findOne(ID)).thenReturn(si);
-        when(eceRepo.getClusterInfo(any(String.class))).thenReturn(TestConfig.fromJson("clusterInfo.json"));
+        when(serviceInstanceRepository.latest(ID)).thenReturn(si);
+        when(operationLeases.acquire(ID)).thenReturn(true);
+        when(eceRepo.getClustersInfo()).thenReturn(TestConfig.responseFromFile("clustersInfo.json"));
         this.mockMvc.perform(get("/v2/service_instances/" + ID + "/last_operation?service_id=" + TestConfig.SD_ID + "&plan_id=" + TestConfig.PLAN_ID)
                 .contentType(MediaType.APPLICATION_JSON))
                 .andExpect(status().isOk());
 //                .andDo(print());
     }
 
+    @Test
+    public void testLastOperationLeasedElsewhere() throws Exception {
+        ServiceInstance si = TestConfig.defaultsServiceInstance(ID);
+        si.setLastOperation(new GetLastServiceOperationResponse().withOperationState(OperationState.IN_PROGRESS).withDescription("creating."));
+        when(serviceInstanceRepository.findOne(ID)).thenReturn(si);
+        when(operationLeases.acquire(ID)).thenReturn(false);
+
+        this.mockMvc.perform(get("/v2/service_instances/" + ID + "/last_operation?service_id=" + TestConfig.SD_ID + "&plan_id=" + TestConfig.PLAN_ID)
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.state").value(OperationState.IN_PROGRESS.getValue()));
+
+        verify(serviceInstanceRepository, never()).save(any(ServiceInstance.class));
+        verify(serviceInstanceRepository, never()).update(any(ServiceInstance.class), anyMapOf(String.class, Object.class));
+    }
+
+    @Test
+    public void testRepeatedCreate() throws Exception {
+        ServiceInstance si = TestConfig.defaultsServiceInstance(ID);
+        si.setLastOperation(new GetLastServiceOperationResponse().withOperationState(OperationState.IN_PROGRESS).withDescription("creating...."));
+        when(serviceInstanceRepository.findOne(ID)).thenReturn(si);
+        when(reservations.reserveInstance(any(CreateServiceInstanceRequest.class))).thenReturn(Reservations.Result.SAME);
+
+        CreateServiceInstanceRequest req = new CreateServiceInstanceRequest(TestConfig.SD_ID, TestConfig.PLAN_ID, "anOrgGuid", "aSpaceGuid", null);
+        this.mockMvc.perform(put("/v2/service_instances/" + ID + "?accepts_incomplete=true")
+                .content(toJson(req))
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isAccepted());
+
+        verify(eceRepo, never()).createCluster(any());
+        verify(serviceInstanceRepository, never()).save(any(ServiceInstance.class));
+    }
+
+    @Test
+    public void testRepeatedCreateOfDeletedInstance() throws Exception {
+        ServiceInstance si = TestConfig.defaultsServiceInstance(ID);
+        si.setLastOperation(new GetLastServiceOperationResponse().withOperationState(OperationState.SUCCEEDED).withDescription("deleted.").withDeleteOperation(true));
+        when(serviceInstanceRepository.findOne(ID)).thenReturn(si);
+        when(reservations.reserveInstance(any(CreateServiceInstanceRequest.class))).thenReturn(Reservations.Result.SAME);
+
+        CreateServiceInstanceRequest req = new CreateServiceInstanceRequest(TestConfig.SD_ID, TestConfig.PLAN_ID, "anOrgGuid", "aSpaceGuid", null);
+        this.mockMvc.perform(put("/v2/service_instances/" + ID + "?accepts_incomplete=true")
+                .content(toJson(req))
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isConflict());
+
+        verify(eceRepo, never()).createCluster(any());
+    }
+
+    @Test
+    public void testDeleteReleasesReservation() throws Exception {
+        when(serviceInstanceRepository.findOne(ID)).thenReturn(creating());
+        doThrow(FeignException.errorStatus("x", Response.create(404, "Not Found", Collections.emptyMap(), new byte[0])))
+                .when(eceRepo).shutdownCluster(TestConfig.CLUSTER_ID);
+
+        this.mockMvc.perform(delete("/v2/service_instances/" + ID + "?accepts_incomplete=true&service_id=" + TestConfig.SD_ID + "&plan_id=" + TestConfig.PLAN_ID))
+                .andExpect(status().isAccepted());
+
+        verify(reservations).releaseInstance(ID);
+    }
+
+    @Test
+    public void testConflictingCreate() throws Exception {
+        when(reservations.reserveInstance(any(CreateServiceInstanceRequest.class))).thenReturn(Reservations.Result.CONFLICT);
+
+        CreateServiceInstanceRequest req = new CreateServiceInstanceRequest(TestConfig.SD_ID, TestConfig.PLAN_ID, "anOrgGuid", "aSpaceGuid", null);
+        this.mockMvc.perform(put("/v2/service_instances/" + ID + "?accepts_incomplete=true")
+                .content(toJson(req))
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isConflict());
+
+        verify(eceRepo, never()).createCluster(any());
+    }
+
+    @Test
+    public void testKibanaRequestedWithCluster() throws Exception {
+        when(reservations.reserveInstance(any(CreateServiceInstanceRequest.class))).thenReturn(Reservations.Result.NEW);
+        when(clusterNameRepository.findAll()).thenReturn(Collections.emptyList());
+        when(eceRepo.getClustersInfo()).thenReturn(TestConfig.responseFromFile("clustersInfo.json"));
+        when(eceRepo.createCluster(any())).thenReturn(TestConfig.fromJson("createClusterResponse.json", CreateClusterResponse.class));
+        when(eceRepo.createKibana(any())).thenReturn(TestConfig.fromJson("createKibanaResponse.json", CreateKibanaResponse.class));
+
+        CreateServiceInstanceRequest req = new CreateServiceInstanceRequest(TestConfig.SD_ID, "oneNodeClusterWithKibana", "anOrgGuid", "aSpaceGuid", null);
+        this.mockMvc.perform(put("/v2/service_instances/" + ID + "?accepts_incomplete=true")
+                .content(toJson(req))
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isAccepted());
+
+        //kibana is asked for straight after the cluster, not once the cluster has started
+        verify(eceRepo, timeout(5000)).createCluster(any());
+        verify(eceRepo, timeout(5000)).createKibana(any());
+
+        ArgumentCaptor<ServiceInstance> saved = ArgumentCaptor.forClass(ServiceInstance.class);
+        verify(serviceInstanceRepository, timeout(5000)).update(saved.capture(), anyMapOf(String.class, Object.class));
+        ServiceInstance instance = saved.getValue();
+        assertTrue(instance.isKibanaRequested());
+        assertEquals(TestConfig.CLUSTER_ID, instance.getClusterId());
+    }
+
+    @Test
+    public void testRejectedCreateLeavesNoRecord() throws Exception {
+        when(reservations.reserveInstance(any(CreateServiceInstanceRequest.class))).thenReturn(Reservations.Result.NEW);
+
+        //one thread, no queue, and the thread is busy: the create can't be submitted
+        ThreadPoolTaskExecutor saturated = new ThreadPoolTaskExecutor();
+        saturated.setCorePoolSize(1);
+        saturated.setMaxPoolSize(1);
+        saturated.setQueueCapacity(0);
+        saturated.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+        saturated.initialize();
+        CountDownLatch busy = new CountDownLatch(1);
+        saturated.execute(() -> {
+            try {
+                busy.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+
+        AsyncEceClient asyncEceClient = spy(new AsyncEceClient(eceClient, saturated));
+        doReturn(CompletableFuture.completedFuture(false)).when(asyncEceClient).clusterExists(any(ServiceInstance.class));
+        Object original = ReflectionTestUtils.getField(eceBroker, "asyncEceClient");
+        ReflectionTestUtils.setField(eceBroker, "asyncEceClient", asyncEceClient);
+        try {
+            CreateServiceInstanceRequest req = new CreateServiceInstanceRequest(TestConfig.SD_ID, TestConfig.PLAN_ID, "anOrgGuid", "aSpaceGuid", null);
+            this.mockMvc.perform(put("/v2/service_instances/" + ID + "?accepts_incomplete=true")
+                    .content(toJson(req))
+                    .contentType(MediaType.APPLICATION_JSON))
+                    .andExpect(status().isInternalServerError());
+        } finally {
+            ReflectionTestUtils.setField(eceBroker, "asyncEceClient", original);
+            busy.countDown();
+            saturated.shutdown();
+        }
+
+        //a retry starts from scratch rather than finding a create that will never finish
+        verify(serviceInstanceRepository).delete(ID);
+        verify(operationLeases).setInFlight(ID, false);
+        verify(reservations).releaseInstance(ID);
+        verify(eceRepo, never()).createCluster(any());
+    }
+
+    @Test
+    public void testOneAdvancePerInstanceOnANode() throws Exception {
+        when(eceRepo.getClustersInfo()).thenReturn(TestConfig.responseFromFile("clustersInfo.json"));
+        clusterStatusEngine.refresh();
+        when(serviceInstanceRepository.findOne(ID)).thenAnswer(i -> creating());
+        when(serviceInstanceRepository.latest(ID)).thenAnswer(i -> creating());
+        //the lease is ours for every thread on this node
+        when(operationLeases.acquire(ID)).thenReturn(true);
+
+        //the first advance finds the cluster started and blocks saving that
+        CountDownLatch saving = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        doAnswer(i -> {
+            saving.countDown();
+            release.await();
+            return null;
+        }).when(serviceInstanceRepository).update(any(ServiceInstance.class), anyMapOf(String.class, Object.class));
+
+        ExecutorService es = Executors.newSingleThreadExecutor();
+        Future<?> first = es.submit(() -> eceBroker.advance(ID));
+        assertTrue(saving.await(5, TimeUnit.SECONDS));
+
+        //a second thread on the same node gets the lease too, but must not advance alongside the first
+        eceBroker.advance(ID);
+        release.countDown();
+        first.get(5, TimeUnit.SECONDS);
+        es.shutdown();
+
+        verify(serviceInstanceRepository, times(1)).update(any(ServiceInstance.class), anyMapOf(String.class, Object.class));
+    }
+
+    @Test
+    public void testNewOwnerAdvancesFromStoredState() throws Exception {
+        //the near cache still has the instance creating, the previous owner has already saved it created
+        when(serviceInstanceRepository.findOne(ID)).thenAnswer(i -> creating());
+        ServiceInstance stored = creating();
+        stored.getLastOperation().withOperationState(OperationState.SUCCEEDED).withDescription("created.");
+        when(serviceInstanceRepository.latest(ID)).thenReturn(stored);
+        when(operationLeases.acquire(ID)).thenReturn(true);
+
+        eceBroker.advance(ID);
+
+        verify(serviceInstanceRepository, never()).update(any(ServiceInstance.class), anyMapOf(String.class, Object.class));
+        verify(operationLeases).release(ID);
+    }
+
+    private static ServiceInstance creating() {
+        ServiceInstance si = TestConfig.defaultsServiceInstance(ID);
+        si.getClusterParams().put(ClusterConfig.eceApiKeys.elasticsearch_cluster_id.name(), TestConfig.CLUSTER_ID);
+        si.setLastOperation(new GetLastServiceOperationResponse().withOperationState(OperationState.IN_PROGRESS).withDescription("creating...."));
+        return si;
+    }
+
     public static String toJson(Object object) throws IOException {
         ObjectMapper mapper = new ObjectMapper();
         return mapper.writeValueAsString(object);
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2017-Present Pivotal Software, Inc. All rights reserved.
+ * <p>
+ * This program and the accompanying materials are made available under
+ * the terms of the under the Apache License, Version 2.0 (the "License”);
+ * you may not use this file except in compliance with the License.
+ * <p>
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * <p>
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.pivotal.ecosystem.ece;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class NearCacheTest {
+
+    private NearCache<ServiceInstance> cache(int maxSize, long ttl) {
+        return new NearCache<>("test", maxSize, ttl, EntityCodec::encode, EntityCodec::decodeServiceInstance);
+    }
+
+    @Test
+    public void testReadThrough() {
+        NearCache<ServiceInstance> cache = cache(10, 60000);
+        AtomicInteger loads = new AtomicInteger();
+
+        ServiceInstance si = cache.get(TestConfig.SI_ID, id -> {
+            loads.incrementAndGet();
+            return TestConfig.customServiceInstance(id);
+        });
+        assertNotNull(si);
+
+        ServiceInstance again = cache.get(TestConfig.SI_ID, id -> {
+            loads.incrementAndGet();
+            return null;
+        });
+        assertEquals(si, again);
+        assertNotSame(si, again);
+        assertEquals(1, loads.get());
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(0.5, cache.getHitRate(), 0.0001);
+    }
+
+    @Test
+    public void testMissesNotCached() {
+        NearCache<ServiceInstance> cache = cache(10, 60000);
+        assertNull(cache.get("nope", id -> null));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testHitsAreCopies() {
+        NearCache<ServiceInstance> cache = cache(10, 60000);
+        cache.put(TestConfig.SI_ID, TestConfig.customServiceInstance(TestConfig.SI_ID));
+
+        cache.get(TestConfig.SI_ID, id -> null).setKibanaRequested(true);
+        assertFalse(cache.get(TestConfig.SI_ID, id -> null).isKibanaRequested());
+    }
+
+    @Test
+    public void testLruEviction() {
+        NearCache<ServiceInstance> cache = cache(2, 60000);
+        cache.put("a", TestConfig.customServiceInstance("a"));
+        cache.put("b", TestConfig.customServiceInstance("b"));
+        cache.get("a", id -> null);
+        cache.put("c", TestConfig.customServiceInstance("c"));
+
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictions());
+        assertNotNull(cache.get("a", id -> null));
+        assertNull(cache.get("b", id -> null));
+    }
+
+    @Test
+    public void testTtl() throws Exception {
+        NearCache<ServiceInstance> cache = cache(10, 10);
+        cache.put(TestConfig.SI_ID, TestConfig.customServiceInstance(TestConfig.SI_ID));
+        Thread.sleep(50);
+        assertNull(cache.get(TestConfig.SI_ID, id -> null));
+    }
+
+    @Test
+    public void testInvalidate() {
+        NearCache<ServiceInstance> cache = cache(10, 60000);
+        cache.put(TestConfig.SI_ID, TestConfig.customServiceInstance(TestConfig.SI_ID));
+        cache.invalidate(TestConfig.SI_ID);
+
+        assertNull(cache.get(TestConfig.SI_ID, id -> null));
+        assertEquals(1, cache.getInvalidations());
+    }
+
+    @Test
+    public void testLoadOverlappingInvalidationNotCached() {
+        NearCache<ServiceInstance> cache = cache(10, 60000);
+        ServiceInstance si = cache.get(TestConfig.SI_ID, id -> {
+            //another broker advances the instance while we are reading the old copy
+            cache.invalidate(id);
+            return TestConfig.customServiceInstance(id);
+        });
+
+        assertNotNull(si);
+        assertEquals(0, cache.size());
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2017-Present Pivotal Software, Inc. All rights reserved.
+ * <p>
+ * This program and the accompanying materials are made available under
+ * the terms of the under the Apache License, Version 2.0 (the "License”);
+ * you may not use this file except in compliance with the License.
+ * <p>
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * <p>
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.pivotal.ecosystem.ece;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.cloud.servicebroker.controller.CatalogController;
+import org.springframework.cloud.servicebroker.controller.ServiceInstanceBindingController;
+import org.springframework.cloud.servicebroker.model.CreateServiceInstanceBindingRequest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import static io.pivotal.ecosystem.ece.TestConfig.toJson;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest
+public class PreparedResponseFilterTest {
+
+    private MockMvc mockMvc;
+
+    @Autowired
+    private PreparedResponseFilter preparedResponseFilter;
+
+    @Autowired
+    private CatalogService catalogService;
+
+    @Autowired
+    private EceBroker eceBroker;
+
+    @Autowired
+    private ServiceInstanceRepository serviceInstanceRepository;
+
+    @Autowired
+    private ServiceBindingRepository serviceBindingRepository;
+
+    @Autowired
+    private Reservations reservations;
+
+    @Autowired
+    private CredentialStore credentialStore;
+
+    @Before
+    public void setUp() {
+        mockMvc = MockMvcBuilders.standaloneSetup(new CatalogController(catalogService), new ServiceInstanceBindingController(catalogService, eceBroker))
+                .addFilters(preparedResponseFilter)
+                .build();
+    }
+
+    @Test
+    public void testCatalogEtagAndGzip() throws Exception {
+        MvcResult result = mockMvc.perform(get("/v2/catalog"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.services[0].id").value(TestConfig.SD_ID))
+                .andReturn();
+        String etag = result.getResponse().getHeader(HttpHeaders.ETAG);
+        assertTrue(etag.startsWith("\""));
+
+        mockMvc.perform(get("/v2/catalog").header(HttpHeaders.ACCEPT_ENCODING, "gzip, deflate"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.CONTENT_ENCODING, "gzip"))
+                .andExpect(header().string(HttpHeaders.ETAG, etag));
+
+        long notModified = preparedResponseFilter.getNotModified();
+        mockMvc.perform(get("/v2/catalog").header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isNotModified());
+        assertEquals(notModified + 1, preparedResponseFilter.getNotModified());
+    }
+
+    @Test
+    public void testRepeatedBindIsReplayed() throws Exception {
+        ServiceInstance instance = TestConfig.defaultsServiceInstance(TestConfig.SI_ID);
+        instance.getClusterParams().put(ClusterConfig.eceApiKeys.elasticsearch_cluster_id.name(), TestConfig.CLUSTER_ID);
+        instance.getCredentials().put(ClusterConfig.credentialKeys.username.name(), "elastic");
+        instance.getCredentials().put(ClusterConfig.credentialKeys.host.name(), "domain");
+        when(serviceInstanceRepository.findOne(TestConfig.SI_ID)).thenReturn(instance);
+        when(reservations.reserveBinding(any(CreateServiceInstanceBindingRequest.class))).thenReturn(Reservations.Result.NEW);
+
+        BindingCredential credential = BindingCredential.generate(TestConfig.CLUSTER_ID);
+        when(credentialStore.take(TestConfig.SI_ID)).thenReturn(credential);
+
+        CreateServiceInstanceBindingRequest req = new CreateServiceInstanceBindingRequest(TestConfig.SD_ID, TestConfig.PLAN_ID, "anAppGuid", null);
+        req.withServiceInstanceId(TestConfig.SI_ID);
+        req.withBindingId("aBinding");
+        ServiceBinding binding = new ServiceBinding(req);
+        binding.getCredentials().put(ClusterConfig.credentialKeys.username.name(), credential.getUsername());
+        binding.getCredentials().put(ClusterConfig.credentialKeys.password.name(), credential.getPassword());
+        //not there when the broker checks, there once it has saved
+        when(serviceBindingRepository.findOne("aBinding")).thenReturn(null, binding);
+
+        String body = toJson(req);
+        String url = "/v2/service_instances/" + TestConfig.SI_ID + "/service_bindings/aBinding";
+        mockMvc.perform(put(url).content(body).contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isCreated())
+                .andExpect(jsonPath("$.credentials.username").value(credential.getUsername()))
+                .andExpect(jsonPath("$.credentials.host").value("domain"));
+
+        long replayed = preparedResponseFilter.getReplayed();
+        mockMvc.perform(put(url).content(body).contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.credentials.username").value(credential.getUsername()));
+
+        assertEquals(replayed + 1, preparedResponseFilter.getReplayed());
+        verify(reservations, times(1)).reserveBinding(any(CreateServiceInstanceBindingRequest.class));
+    }
+
+    @Test
+    public void testRepeatedBindInProgressConflicts() throws Exception {
+        ServiceInstance instance = TestConfig.defaultsServiceInstance(TestConfig.SI_ID);
+        when(serviceInstanceRepository.findOne(TestConfig.SI_ID)).thenReturn(instance);
+        when(reservations.reserveBinding(any(CreateServiceInstanceBindingRequest.class))).thenReturn(Reservations.Result.SAME);
+        when(serviceBindingRepository.findOne("pendingBinding")).thenReturn(null);
+
+        CreateServiceInstanceBindingRequest req = new CreateServiceInstanceBindingRequest(TestConfig.SD_ID, TestConfig.PLAN_ID, "anAppGuid", null);
+        req.withServiceInstanceId(TestConfig.SI_ID);
+        req.withBindingId("pendingBinding");
+
+        //the first bind has not saved the binding yet, the retry is told so at once
+        mockMvc.perform(put("/v2/service_instances/" + TestConfig.SI_ID + "/service_bindings/pendingBinding")
+                .content(toJson(req)).contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isConflict());
+    }
+}
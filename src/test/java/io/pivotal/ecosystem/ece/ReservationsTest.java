@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2017-Present Pivotal Software, Inc. All rights reserved.
+ * <p>
+ * This program and the accompanying materials are made available under
+ * the terms of the under the Apache License, Version 2.0 (the "License”);
+ * you may not use this file except in compliance with the License.
+ * <p>
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * <p>
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.pivotal.ecosystem.ece;
+
+import org.junit.Test;
+import org.springframework.cloud.servicebroker.model.CreateServiceInstanceBindingRequest;
+import org.springframework.cloud.servicebroker.model.CreateServiceInstanceRequest;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class ReservationsTest {
+
+    @Test
+    public void testInstanceHashIgnoresParameterOrder() {
+        Map<String, Object> p1 = new LinkedHashMap<>();
+        p1.put("a", "1");
+        p1.put("b", "2");
+        Map<String, Object> p2 = new LinkedHashMap<>();
+        p2.put("b", "2");
+        p2.put("a", "1");
+
+        assertEquals(Reservations.hash(instanceRequest(p1)), Reservations.hash(instanceRequest(p2)));
+    }
+
+    @Test
+    public void testInstanceHashDiffers() {
+        assertNotEquals(Reservations.hash(instanceRequest(Collections.singletonMap("a", "1"))),
+                Reservations.hash(instanceRequest(Collections.singletonMap("a", "2"))));
+        assertNotEquals(Reservations.hash(instanceRequest(null)),
+                Reservations.hash(new CreateServiceInstanceRequest(TestConfig.SD_ID, "anotherPlan", "anOrgGuid", "aSpaceGuid", null)));
+    }
+
+    @Test
+    public void testBindingHash() {
+        assertEquals(Reservations.hash(bindingRequest("anAppGuid")), Reservations.hash(bindingRequest("anAppGuid")));
+        assertNotEquals(Reservations.hash(bindingRequest("anAppGuid")), Reservations.hash(bindingRequest("anotherAppGuid")));
+    }
+
+    private CreateServiceInstanceRequest instanceRequest(Map<String, Object> params) {
+        return new CreateServiceInstanceRequest(TestConfig.SD_ID, TestConfig.PLAN_ID, "anOrgGuid", "aSpaceGuid", params);
+    }
+
+    private CreateServiceInstanceBindingRequest bindingRequest(String appGuid) {
+        return new CreateServiceInstanceBindingRequest(TestConfig.SD_ID, TestConfig.PLAN_ID, appGuid,
+                Collections.singletonMap("app_guid", appGuid), null).withServiceInstanceId(TestConfig.SI_ID).withBindingId("aBindingId");
+    }
+}
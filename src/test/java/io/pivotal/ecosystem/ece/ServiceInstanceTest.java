@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2017-Present Pivotal Software, Inc. All rights reserved.
+ * <p>
+ * This program and the accompanying materials are made available under
+ * the terms of the under the Apache License, Version 2.0 (the "License”);
+ * you may not use this file except in compliance with the License.
+ * <p>
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * <p>
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.pivotal.ecosystem.ece;
+
+import org.junit.Test;
+import org.springframework.cloud.servicebroker.model.GetLastServiceOperationResponse;
+import org.springframework.cloud.servicebroker.model.OperationState;
+
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class ServiceInstanceTest {
+
+    @Test
+    public void testNeverSavedHasNoChangeSet() {
+        ServiceInstance instance = TestConfig.customServiceInstance(TestConfig.SI_ID);
+        assertNull(instance.getChangedFields());
+        assertTrue(instance.isDirty());
+    }
+
+    @Test
+    public void testUnchangedAfterMarkClean() {
+        ServiceInstance instance = TestConfig.customServiceInstance(TestConfig.SI_ID);
+        instance.setLastOperation(new GetLastServiceOperationResponse().withOperationState(OperationState.IN_PROGRESS).withDescription("creating...."));
+        instance.markClean();
+
+        assertTrue(instance.getChangedFields().isEmpty());
+        assertFalse(instance.isDirty());
+
+        //setting the same values is not a change
+        instance.setKibanaWanted(instance.isKibanaWanted());
+        instance.getLastOperation().withOperationState(OperationState.IN_PROGRESS);
+        assertTrue(instance.getChangedFields().isEmpty());
+    }
+
+    @Test
+    public void testChangedFields() {
+        ServiceInstance instance = TestConfig.customServiceInstance(TestConfig.SI_ID);
+        instance.setLastOperation(new GetLastServiceOperationResponse().withOperationState(OperationState.IN_PROGRESS).withDescription("creating...."));
+        instance.markClean();
+
+        instance.getLastOperation().withOperationState(OperationState.SUCCEEDED).withDescription("created.");
+        instance.getCredentials().put("username", "aUser");
+        instance.setKibanaRequested(true);
+
+        Map<String, Object> changed = instance.getChangedFields();
+        assertEquals(3, changed.size());
+        assertEquals(instance.getLastOperation(), changed.get("lastOperation"));
+        assertEquals(instance.getCredentials(), changed.get("credentials"));
+        assertEquals(true, changed.get("kibanaRequested"));
+
+        instance.markClean();
+        assertTrue(instance.getChangedFields().isEmpty());
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2017-Present Pivotal Software, Inc. All rights reserved.
+ * <p>
+ * This program and the accompanying materials are made available under
+ * the terms of the under the Apache License, Version 2.0 (the "License”);
+ * you may not use this file except in compliance with the License.
+ * <p>
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * <p>
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.ecosystem.ece;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class SingleFlightTest {
+
+    @Test
+    public void testConcurrentCallsShareOneCall() throws Exception {
+        SingleFlight<String, String> sf = new SingleFlight<>();
+        AtomicInteger invocations = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        int callers = 8;
+
+        ExecutorService es = Executors.newFixedThreadPool(callers);
+        List<Future<String>> results = new ArrayList<>();
+        for (int i = 0; i < callers; i++) {
+            results.add(es.submit(() -> sf.execute("key", () -> {
+                invocations.incrementAndGet();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                return "value";
+            })));
+        }
+
+        //let the other callers pile up behind the first one
+        while (sf.getCalls() + sf.getCoalesced() < callers) {
+            Thread.sleep(10);
+        }
+        release.countDown();
+
+        for (Future<String> f : results) {
+            assertEquals("value", f.get(5, TimeUnit.SECONDS));
+        }
+        es.shutdown();
+
+        assertEquals(1, invocations.get());
+        assertEquals(1, sf.getCalls());
+        assertEquals(callers - 1, sf.getCoalesced());
+    }
+
+    @Test
+    public void testCompletedCallsAreNotCached() {
+        SingleFlight<String, Integer> sf = new SingleFlight<>();
+        AtomicInteger invocations = new AtomicInteger();
+
+        sf.execute("key", invocations::incrementAndGet);
+        sf.execute("key", invocations::incrementAndGet);
+
+        assertEquals(2, invocations.get());
+        assertEquals(0, sf.getCoalesced());
+    }
+
+    @Test
+    public void testExceptionsPropagate() {
+        SingleFlight<String, Object> sf = new SingleFlight<>();
+        try {
+            sf.execute("key", () -> {
+                throw new IllegalArgumentException("boom");
+            });
+            fail("expected exception");
+        } catch (IllegalArgumentException e) {
+            assertEquals("boom", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2017-Present Pivotal Software, Inc. All rights reserved.
+ * <p>
+ * This program and the accompanying materials are made available under
+ * the terms of the under the Apache License, Version 2.0 (the "License”);
+ * you may not use this file except in compliance with the License.
+ * <p>
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * <p>
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.pivotal.ecosystem.ece;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.cloud.servicebroker.model.CreateServiceInstanceBindingRequest;
+import org.springframework.cloud.servicebroker.model.GetLastServiceOperationResponse;
+import org.springframework.cloud.servicebroker.model.OperationState;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest
+public class TeardownWatcherTest {
+
+    @Autowired
+    private TeardownWatcher teardownWatcher;
+
+    @Autowired
+    private EceRepo eceRepo;
+
+    @Autowired
+    private ClusterStatusEngine clusterStatusEngine;
+
+    @Autowired
+    private ServiceInstanceRepository serviceInstanceRepository;
+
+    @Autowired
+    private ServiceBindingRepository serviceBindingRepository;
+
+    @Autowired
+    private BulkBatchRepository bulkBatchRepository;
+
+    @Before
+    public void setUp() throws Exception {
+        when(eceRepo.getClustersInfo()).thenReturn(TestConfig.responseFromFile("clustersInfo.json"));
+        clusterStatusEngine.refresh();
+    }
+
+    private static BulkBatch teardown(String... ids) {
+        BulkBatch batch = new BulkBatch();
+        batch.setId("aTeardown");
+        batch.setOperation(BulkBatch.Operation.teardown);
+        batch.setActive(true);
+        batch.getInstanceIds().addAll(Arrays.asList(ids));
+        return batch;
+    }
+
+    private static ServiceInstance deleting(String id, OperationState state) {
+        ServiceInstance instance = TestConfig.defaultsServiceInstance(id);
+        instance.getClusterParams().put(ClusterConfig.eceApiKeys.elasticsearch_cluster_id.name(), TestConfig.CLUSTER_ID);
+        instance.setLastOperation(new GetLastServiceOperationResponse().withOperationState(state).withDeleteOperation(true));
+        return instance;
+    }
+
+    private static ServiceBinding binding(String id, String instanceId) {
+        CreateServiceInstanceBindingRequest req = new CreateServiceInstanceBindingRequest(TestConfig.SD_ID, TestConfig.PLAN_ID, "anAppGuid", null);
+        req.withBindingId(id);
+        req.withServiceInstanceId(instanceId);
+        return new ServiceBinding(req);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testDoneTeardownRemovesBindings() {
+        BulkBatch batch = teardown("a", "b");
+        when(serviceInstanceRepository.findAll(any(Iterable.class)))
+                .thenReturn(Arrays.asList(deleting("a", OperationState.SUCCEEDED), deleting("b", OperationState.SUCCEEDED)));
+        when(serviceBindingRepository.findAll())
+                .thenReturn(Arrays.asList(binding("a1", "a"), binding("other1", "other"), binding("b1", "b")));
+
+        teardownWatcher.watch(batch);
+
+        ArgumentCaptor<Collection> removed = ArgumentCaptor.forClass(Collection.class);
+        verify(serviceBindingRepository).deleteAllById(removed.capture());
+        assertEquals(new HashSet<>(Arrays.asList("a1", "b1")), new HashSet<>(removed.getValue()));
+
+        assertFalse(batch.isActive());
+        verify(bulkBatchRepository).save(batch);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testRunningClusterIsLeftAlone() {
+        BulkBatch batch = teardown("a");
+        when(serviceInstanceRepository.findAll(any(Iterable.class))).thenReturn(Arrays.asList(deleting("a", OperationState.IN_PROGRESS)));
+
+        teardownWatcher.watch(batch);
+
+        //still started in the listing, so nothing is deleted and the teardown stays active
+        verify(eceRepo, never()).deleteCluster(anyString());
+        verify(serviceBindingRepository, never()).deleteAllById(any(Collection.class));
+        assertTrue(batch.isActive());
+    }
+}
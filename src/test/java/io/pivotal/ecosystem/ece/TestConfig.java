@@ -19,6 +19,7 @@ package io.pivotal.ecosystem.ece;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import feign.Response;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.cloud.servicebroker.model.CreateServiceInstanceRequest;
 import org.springframework.context.annotation.Bean;
@@ -26,6 +27,8 @@ import org.springframework.context.annotation.Configuration;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -51,9 +54,27 @@ class TestConfig {
     @MockBean
     ServiceBindingRepository serviceBindingRepository;
 
+    @MockBean
+    ClusterNameRepository clusterNameRepository;
+
+    @MockBean
+    OperationLeases operationLeases;
+
+    @MockBean
+    Reservations reservations;
+
+    @MockBean
+    BulkBatchRepository bulkBatchRepository;
+
+    @MockBean
+    PoolStore poolStore;
+
+    @MockBean
+    CredentialStore credentialStore;
+
     @Bean
     public CatalogService catalogService() {
-        return new CatalogService();
+        return new CatalogService("");
     }
 
     @Bean
@@ -97,6 +118,14 @@ class TestConfig {
         return new File(classLoader.getResource(name).getFile());
     }
 
+    static <T> T fromJson(String fileName, Class<T> type) throws IOException {
+        return EceJson.MAPPER.readValue(getFile(fileName), type);
+    }
+
+    static Response responseFromFile(String fileName) throws IOException {
+        return Response.create(200, "OK", Collections.emptyMap(), Files.readAllBytes(getFile(fileName).toPath()));
+    }
+
     @SuppressWarnings("unchecked")
     static Map<Object, Object> fromJson(String fileName) throws IOException {
         return (Map<Object, Object>) new ObjectMapper().readValue(getFile(fileName), HashMap.class);
@@ -0,0 +1,229 @@
+/*
+ * Copyright (C) 2017-Present Pivotal Software, Inc. All rights reserved.
+ * <p>
+ * This program and the accompanying materials are made available under
+ * the terms of the under the Apache License, Version 2.0 (the "License”);
+ * you may not use this file except in compliance with the License.
+ * <p>
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * <p>
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.pivotal.ecosystem.ece;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest
+public class WarmPoolTest {
+
+    @Autowired
+    private PoolStore poolStore;
+
+    @Autowired
+    private EceRepo eceRepo;
+
+    @Autowired
+    private EceClient eceClient;
+
+    @Autowired
+    private CatalogService catalogService;
+
+    @Autowired
+    private ClusterStatusEngine clusterStatusEngine;
+
+    @Autowired
+    private OperationLeases operationLeases;
+
+    @Autowired
+    private EceConfig eceConfig;
+
+    @Autowired
+    private EceMetrics eceMetrics;
+
+    private WarmPool warmPool;
+
+    @Before
+    public void setUp() throws Exception {
+        when(eceRepo.getClustersInfo()).thenReturn(TestConfig.responseFromFile("clustersInfo.json"));
+        clusterStatusEngine.refresh();
+        warmPool = new WarmPool(poolStore, eceClient, catalogService, clusterStatusEngine, operationLeases, eceConfig, eceMetrics,
+                TestConfig.PLAN_ID + ":2", 5, 1800000);
+    }
+
+    private static PoolCluster pooled(long readyAt) {
+        PoolCluster c = new PoolCluster();
+        c.setClusterId(TestConfig.CLUSTER_ID);
+        c.setClusterName(WarmPool.NAME_PREFIX + "aCluster");
+        c.setUsername("elastic");
+        c.setPassword("aPassword");
+        c.setCreatedAt(readyAt);
+        c.setReadyAt(readyAt);
+        return c;
+    }
+
+    @Test
+    public void testParseTargets() {
+        Map<String, WarmPool.Plan> plans = WarmPool.parseTargets(" oneNodeCluster:2, oneNodeClusterWithKibana:1,other:0");
+        assertEquals(2, plans.size());
+        assertEquals(2, plans.get("oneNodeCluster").getTarget());
+        assertTrue(WarmPool.parseTargets("").isEmpty());
+    }
+
+    @Test
+    public void testClaimTakesOverPooledCluster() {
+        when(poolStore.claim(TestConfig.PLAN_ID)).thenReturn(pooled(System.currentTimeMillis() - 1000));
+        ServiceInstance instance = TestConfig.defaultsServiceInstance(TestConfig.SI_ID);
+
+        assertTrue(warmPool.claim(instance));
+
+        assertEquals(TestConfig.CLUSTER_ID, instance.getClusterId());
+        assertEquals("aPassword", instance.getCredentials().get(ClusterConfig.credentialKeys.password.name()));
+        verify(eceRepo).updateClusterMetadata(TestConfig.CLUSTER_ID, "{\"cluster_name\":\"" + TestConfig.SI_ID + "\"}");
+        assertEquals(1, warmPool.getHits());
+        assertTrue(warmPool.getIdleTime() >= 1000);
+    }
+
+    @Test
+    public void testEmptyPoolIsAMiss() {
+        assertFalse(warmPool.claim(TestConfig.defaultsServiceInstance(TestConfig.SI_ID)));
+        assertEquals(1, warmPool.getMisses());
+        assertEquals(0.0, warmPool.getHitRate(), 0.0);
+    }
+
+    @Test
+    public void testFailedRenamePutsClusterBack() {
+        PoolCluster c = pooled(System.currentTimeMillis());
+        when(poolStore.claim(TestConfig.PLAN_ID)).thenReturn(c);
+        doThrow(new RuntimeException("ece is down")).when(eceRepo).updateClusterMetadata(anyString(), any());
+
+        assertFalse(warmPool.claim(TestConfig.defaultsServiceInstance(TestConfig.SI_ID)));
+        verify(poolStore).putBack(TestConfig.PLAN_ID, c);
+    }
+
+    @Test
+    public void testClaimRenamesKibana() {
+        PoolCluster c = pooled(System.currentTimeMillis());
+        c.setKibanaClusterId("aKibanaId");
+        when(poolStore.claim(TestConfig.PLAN_ID)).thenReturn(c);
+
+        assertTrue(warmPool.claim(TestConfig.defaultsServiceInstance(TestConfig.SI_ID)));
+        verify(eceRepo).updateKibanaMetadata("aKibanaId", "{\"cluster_name\":\"" + TestConfig.SI_ID + "\"}");
+    }
+
+    @Test
+    public void testFailedKibanaRenameRenamesBack() {
+        PoolCluster c = pooled(System.currentTimeMillis());
+        c.setKibanaClusterId("aKibanaId");
+        when(poolStore.claim(TestConfig.PLAN_ID)).thenReturn(c);
+        doThrow(new RuntimeException("ece is down")).doNothing().when(eceRepo).updateKibanaMetadata(anyString(), any());
+
+        assertFalse(warmPool.claim(TestConfig.defaultsServiceInstance(TestConfig.SI_ID)));
+        verify(eceRepo).updateClusterMetadata(TestConfig.CLUSTER_ID, "{\"cluster_name\":\"" + c.getClusterName() + "\"}");
+        verify(poolStore).putBack(TestConfig.PLAN_ID, c);
+    }
+
+    @Test
+    public void testReleasedClusterGoesBackUnderAPoolName() {
+        when(poolStore.claim(TestConfig.PLAN_ID)).thenReturn(pooled(System.currentTimeMillis()));
+        ServiceInstance instance = TestConfig.defaultsServiceInstance(TestConfig.SI_ID);
+        assertTrue(warmPool.claim(instance));
+
+        warmPool.release(instance);
+
+        ArgumentCaptor<PoolCluster> returned = ArgumentCaptor.forClass(PoolCluster.class);
+        verify(poolStore).putBack(eq(TestConfig.PLAN_ID), returned.capture());
+        assertEquals(TestConfig.CLUSTER_ID, returned.getValue().getClusterId());
+        assertTrue(returned.getValue().getClusterName().startsWith(WarmPool.NAME_PREFIX));
+        verify(eceRepo).updateClusterMetadata(TestConfig.CLUSTER_ID, "{\"cluster_name\":\"" + returned.getValue().getClusterName() + "\"}");
+    }
+
+    @Test
+    public void testUnreturnableClusterIsStopped() {
+        PoolCluster c = pooled(System.currentTimeMillis());
+        when(poolStore.claim(TestConfig.PLAN_ID)).thenReturn(c);
+        doThrow(new RuntimeException("redis is down")).when(poolStore).putBack(anyString(), any(PoolCluster.class));
+        doThrow(new RuntimeException("ece is down")).when(eceRepo).updateClusterMetadata(anyString(), any());
+
+        assertFalse(warmPool.claim(TestConfig.defaultsServiceInstance(TestConfig.SI_ID)));
+        verify(eceRepo).shutdownCluster(TestConfig.CLUSTER_ID);
+    }
+
+    @Test
+    public void testOtherPlansAreNotPooled() {
+        ServiceInstance instance = TestConfig.defaultsServiceInstance(TestConfig.SI_ID);
+        instance.setPlan_id("oneNodeClusterWithKibana");
+
+        assertFalse(warmPool.claim(instance));
+        verify(poolStore, never()).claim(anyString());
+    }
+
+    @Test
+    public void testRefillPromotesStartedAndMakesUpTarget() throws Exception {
+        PoolCluster started = pooled(System.currentTimeMillis());
+        when(operationLeases.tryLock(WarmPool.REFILL_LOCK)).thenReturn(true);
+        when(poolStore.getPending(TestConfig.PLAN_ID)).thenReturn(Collections.singletonMap(TestConfig.CLUSTER_ID, started));
+        when(poolStore.getReady(TestConfig.PLAN_ID)).thenReturn(Collections.singletonList(started));
+        when(eceRepo.createCluster(any())).thenReturn(TestConfig.fromJson("createClusterResponse.json", CreateClusterResponse.class));
+
+        warmPool.refill();
+
+        //the started cluster is now ready, so one more makes the target of 2
+        verify(poolStore).promote(TestConfig.PLAN_ID, started);
+        verify(eceRepo, times(1)).createCluster(any());
+        verify(poolStore).addPending(eq(TestConfig.PLAN_ID), any(PoolCluster.class));
+        verify(operationLeases).unlock(WarmPool.REFILL_LOCK);
+        verify(operationLeases, never()).acquire(anyString());
+        assertEquals(1, warmPool.getPlans().get(TestConfig.PLAN_ID).getReady());
+    }
+
+    @Test
+    public void testRefillWithoutLeaseDoesNothing() {
+        when(operationLeases.tryLock(WarmPool.REFILL_LOCK)).thenReturn(false);
+
+        warmPool.refill();
+
+        verify(poolStore, never()).getPending(anyString());
+        verify(eceRepo, never()).createCluster(any());
+    }
+
+    @Test
+    public void testRefillStopsWhenTheLockIsLost() throws Exception {
+        PoolCluster started = pooled(System.currentTimeMillis());
+        when(operationLeases.tryLock(WarmPool.REFILL_LOCK)).thenReturn(true, false);
+        when(poolStore.getPending(TestConfig.PLAN_ID)).thenReturn(Collections.singletonMap(TestConfig.CLUSTER_ID, started));
+        when(poolStore.getReady(TestConfig.PLAN_ID)).thenReturn(Collections.singletonList(started));
+
+        warmPool.refill();
+
+        //another broker holds the lock now and makes up the target itself
+        verify(eceRepo, never()).createCluster(any());
+        verify(poolStore, never()).addPending(eq(TestConfig.PLAN_ID), any(PoolCluster.class));
+    }
+}